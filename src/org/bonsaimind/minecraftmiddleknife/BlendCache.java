@@ -0,0 +1,283 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A content addressed cache for blended jars, which can be shared between
+ * multiple {@link Blender}s, instances and processes.
+ * <p/>
+ * The key of a blended jar is the hash of the contents of all jars of the
+ * stack, in order, together with the settings which change the output. If a
+ * jar with the same key has already been blended, it is hard linked (or, if
+ * that is not possible, copied) to the requested output instead of blending
+ * it again.
+ * <p/>
+ * The hashes of the jars of the stack are remembered by a
+ * {@link FileVerifier}, so jars which have not changed are not read again.
+ * <p/>
+ * The cache is bounded in size, the least recently used jars are evicted
+ * first. When a jar has been used last is kept in a separate, empty file next
+ * to it, as the jar itself is hard linked into the outputs and its
+ * modification time has to stay untouched.
+ * 
+ * <pre>
+ * BlendCache cache = new BlendCache(&quot;/path/to/cache/&quot;, 1024L * 1024L * 1024L);
+ * Blender blender = new Blender();
+ * blender.setCache(cache);
+ * blender.add(&quot;/path/to/minecraft.jar&quot;);
+ * blender.add(&quot;/path/to/modded/main.jar&quot;);
+ * blender.blend(&quot;/path/to/output.jar&quot;);
+ * </pre>
+ */
+public final class BlendCache {
+	
+	private static final String HASHES = ".hashes";
+	private static final String SUFFIX = ".jar";
+	private static final String USED_SUFFIX = ".used";
+	
+	private final File directory;
+	private final long maxSize;
+	private final FileVerifier verifier;
+	
+	/**
+	 * Creates a new instance of {@link BlendCache}.
+	 * 
+	 * @param directory the directory in which the blended jars are stored. It
+	 *            is created if it does not exist.
+	 * @param maxSize the maximum size in bytes of all blended jars together.
+	 * @throws IllegalArgumentException if maxSize is not positive.
+	 */
+	public BlendCache(String directory, long maxSize) {
+		if (maxSize <= 0) {
+			throw new IllegalArgumentException("maxSize is not positive.");
+		}
+		
+		this.directory = new File(directory).getAbsoluteFile();
+		this.maxSize = maxSize;
+		
+		verifier = new FileVerifier(new File(this.directory, HASHES).getPath());
+	}
+	
+	/**
+	 * Deletes the least recently used jars until all jars together fit into
+	 * the maximum size again.
+	 */
+	public void evict() {
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return file.isFile() && file.getName().endsWith(SUFFIX);
+			}
+		});
+		
+		if (files == null) {
+			return;
+		}
+		
+		final long[] lastUsed = new long[files.length];
+		long size = 0;
+		for (int idx = 0; idx < files.length; idx++) {
+			size += files[idx].length();
+		}
+		
+		if (size <= maxSize) {
+			return;
+		}
+		
+		for (int idx = 0; idx < files.length; idx++) {
+			lastUsed[idx] = getUsedFile(files[idx]).lastModified();
+			if (lastUsed[idx] == 0) {
+				lastUsed[idx] = files[idx].lastModified();
+			}
+		}
+		
+		Integer[] order = new Integer[files.length];
+		for (int idx = 0; idx < order.length; idx++) {
+			order[idx] = Integer.valueOf(idx);
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer first, Integer second) {
+				long difference = lastUsed[first.intValue()] - lastUsed[second.intValue()];
+				return difference < 0 ? -1 : (difference > 0 ? 1 : 0);
+			}
+		});
+		
+		for (int idx = 0; idx < order.length && size > maxSize; idx++) {
+			File file = files[order[idx].intValue()];
+			long length = file.length();
+			if (file.delete()) {
+				getUsedFile(file).delete();
+				size -= length;
+			}
+		}
+	}
+	
+	/**
+	 * Gets the directory in which the blended jars are stored.
+	 * 
+	 * @return the directory.
+	 */
+	public String getDirectory() {
+		return directory.getPath();
+	}
+	
+	/**
+	 * Gets the maximum size in bytes of all blended jars together.
+	 * 
+	 * @return the maximum size.
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+	
+	/**
+	 * Computes the key of the given stack with the given settings.
+	 * 
+	 * @param jars the jars of the stack.
+	 * @param settings the settings which change the output.
+	 * @return the key.
+	 * @throws IOException if hashing any jar failed.
+	 */
+	String createKey(List<File> jars, String settings) throws IOException {
+		Map<File, String> hashes = verifier.hash(jars);
+		
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-1 is guaranteed to be available.");
+		}
+		
+		// In the order of the stack, a jar can be in it more than once.
+		for (File jar : jars) {
+			update(digest, hashes.get(jar));
+			update(digest, "\n");
+		}
+		update(digest, settings);
+		
+		try {
+			verifier.save();
+		} catch (IOException e) {
+			// Then the jars are read again next time.
+		}
+		
+		return BlendManifest.toHex(digest.digest());
+	}
+	
+	/**
+	 * Provides the blended jar with the given key at the given output, if it
+	 * is in the cache.
+	 * 
+	 * @param key the key.
+	 * @param outputFile the output jar.
+	 * @return {@code true} if the jar was in the cache.
+	 */
+	boolean retrieve(String key, File outputFile) {
+		File cached = getFile(key);
+		if (!cached.isFile()) {
+			return false;
+		}
+		
+		try {
+			markUsed(cached);
+			FileOperations.linkOrCopy(cached, outputFile);
+			return true;
+		} catch (IOException e) {
+			// Most likely evicted by somebody else in the meantime.
+			return false;
+		}
+	}
+	
+	/**
+	 * Puts the given blended jar into the cache.
+	 * 
+	 * @param key the key.
+	 * @param blendedFile the blended jar.
+	 * @throws IOException if copying the jar into the cache failed.
+	 */
+	void store(String key, File blendedFile) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create " + directory + ".");
+		}
+		
+		// Copied under a temporary name first, so that nobody else can see a
+		// half written jar.
+		File temporaryFile = File.createTempFile(key, ".tmp", directory);
+		try {
+			FileOperations.linkOrCopy(blendedFile, temporaryFile);
+			if (!temporaryFile.renameTo(getFile(key)) && !getFile(key).isFile()) {
+				throw new IOException("Failed to move " + temporaryFile + " into the cache.");
+			}
+			markUsed(getFile(key));
+		} finally {
+			temporaryFile.delete();
+		}
+		
+		evict();
+	}
+	
+	private File getFile(String key) {
+		return new File(directory, key + SUFFIX);
+	}
+	
+	private File getUsedFile(File cached) {
+		String name = cached.getName();
+		return new File(directory, name.substring(0, name.length() - SUFFIX.length()) + USED_SUFFIX);
+	}
+	
+	/**
+	 * Remembers that the given jar has just been used, which is what the
+	 * eviction goes by. If that fails, the jar is simply evicted earlier.
+	 * 
+	 * @param cached the jar in the cache.
+	 */
+	private void markUsed(File cached) {
+		File usedFile = getUsedFile(cached);
+		try {
+			if (!usedFile.createNewFile()) {
+				usedFile.setLastModified(System.currentTimeMillis());
+			}
+		} catch (IOException e) {
+			// Evicted earlier then.
+		}
+	}
+	
+	private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+		digest.update(value.getBytes("UTF-8"));
+	}
+}
@@ -0,0 +1,802 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * Does the actual blending for the {@link Blender}, optionally on multiple
+ * threads.
+ * <p/>
+ * All jars are indexed at the same time, then the {@link BlendPlan} decides
+ * which entry from which jar ends up in the output. The winning entries are
+ * inflated and deflated on the worker threads into a buffer per entry, which are then
+ * written in order by the calling thread. Very large entries are not
+ * buffered, they are deflated by the calling thread directly into the output.
+ * Because every entry is deflated on its own, the output does not depend on
+ * the number of threads.
+ */
+final class BlendJob {
+	
+	/**
+	 * Entries larger than this, or of unknown size, are not buffered but
+	 * streamed into the output by the writing thread.
+	 */
+	private static final long STREAM_THRESHOLD = 1024 * 1024;
+	
+	private BlendManifest currentManifest = null;
+	private final List<File> jars;
+	private final boolean keepManifest;
+	private final BlendPlan plan;
+	private BlendManifest previousManifest = null;
+	private File previousOutput = null;
+	private final boolean rawCopy;
+	private final List<BlendRule> rules;
+	private final int threads;
+	private final Queue<Worker> workers = new ConcurrentLinkedQueue<Worker>();
+	
+	/**
+	 * Creates a new instance of {@link BlendJob}.
+	 * 
+	 * @param jars the jars to blend, the last one wins.
+	 * @param keepManifest if the manifest should be copied.
+	 * @param rules the {@link BlendRule}s to apply.
+	 * @param rawCopy if the compressed data should be copied as it is.
+	 * @param threads the number of threads to use, {@code 0} to do everything
+	 *            on the calling thread.
+	 */
+	public BlendJob(List<File> jars, boolean keepManifest, List<BlendRule> rules, boolean rawCopy, int threads) {
+		this.jars = jars;
+		this.keepManifest = keepManifest;
+		this.plan = null;
+		this.rawCopy = rawCopy;
+		this.rules = rules;
+		this.threads = threads;
+	}
+	
+	/**
+	 * Creates a new instance of {@link BlendJob} which executes the given
+	 * plan.
+	 * 
+	 * @param plan the {@link BlendPlan} to execute.
+	 * @param rawCopy if the compressed data should be copied as it is.
+	 * @param threads the number of threads to use, {@code 0} to do everything
+	 *            on the calling thread.
+	 */
+	public BlendJob(BlendPlan plan, boolean rawCopy, int threads) {
+		this.jars = plan.getJarFiles();
+		this.keepManifest = plan.isKeepManifest();
+		this.plan = plan;
+		this.rawCopy = rawCopy;
+		this.rules = null;
+		this.threads = threads;
+	}
+	
+	/**
+	 * Only reads the central directories of the jars and creates the
+	 * {@link BlendPlan} from them.
+	 * 
+	 * @return the {@link BlendPlan}.
+	 * @throws IOException if opening any jar failed.
+	 */
+	public BlendPlan plan() throws IOException {
+		ExecutorService executor = createExecutor();
+		List<Jar> indexedJars = new ArrayList<Jar>();
+		try {
+			index(executor, indexedJars);
+			return createPlan(indexedJars);
+		} finally {
+			shutdown(executor, indexedJars);
+		}
+	}
+	
+	/**
+	 * Lets this job take entries as they are from a previously blended jar,
+	 * if the jar that owns them did not change and they are still owned by
+	 * the same jar.
+	 * 
+	 * @param previousOutput the previously blended jar.
+	 * @param previous the {@link BlendManifest} of the previously blended jar.
+	 * @param current the {@link BlendManifest} of the current stack.
+	 */
+	public void reuse(File previousOutput, BlendManifest previous, BlendManifest current) {
+		this.previousOutput = previousOutput;
+		this.previousManifest = previous;
+		this.currentManifest = current;
+	}
+	
+	/**
+	 * Blends the jars into the given channel.
+	 * 
+	 * @param channel the channel to write to. It is not closed.
+	 * @return the {@link BlendPlan} that has been used.
+	 * @throws IOException if reading or writing failed.
+	 */
+	public BlendPlan run(WritableByteChannel channel) throws IOException {
+		if (plan != null && !plan.isUpToDate()) {
+			throw new IOException("The jars have changed since the plan has been created.");
+		}
+		
+		ExecutorService executor = createExecutor();
+		List<Jar> indexedJars = new ArrayList<Jar>();
+		try {
+			index(executor, indexedJars);
+			
+			BlendPlan currentPlan = plan;
+			if (currentPlan == null) {
+				currentPlan = createPlan(indexedJars);
+			}
+			
+			List<Target> targets = resolve(currentPlan, indexedJars);
+			
+			if (previousOutput != null) {
+				Jar previousJar = null;
+				try {
+					previousJar = Jar.open(previousOutput);
+				} catch (IOException e) {
+					// Then we can not reuse anything.
+				}
+				
+				if (previousJar != null) {
+					previousJar.reused = true;
+					indexedJars.add(previousJar);
+					replaceWithPrevious(currentPlan, targets, previousJar);
+				}
+			}
+			
+			write(executor, targets, new ZipWriter(channel));
+			
+			return currentPlan;
+		} finally {
+			shutdown(executor, indexedJars);
+		}
+	}
+	
+	private BlendPlan createPlan(List<Jar> indexedJars) {
+		List<List<String>> entryNames = new ArrayList<List<String>>(indexedJars.size());
+		for (Jar jar : indexedJars) {
+			List<String> names = new ArrayList<String>(jar.size());
+			for (int idx = 0; idx < jar.size(); idx++) {
+				names.add(jar.getName(idx));
+			}
+			entryNames.add(names);
+		}
+		
+		return BlendPlan.create(jars, entryNames, keepManifest, rules);
+	}
+	
+	private ExecutorService createExecutor() {
+		if (threads > 0) {
+			return Executors.newFixedThreadPool(threads, new DaemonThreadFactory("Blender-"));
+		}
+		return null;
+	}
+	
+	/**
+	 * Indexes all jars, on the executor if there is one.
+	 * 
+	 * @param executor the executor, can be {@code null}.
+	 * @param indexedJars the list to which the indexed jars are added, in the
+	 *            same order as the jars.
+	 * @throws IOException if opening any jar failed.
+	 */
+	private void index(ExecutorService executor, List<Jar> indexedJars) throws IOException {
+		if (executor == null) {
+			for (File jar : jars) {
+				indexedJars.add(Jar.open(jar));
+			}
+			return;
+		}
+		
+		List<Future<Jar>> futures = new ArrayList<Future<Jar>>();
+		for (final File jar : jars) {
+			futures.add(executor.submit(new Callable<Jar>() {
+				public Jar call() throws IOException {
+					return Jar.open(jar);
+				}
+			}));
+		}
+		
+		IOException exception = null;
+		for (Future<Jar> future : futures) {
+			try {
+				indexedJars.add(get(future));
+			} catch (IOException e) {
+				// Keep going so that all opened jars can be closed.
+				exception = e;
+			}
+		}
+		
+		if (exception != null) {
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Looks up the entries of the given plan, in the order in which they will
+	 * be written.
+	 * 
+	 * @param currentPlan the {@link BlendPlan}.
+	 * @param indexedJars the indexed jars.
+	 * @return the entries to write.
+	 * @throws ZipException if the plan does not match the jars.
+	 */
+	private List<Target> resolve(BlendPlan currentPlan, List<Jar> indexedJars) throws ZipException {
+		List<Target> targets = new ArrayList<Target>(currentPlan.size());
+		
+		for (int position = 0; position < currentPlan.size(); position++) {
+			String name = currentPlan.getEntries().get(position);
+			int[] parts = currentPlan.getMergeParts(position);
+			
+			if (parts == null) {
+				Source source = lookup(indexedJars, currentPlan.getOwnerIndex(position), currentPlan.getEntryIndex(position), currentPlan.getSourceName(position));
+				targets.add(new Target(name, source));
+			} else {
+				Source[] sources = new Source[parts.length / 2];
+				for (int idx = 0; idx < sources.length; idx++) {
+					sources[idx] = lookup(indexedJars, parts[idx * 2], parts[idx * 2 + 1], name);
+				}
+				targets.add(new Target(name, sources));
+			}
+		}
+		
+		return targets;
+	}
+	
+	private static Source lookup(List<Jar> indexedJars, int jarIndex, int entryIndex, String name) throws ZipException {
+		Jar jar = indexedJars.get(jarIndex);
+		if (entryIndex >= jar.size() || !jar.getName(entryIndex).equals(name)) {
+			throw new ZipException("The jars do not match the plan.");
+		}
+		return jar.getSource(entryIndex);
+	}
+	
+	/**
+	 * Replaces all sources which can be taken as they are from the previously
+	 * blended jar.
+	 * 
+	 * @param currentPlan the {@link BlendPlan}.
+	 * @param targets the entries to write, in the same order as the plan.
+	 * @param previousJar the previously blended jar.
+	 */
+	private void replaceWithPrevious(BlendPlan currentPlan, List<Target> targets, Jar previousJar) {
+		if (previousJar.directory == null) {
+			return;
+		}
+		
+		Map<String, Integer> previousEntries = new HashMap<String, Integer>(previousJar.size() * 4 / 3 + 1);
+		for (int idx = 0; idx < previousJar.size(); idx++) {
+			previousEntries.put(previousJar.getName(idx), Integer.valueOf(idx));
+		}
+		
+		for (int position = 0; position < targets.size(); position++) {
+			String name = currentPlan.getEntries().get(position);
+			int owner = currentPlan.getOwnerIndex(position);
+			
+			// Merged entries depend on more than one jar, they are simply
+			// merged again.
+			if (currentPlan.getMergeParts(position) == null && currentManifest.isUnchanged(previousManifest, owner) && previousManifest.getOwnerIndex(name) == owner) {
+				Integer previousIndex = previousEntries.get(name);
+				if (previousIndex != null && previousJar.directory.isPassThrough(previousIndex.intValue())) {
+					targets.set(position, new Target(name, previousJar.getSource(previousIndex.intValue())));
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Prepares all entries, on the executor if there is one, and writes them
+	 * in order. At most a few entries per thread are prepared ahead of the
+	 * writer, so memory stays bounded.
+	 * 
+	 * @param executor the executor, can be {@code null}.
+	 * @param targets the entries to write.
+	 * @param writer the {@link ZipWriter} to write to.
+	 * @throws IOException if reading or writing failed.
+	 */
+	private void write(ExecutorService executor, List<Target> targets, ZipWriter writer) throws IOException {
+		if (executor == null) {
+			for (Target target : targets) {
+				prepare(target).writeTo(writer);
+			}
+		} else {
+			int window = threads * 4;
+			int next = 0;
+			LinkedList<Future<Prepared>> pending = new LinkedList<Future<Prepared>>();
+			
+			while (next < targets.size() || !pending.isEmpty()) {
+				while (next < targets.size() && pending.size() < window) {
+					final Target target = targets.get(next++);
+					pending.add(executor.submit(new Callable<Prepared>() {
+						public Prepared call() throws IOException {
+							return prepare(target);
+						}
+					}));
+				}
+				
+				get(pending.removeFirst()).writeTo(writer);
+			}
+		}
+		
+		writer.finish();
+	}
+	
+	/**
+	 * Prepares the given entry for writing, which means inflating and
+	 * deflating it unless it can be copied as it is.
+	 * 
+	 * @param target the entry.
+	 * @return the {@link Prepared} entry.
+	 * @throws IOException if reading failed.
+	 */
+	private Prepared prepare(Target target) throws IOException {
+		if (target.sources.length > 1) {
+			return merge(target);
+		}
+		
+		Source source = target.sources[0];
+		if ((rawCopy || source.jar.reused) && source.isPassThrough()) {
+			// Entries from the previously blended jar are always copied as they
+			// are, they already have the form they would get now.
+			return new Prepared(target);
+		}
+		
+		int method = source.getMethod() == ZipEntry.STORED ? ZipEntry.STORED : ZipEntry.DEFLATED;
+		
+		// Decided by size only, so that the output stays the same no matter
+		// how many threads there are.
+		if (source.getSize() < 0 || source.getSize() > STREAM_THRESHOLD) {
+			if (method == ZipEntry.DEFLATED || source.getCrc() >= 0) {
+				return new Prepared(target, method);
+			}
+		}
+		
+		ByteArrayOutputStream data = new ByteArrayOutputStream((int) Math.max(source.getSize(), 32));
+		CRC32 crc = new CRC32();
+		long size = 0;
+		
+		InputStream inputStream = source.getInputStream();
+		Worker worker = takeWorker();
+		try {
+			byte[] buffer = worker.buffer;
+			byte[] deflated = worker.deflated;
+			Deflater deflater = worker.deflater;
+			deflater.reset();
+			
+			// Read until EOF, available() is only an estimate for inflating
+			// streams.
+			int read;
+			while ((read = inputStream.read(buffer)) >= 0) {
+				crc.update(buffer, 0, read);
+				size += read;
+				
+				if (method == ZipEntry.STORED) {
+					data.write(buffer, 0, read);
+				} else {
+					deflater.setInput(buffer, 0, read);
+					while (!deflater.needsInput()) {
+						data.write(deflated, 0, deflater.deflate(deflated));
+					}
+				}
+			}
+			
+			if (method == ZipEntry.DEFLATED) {
+				deflater.finish();
+				while (!deflater.finished()) {
+					data.write(deflated, 0, deflater.deflate(deflated));
+				}
+			}
+		} finally {
+			workers.offer(worker);
+			inputStream.close();
+		}
+		
+		return new Prepared(target, method, crc.getValue(), size, data.toByteArray());
+	}
+	
+	/**
+	 * Prepares a merged entry by concatenating all its parts, each one ending
+	 * with a newline.
+	 * 
+	 * @param target the merged entry.
+	 * @return the {@link Prepared} entry.
+	 * @throws IOException if reading failed.
+	 */
+	private Prepared merge(Target target) throws IOException {
+		ByteArrayOutputStream merged = new ByteArrayOutputStream();
+		
+		Worker worker = takeWorker();
+		try {
+			byte[] buffer = worker.buffer;
+			
+			for (Source source : target.sources) {
+				InputStream inputStream = source.getInputStream();
+				try {
+					int last = '\n';
+					int read;
+					while ((read = inputStream.read(buffer)) >= 0) {
+						merged.write(buffer, 0, read);
+						if (read > 0) {
+							last = buffer[read - 1];
+						}
+					}
+					
+					if (last != '\n') {
+						merged.write('\n');
+					}
+				} finally {
+					inputStream.close();
+				}
+			}
+			
+			byte[] data = merged.toByteArray();
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			
+			ByteArrayOutputStream deflatedData = new ByteArrayOutputStream(data.length / 2 + 32);
+			Deflater deflater = worker.deflater;
+			deflater.reset();
+			deflater.setInput(data);
+			deflater.finish();
+			while (!deflater.finished()) {
+				deflatedData.write(worker.deflated, 0, deflater.deflate(worker.deflated));
+			}
+			
+			return new Prepared(target, ZipEntry.DEFLATED, crc.getValue(), data.length, deflatedData.toByteArray());
+		} finally {
+			workers.offer(worker);
+		}
+	}
+	
+	/**
+	 * Waits for the given {@link Future} and unwraps the exception, if any.
+	 * 
+	 * @param future the {@link Future}.
+	 * @return the result.
+	 * @throws IOException if the task failed with it.
+	 */
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while blending.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Blending failed: " + cause);
+		}
+	}
+	
+	private Worker takeWorker() {
+		Worker worker = workers.poll();
+		if (worker == null) {
+			worker = new Worker();
+		}
+		return worker;
+	}
+	
+	private void shutdown(ExecutorService executor, List<Jar> indexedJars) throws IOException {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+		
+		// Workers which are still in use by a cancelled task are not ended
+		// here, the Deflater will take care of that itself eventually.
+		Worker worker;
+		while ((worker = workers.poll()) != null) {
+			worker.deflater.end();
+		}
+		
+		for (Jar jar : indexedJars) {
+			jar.close();
+		}
+	}
+	
+	/**
+	 * An opened jar, either read through a {@link ZipDirectory} or, if that is
+	 * not possible, through a {@link ZipFile}.
+	 * <p/>
+	 * Entries of a {@link ZipDirectory} which it can not inflate itself are
+	 * read through a {@link ZipFile}, too, which is only opened for the first
+	 * of them and then shared by all threads.
+	 */
+	private static final class Jar {
+		
+		private final ZipDirectory directory;
+		private boolean reused = false;
+		private final List<ZipEntry> zipEntries;
+		private ZipFile zipFile;
+		
+		private Jar(ZipDirectory directory, ZipFile zipFile) {
+			this.directory = directory;
+			this.zipFile = zipFile;
+			
+			if (directory != null) {
+				zipEntries = null;
+			} else {
+				zipEntries = new ArrayList<ZipEntry>();
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				while (entries.hasMoreElements()) {
+					zipEntries.add(entries.nextElement());
+				}
+			}
+		}
+		
+		public static Jar open(File file) throws IOException {
+			try {
+				return new Jar(ZipDirectory.open(file), null);
+			} catch (ZipException e) {
+				// Most likely a ZIP64 archive, which we can only read through
+				// ZipFile. If it is broken, ZipFile will tell us soon enough.
+				return new Jar(null, new ZipFile(file));
+			}
+		}
+		
+		public synchronized void close() throws IOException {
+			try {
+				if (directory != null) {
+					directory.close();
+				}
+			} finally {
+				if (zipFile != null) {
+					zipFile.close();
+				}
+			}
+		}
+		
+		public String getName(int index) {
+			if (directory != null) {
+				return directory.getName(index);
+			}
+			return zipEntries.get(index).getName();
+		}
+		
+		/**
+		 * Creates the {@link Source} for the given entry. They are only created
+		 * for the entries which are actually written.
+		 * 
+		 * @param index the index of the entry.
+		 * @return the {@link Source}.
+		 */
+		public Source getSource(int index) {
+			return new Source(this, index);
+		}
+		
+		public int size() {
+			if (directory != null) {
+				return directory.size();
+			}
+			return zipEntries.size();
+		}
+		
+		/**
+		 * Gets the {@link ZipFile} of this jar, opening it if that has not
+		 * happened yet.
+		 * 
+		 * @return the {@link ZipFile}.
+		 * @throws IOException if opening it failed.
+		 */
+		private synchronized ZipFile getZipFile() throws IOException {
+			if (zipFile == null) {
+				zipFile = new ZipFile(directory.getFile());
+			}
+			return zipFile;
+		}
+	}
+	
+	/**
+	 * An entry which has been prepared for writing.
+	 */
+	private static final class Prepared {
+		
+		private final long crc;
+		private final byte[] data;
+		private final int method;
+		private final long size;
+		private final Target target;
+		
+		/**
+		 * Creates a new instance of {@link Prepared} for an entry that is copied
+		 * as it is.
+		 * 
+		 * @param target the entry.
+		 */
+		public Prepared(Target target) {
+			this(target, -1, 0, 0, null);
+		}
+		
+		/**
+		 * Creates a new instance of {@link Prepared} for an entry that is
+		 * streamed into the output while it is written.
+		 * 
+		 * @param target the entry.
+		 * @param method the method with which it is written.
+		 */
+		public Prepared(Target target, int method) {
+			this(target, method, 0, 0, null);
+		}
+		
+		public Prepared(Target target, int method, long crc, long size, byte[] data) {
+			this.target = target;
+			this.method = method;
+			this.crc = crc;
+			this.size = size;
+			this.data = data;
+		}
+		
+		public void writeTo(ZipWriter writer) throws IOException {
+			Source source = target.sources[target.sources.length - 1];
+			if (data != null) {
+				writer.write(target.name, method, source.getDosTime(), crc, size, data, data.length);
+			} else if (method < 0) {
+				writer.copy(source.jar.directory, source.index, target.name);
+			} else {
+				InputStream inputStream = source.getInputStream();
+				try {
+					if (method == ZipEntry.STORED) {
+						writer.writeStored(target.name, source.getDosTime(), source.getCrc(), source.getSize(), inputStream);
+					} else {
+						writer.writeDeflated(target.name, source.getDosTime(), inputStream);
+					}
+				} finally {
+					inputStream.close();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * An entry of the output, together with the entries it is taken from.
+	 * There is more than one of those only if it is merged.
+	 */
+	private static final class Target {
+		
+		private final String name;
+		private final Source[] sources;
+		
+		public Target(String name, Source... sources) {
+			this.name = name;
+			this.sources = sources;
+		}
+	}
+	
+	/**
+	 * The buffers and the {@link Deflater} for preparing entries. There are
+	 * never more of them than threads, and they are reused for every entry.
+	 */
+	private static final class Worker {
+		
+		private final byte[] buffer = new byte[65536];
+		private final byte[] deflated = new byte[65536];
+		private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		
+		public Worker() {
+		}
+	}
+	
+	/**
+	 * A single entry in one of the jars.
+	 */
+	private static final class Source {
+		
+		private final int index;
+		private final Jar jar;
+		
+		public Source(Jar jar, int index) {
+			this.jar = jar;
+			this.index = index;
+		}
+		
+		public long getCrc() {
+			if (jar.directory != null) {
+				return jar.directory.getCrc(index);
+			}
+			return getZipEntry().getCrc();
+		}
+		
+		public int getDosTime() {
+			if (jar.directory != null) {
+				return jar.directory.getDosTime(index);
+			}
+			return ZipWriter.toDosTime(getZipEntry().getTime());
+		}
+		
+		public InputStream getInputStream() throws IOException {
+			if (isPassThrough()) {
+				return jar.directory.getInputStream(index);
+			}
+			
+			if (jar.directory == null) {
+				return jar.zipFile.getInputStream(getZipEntry());
+			}
+			
+			// Not something we can inflate ourselves, but maybe ZipFile can.
+			ZipFile zipFile = jar.getZipFile();
+			ZipEntry entry = zipFile.getEntry(getName());
+			if (entry == null) {
+				throw new ZipException("Missing entry " + getName() + " in " + jar.directory.getFile() + ".");
+			}
+			return zipFile.getInputStream(entry);
+		}
+		
+		public int getMethod() {
+			if (jar.directory != null) {
+				return jar.directory.getMethod(index);
+			}
+			return getZipEntry().getMethod();
+		}
+		
+		public String getName() {
+			return jar.getName(index);
+		}
+		
+		public long getSize() {
+			if (jar.directory != null) {
+				return jar.directory.getSize(index);
+			}
+			return getZipEntry().getSize();
+		}
+		
+		public boolean isPassThrough() {
+			return jar.directory != null && jar.directory.isPassThrough(index);
+		}
+		
+		private ZipEntry getZipEntry() {
+			return jar.zipEntries.get(index);
+		}
+	}
+}
@@ -0,0 +1,307 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The manifest which is stored next to a jar that has been blended
+ * incrementally. It remembers the size, modification time and hash of every
+ * jar of the stack and which jar every entry of the output has been taken
+ * from, so that the next blend can reuse everything that has not changed.
+ */
+final class BlendManifest {
+	
+	/**
+	 * The suffix which is appended to the name of the output jar to get the
+	 * name of the manifest.
+	 */
+	static final String SUFFIX = ".blend";
+	
+	private static final int MAGIC = 0x4d4d4b42; // MMKB
+	private static final int VERSION = 1;
+	
+	private final List<String> hashes = new ArrayList<String>();
+	private final List<Long> lastModified = new ArrayList<Long>();
+	private final List<Long> lengths = new ArrayList<Long>();
+	private long outputLastModified;
+	private long outputLength;
+	private final Map<String, Integer> owners = new HashMap<String, Integer>();
+	private final List<String> paths = new ArrayList<String>();
+	private String settings;
+	
+	private BlendManifest() {
+	}
+	
+	/**
+	 * Creates the manifest for the given jars, reusing the hashes from the
+	 * given previous manifest for all jars whose path, size and modification
+	 * time did not change.
+	 * 
+	 * @param jars the jars of the stack.
+	 * @param settings the settings of the blend, a blend with other settings
+	 *            can not be reused.
+	 * @param previous the previous manifest, can be {@code null}.
+	 * @return the new manifest, without any owners.
+	 * @throws IOException if hashing a jar failed.
+	 */
+	public static BlendManifest create(List<File> jars, String settings, BlendManifest previous) throws IOException {
+		BlendManifest manifest = new BlendManifest();
+		manifest.settings = settings;
+		
+		for (int idx = 0; idx < jars.size(); idx++) {
+			File jar = jars.get(idx);
+			String path = jar.getPath();
+			long length = jar.length();
+			long modified = jar.lastModified();
+			
+			String hash = null;
+			if (previous != null && idx < previous.paths.size()
+					&& previous.paths.get(idx).equals(path)
+					&& previous.lengths.get(idx).longValue() == length
+					&& previous.lastModified.get(idx).longValue() == modified) {
+				hash = previous.hashes.get(idx);
+			} else {
+				hash = hash(jar);
+			}
+			
+			manifest.paths.add(path);
+			manifest.lengths.add(Long.valueOf(length));
+			manifest.lastModified.add(Long.valueOf(modified));
+			manifest.hashes.add(hash);
+		}
+		
+		return manifest;
+	}
+	
+	/**
+	 * Reads the manifest which belongs to the given output jar.
+	 * 
+	 * @param outputFile the output jar.
+	 * @return the manifest, {@code null} if there is none or it can not be
+	 *         read.
+	 */
+	public static BlendManifest read(File outputFile) {
+		File file = getFile(outputFile);
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		try {
+			DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+					return null;
+				}
+				
+				BlendManifest manifest = new BlendManifest();
+				manifest.settings = input.readUTF();
+				manifest.outputLength = input.readLong();
+				manifest.outputLastModified = input.readLong();
+				
+				int jarCount = input.readInt();
+				for (int idx = 0; idx < jarCount; idx++) {
+					manifest.paths.add(input.readUTF());
+					manifest.lengths.add(Long.valueOf(input.readLong()));
+					manifest.lastModified.add(Long.valueOf(input.readLong()));
+					manifest.hashes.add(input.readUTF());
+				}
+				
+				int entryCount = input.readInt();
+				for (int idx = 0; idx < entryCount; idx++) {
+					manifest.owners.put(input.readUTF(), Integer.valueOf(input.readInt()));
+				}
+				
+				return manifest;
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			// A broken manifest only means that we have to blend everything.
+			return null;
+		}
+	}
+	
+	/**
+	 * Returns the hex encoded SHA-1 hash of the contents of the given file.
+	 * 
+	 * @param file the file to hash.
+	 * @return the hex encoded SHA-1 hash.
+	 * @throws IOException if reading the file failed.
+	 */
+	static String hash(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-1 is guaranteed to be available.");
+		}
+		
+		InputStream input = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			input.close();
+		}
+		
+		return toHex(digest.digest());
+	}
+	
+	/**
+	 * Returns the file of the manifest that belongs to the given output jar.
+	 * 
+	 * @param outputFile the output jar.
+	 * @return the file of the manifest.
+	 */
+	static File getFile(File outputFile) {
+		return new File(outputFile.getPath() + SUFFIX);
+	}
+	
+	static String toHex(byte[] bytes) {
+		StringBuilder hex = new StringBuilder(bytes.length * 2);
+		for (byte value : bytes) {
+			hex.append(Character.forDigit((value >> 4) & 0xf, 16));
+			hex.append(Character.forDigit(value & 0xf, 16));
+		}
+		return hex.toString();
+	}
+	
+	/**
+	 * Gets the index of the jar from which the given entry has been taken.
+	 * 
+	 * @param entry the name of the entry.
+	 * @return the index of the jar, {@code -1} if the entry is unknown.
+	 */
+	public int getOwnerIndex(String entry) {
+		Integer owner = owners.get(entry);
+		if (owner == null) {
+			return -1;
+		}
+		return owner.intValue();
+	}
+	
+	/**
+	 * Checks if the jar at the given index has the same content as the jar at
+	 * the same index in the given other manifest.
+	 * 
+	 * @param other the other manifest.
+	 * @param idx the index of the jar.
+	 * @return {@code true} if the jar did not change.
+	 */
+	public boolean isUnchanged(BlendManifest other, int idx) {
+		return idx < hashes.size() && idx < other.hashes.size() && hashes.get(idx).equals(other.hashes.get(idx));
+	}
+	
+	/**
+	 * Checks if the given previous output jar is the one this manifest has
+	 * been written for and if it has been created with the given settings.
+	 * 
+	 * @param outputFile the output jar.
+	 * @param currentSettings the current settings.
+	 * @return {@code true} if the output jar can be reused.
+	 */
+	public boolean matches(File outputFile, String currentSettings) {
+		return settings.equals(currentSettings)
+				&& outputFile.length() == outputLength
+				&& outputFile.lastModified() == outputLastModified;
+	}
+	
+	/**
+	 * Checks if this manifest describes exactly the same stack, with the same
+	 * jars in the same order and the same settings, as the given one.
+	 * 
+	 * @param other the other manifest.
+	 * @return {@code true} if nothing changed.
+	 */
+	public boolean sameStack(BlendManifest other) {
+		if (!settings.equals(other.settings) || hashes.size() != other.hashes.size()) {
+			return false;
+		}
+		
+		for (int idx = 0; idx < hashes.size(); idx++) {
+			if (!paths.get(idx).equals(other.paths.get(idx)) || !isUnchanged(other, idx)) {
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Writes this manifest next to the given output jar, together with the
+	 * owners of the entries from the given plan.
+	 * 
+	 * @param outputFile the output jar.
+	 * @param plan the {@link BlendPlan} which has been used.
+	 * @throws IOException if writing failed.
+	 */
+	public void write(File outputFile, BlendPlan plan) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFile(outputFile))));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(VERSION);
+			output.writeUTF(settings);
+			output.writeLong(outputFile.length());
+			output.writeLong(outputFile.lastModified());
+			
+			output.writeInt(paths.size());
+			for (int idx = 0; idx < paths.size(); idx++) {
+				output.writeUTF(paths.get(idx));
+				output.writeLong(lengths.get(idx).longValue());
+				output.writeLong(lastModified.get(idx).longValue());
+				output.writeUTF(hashes.get(idx));
+			}
+			
+			output.writeInt(plan.size());
+			for (int position = 0; position < plan.size(); position++) {
+				output.writeUTF(plan.getEntries().get(position));
+				output.writeInt(plan.getOwnerIndex(position));
+			}
+		} finally {
+			output.close();
+		}
+	}
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The precomputed result of which entry of which jar of the stack ends up in
+ * the blended jar.
+ * <p/>
+ * A plan is created by {@link Blender#plan()} from the central directories of
+ * the jars, without reading any entry. It can be inspected and handed to
+ * {@link Blender#blend(BlendPlan, String)} as often as wanted, as long as the
+ * jars do not change in the meantime.
+ * 
+ * <pre>
+ * BlendPlan plan = blender.plan();
+ * System.out.println(plan.getOwner(&quot;net/minecraft/client/Minecraft.class&quot;));
+ * blender.blend(plan, &quot;/path/to/output.jar&quot;);
+ * </pre>
+ */
+public final class BlendPlan {
+	
+	private final List<String> entries;
+	private final int[] entryIndexes;
+	private final Map<String, Integer> index;
+	private final long[] jarLastModified;
+	private final long[] jarLengths;
+	private final List<File> jars;
+	private final boolean keepManifest;
+	private final int[][] mergeParts;
+	private final int[] owners;
+	private final String[] sourceNames;
+	
+	private BlendPlan(List<File> jars, List<String> entries, Map<String, Integer> index, int[] owners, int[] entryIndexes, int[][] mergeParts, String[] sourceNames, boolean keepManifest) {
+		this.jars = Collections.unmodifiableList(new ArrayList<File>(jars));
+		this.entries = Collections.unmodifiableList(entries);
+		this.index = index;
+		this.owners = owners;
+		this.entryIndexes = entryIndexes;
+		this.mergeParts = mergeParts;
+		this.sourceNames = sourceNames;
+		this.keepManifest = keepManifest;
+		
+		jarLengths = new long[jars.size()];
+		jarLastModified = new long[jars.size()];
+		for (int idx = 0; idx < jars.size(); idx++) {
+			jarLengths[idx] = jars.get(idx).length();
+			jarLastModified[idx] = jars.get(idx).lastModified();
+		}
+	}
+	
+	/**
+	 * Creates the plan from the names of the entries of every jar.
+	 * 
+	 * @param jars the jars of the stack, the last one wins.
+	 * @param entryNames the names of the entries of every jar, in the order of
+	 *            their central directories.
+	 * @param keepManifest if the manifest should be copied.
+	 * @param rules the {@link BlendRule}s to apply, in order.
+	 * @return the {@link BlendPlan}.
+	 */
+	static BlendPlan create(List<File> jars, List<List<String>> entryNames, boolean keepManifest, List<BlendRule> rules) {
+		int total = 0;
+		for (List<String> names : entryNames) {
+			total += names.size();
+		}
+		
+		GlobMatcher matcher = new GlobMatcher();
+		boolean includesOnly = false;
+		for (BlendRule rule : rules) {
+			matcher.add(rule.getGlob());
+			includesOnly = includesOnly || rule.getType() == BlendRule.Type.INCLUDE;
+		}
+		
+		Map<String, Integer> index = new HashMap<String, Integer>(total * 4 / 3 + 1);
+		List<String> entries = new ArrayList<String>();
+		int[] owners = new int[total];
+		int[] entryIndexes = new int[total];
+		int[][] mergeParts = new int[total][];
+		String[] sourceNames = new String[total];
+		
+		// We will walk backwards through the stack.
+		for (int jarIdx = entryNames.size() - 1; jarIdx >= 0; jarIdx--) {
+			List<String> names = entryNames.get(jarIdx);
+			for (int entryIdx = 0; entryIdx < names.size(); entryIdx++) {
+				String name = names.get(entryIdx);
+				
+				if (!keepManifest && name.equals(Blender.MANIFEST)) {
+					continue;
+				}
+				
+				String sourceName = name;
+				BlendRule.Type type = null;
+				int ruleIdx = matcher.match(name);
+				if (ruleIdx >= 0) {
+					BlendRule rule = rules.get(ruleIdx);
+					type = rule.getType();
+					name = rule.apply(name);
+				}
+				
+				if (type == BlendRule.Type.EXCLUDE || (type == null && includesOnly)) {
+					continue;
+				}
+				
+				Integer existing = index.get(name);
+				if (existing == null) {
+					index.put(name, Integer.valueOf(entries.size()));
+					owners[entries.size()] = jarIdx;
+					entryIndexes[entries.size()] = entryIdx;
+					if (!name.equals(sourceName)) {
+						sourceNames[entries.size()] = sourceName;
+					}
+					if (type == BlendRule.Type.MERGE) {
+						mergeParts[entries.size()] = new int[] { jarIdx, entryIdx };
+					}
+					entries.add(name);
+				} else if (type == BlendRule.Type.MERGE && mergeParts[existing.intValue()] != null) {
+					// Walking backwards, so the earlier jar goes in front.
+					int[] parts = mergeParts[existing.intValue()];
+					int[] grown = new int[parts.length + 2];
+					grown[0] = jarIdx;
+					grown[1] = entryIdx;
+					System.arraycopy(parts, 0, grown, 2, parts.length);
+					mergeParts[existing.intValue()] = grown;
+				}
+			}
+		}
+		
+		// Merging a single entry is the same as copying it.
+		for (int position = 0; position < entries.size(); position++) {
+			if (mergeParts[position] != null && mergeParts[position].length == 2) {
+				mergeParts[position] = null;
+			}
+		}
+		
+		return new BlendPlan(jars, entries, index, owners, entryIndexes, mergeParts, sourceNames, keepManifest);
+	}
+	
+	/**
+	 * If the given entry ends up in the blended jar.
+	 * 
+	 * @param entry the name of the entry.
+	 * @return {@code true} if the entry is in the blended jar.
+	 */
+	public boolean contains(String entry) {
+		return index.containsKey(entry);
+	}
+	
+	/**
+	 * Gets the names of all entries of the blended jar, in the order in which
+	 * they are written.
+	 * 
+	 * @return the names of all entries.
+	 */
+	public List<String> getEntries() {
+		return entries;
+	}
+	
+	/**
+	 * Gets all jars of the stack.
+	 * 
+	 * @return the jars of the stack.
+	 */
+	public List<String> getJars() {
+		List<String> paths = new ArrayList<String>(jars.size());
+		for (File jar : jars) {
+			paths.add(jar.getPath());
+		}
+		return paths;
+	}
+	
+	/**
+	 * Gets the jar from which the given entry is taken. For merged entries
+	 * this is the last jar that contains it.
+	 * 
+	 * @param entry the name of the entry.
+	 * @return the jar from which the entry is taken, {@code null} if the entry
+	 *         is not in the blended jar.
+	 */
+	public String getOwner(String entry) {
+		int owner = getOwnerIndex(entry);
+		if (owner < 0) {
+			return null;
+		}
+		return jars.get(owner).getPath();
+	}
+	
+	/**
+	 * Gets the index in the stack of the jar from which the given entry is
+	 * taken.
+	 * 
+	 * @param entry the name of the entry.
+	 * @return the index of the jar, {@code -1} if the entry is not in the
+	 *         blended jar.
+	 */
+	public int getOwnerIndex(String entry) {
+		Integer position = index.get(entry);
+		if (position == null) {
+			return -1;
+		}
+		return owners[position.intValue()];
+	}
+	
+	/**
+	 * If the given entry is merged from multiple jars.
+	 * 
+	 * @param entry the name of the entry.
+	 * @return {@code true} if the entry is merged.
+	 * @see BlendRule#merge(String)
+	 */
+	public boolean isMerged(String entry) {
+		Integer position = index.get(entry);
+		return position != null && mergeParts[position.intValue()] != null;
+	}
+	
+	/**
+	 * If the manifest is copied to the blended jar.
+	 * 
+	 * @return {@code true} if the manifest is copied.
+	 */
+	public boolean isKeepManifest() {
+		return keepManifest;
+	}
+	
+	/**
+	 * Checks if none of the jars of the stack has been changed since this plan
+	 * has been created, judging by their size and modification time.
+	 * 
+	 * @return {@code true} if this plan can still be used.
+	 */
+	public boolean isUpToDate() {
+		for (int idx = 0; idx < jars.size(); idx++) {
+			if (jars.get(idx).length() != jarLengths[idx] || jars.get(idx).lastModified() != jarLastModified[idx]) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the number of entries of the blended jar.
+	 * 
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return entries.size();
+	}
+	
+	/**
+	 * Gets the index of the entry in the central directory of its jar.
+	 * 
+	 * @param position the position of the entry in this plan.
+	 * @return the index of the entry in the central directory.
+	 */
+	int getEntryIndex(int position) {
+		return entryIndexes[position];
+	}
+	
+	/**
+	 * Gets the position of the given entry in this plan.
+	 * 
+	 * @param entry the name of the entry.
+	 * @return the position, {@code -1} if the entry is not in the blended jar.
+	 */
+	int getPosition(String entry) {
+		Integer position = index.get(entry);
+		if (position == null) {
+			return -1;
+		}
+		return position.intValue();
+	}
+	
+	/**
+	 * Gets the parts of a merged entry.
+	 * 
+	 * @param position the position of the entry in this plan.
+	 * @return the index of the jar and the index of the entry in its central
+	 *         directory of every part, one after another and in the order of
+	 *         the stack. {@code null} if the entry is not merged.
+	 */
+	int[] getMergeParts(int position) {
+		return mergeParts[position];
+	}
+	
+	List<File> getJarFiles() {
+		return jars;
+	}
+	
+	/**
+	 * Gets the name of the entry in its jar, which differs from the name in
+	 * the blended jar if it has been renamed.
+	 * 
+	 * @param position the position of the entry in this plan.
+	 * @return the name of the entry in its jar.
+	 */
+	String getSourceName(int position) {
+		if (sourceNames[position] != null) {
+			return sourceNames[position];
+		}
+		return entries.get(position);
+	}
+	
+	/**
+	 * Gets the index of the jar from which the entry is taken.
+	 * 
+	 * @param position the position of the entry in this plan.
+	 * @return the index of the jar in the stack.
+	 */
+	int getOwnerIndex(int position) {
+		return owners[position];
+	}
+}
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.util.Locale;
+
+/**
+ * A rule which decides what the {@link Blender} does with the entries whose
+ * names match its pattern.
+ * <p/>
+ * Patterns are globs over the full name of the entry, {@code ?} matches any
+ * single character and {@code *} any number of characters except {@code /},
+ * {@code **} matches across directories. If an entry matches multiple rules,
+ * the one that has been added first wins.
+ * 
+ * <pre>
+ * blender.addRule(BlendRule.exclude(&quot;META-INF/*.SF&quot;));
+ * blender.addRule(BlendRule.exclude(&quot;META-INF/*.RSA&quot;));
+ * blender.addRule(BlendRule.merge(&quot;META-INF/services/*&quot;));
+ * blender.addRule(BlendRule.rename(&quot;com/example/&quot;, &quot;shaded/com/example/&quot;));
+ * </pre>
+ */
+public final class BlendRule {
+	
+	private final String pattern;
+	private final String replacement;
+	private final Type type;
+	
+	private BlendRule(Type type, String pattern, String replacement) {
+		if (pattern == null || pattern.length() == 0) {
+			throw new IllegalArgumentException("pattern is empty.");
+		}
+		
+		this.type = type;
+		this.pattern = pattern;
+		this.replacement = replacement;
+	}
+	
+	/**
+	 * Creates a rule which drops all matching entries from the blended jar.
+	 * 
+	 * @param pattern the glob pattern.
+	 * @return the {@link BlendRule}.
+	 */
+	public static BlendRule exclude(String pattern) {
+		return new BlendRule(Type.EXCLUDE, pattern, null);
+	}
+	
+	/**
+	 * Creates a rule which keeps all matching entries. As soon as there is one
+	 * include rule, entries which do not match any rule are dropped.
+	 * 
+	 * @param pattern the glob pattern.
+	 * @return the {@link BlendRule}.
+	 */
+	public static BlendRule include(String pattern) {
+		return new BlendRule(Type.INCLUDE, pattern, null);
+	}
+	
+	/**
+	 * Creates a rule which merges all matching entries instead of letting the
+	 * last jar win. The contents of the entries are concatenated in the order
+	 * of the stack, each one ending with a newline, which is what service
+	 * files need.
+	 * 
+	 * @param pattern the glob pattern.
+	 * @return the {@link BlendRule}.
+	 */
+	public static BlendRule merge(String pattern) {
+		return new BlendRule(Type.MERGE, pattern, null);
+	}
+	
+	/**
+	 * Creates a rule which moves entries to another name. If the given name
+	 * ends with {@code /}, everything below that directory is moved,
+	 * otherwise only the entry with exactly that name. The renamed entries
+	 * compete with all other entries under their new name.
+	 * 
+	 * @param from the name of the entry or directory, without wildcards.
+	 * @param to the new name of the entry or directory.
+	 * @return the {@link BlendRule}.
+	 * @throws IllegalArgumentException if from contains wildcards or to is
+	 *             empty.
+	 */
+	public static BlendRule rename(String from, String to) {
+		if (from != null && (from.indexOf('*') >= 0 || from.indexOf('?') >= 0)) {
+			throw new IllegalArgumentException("from must not contain wildcards.");
+		}
+		if (to == null || to.length() == 0) {
+			throw new IllegalArgumentException("to is empty.");
+		}
+		return new BlendRule(Type.RENAME, from, to);
+	}
+	
+	/**
+	 * Gets the glob pattern, or the name which is renamed.
+	 * 
+	 * @return the pattern.
+	 */
+	public String getPattern() {
+		return pattern;
+	}
+	
+	/**
+	 * Gets the new name for rename rules.
+	 * 
+	 * @return the new name, {@code null} for all other rules.
+	 */
+	public String getReplacement() {
+		return replacement;
+	}
+	
+	/**
+	 * Gets the type of this rule.
+	 * 
+	 * @return the {@link Type}.
+	 */
+	public Type getType() {
+		return type;
+	}
+	
+	@Override
+	public String toString() {
+		if (replacement != null) {
+			return type.name().toLowerCase(Locale.ENGLISH) + ":" + pattern + "->" + replacement;
+		}
+		return type.name().toLowerCase(Locale.ENGLISH) + ":" + pattern;
+	}
+	
+	/**
+	 * Applies this rule to the name of a matching entry.
+	 * 
+	 * @param name the name of the entry.
+	 * @return the name under which the entry ends up in the blended jar.
+	 */
+	String apply(String name) {
+		if (type == Type.RENAME) {
+			return replacement + name.substring(pattern.length());
+		}
+		return name;
+	}
+	
+	/**
+	 * Gets the glob which is compiled into the matcher.
+	 * 
+	 * @return the glob.
+	 */
+	String getGlob() {
+		if (type == Type.RENAME && pattern.endsWith("/")) {
+			return pattern + "**";
+		}
+		return pattern;
+	}
+	
+	/**
+	 * The types of rules.
+	 */
+	public enum Type {
+		EXCLUDE,
+		INCLUDE,
+		MERGE,
+		RENAME
+	}
+}
@@ -0,0 +1,433 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandler;
+import java.security.CodeSource;
+import java.security.ProtectionDomain;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.jar.Attributes;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * A {@link ClassLoader} which serves the stack of a {@link Blender} as if it
+ * had been blended, without ever writing the blended jar.
+ * <p/>
+ * The same {@link BlendPlan} is computed as for blending, and every class and
+ * resource is read directly from the jar that would have won. Resources are
+ * provided through {@link URL}s with a handler that is bound to this
+ * {@link ClassLoader}, they can not be recreated from their string
+ * representation. Classes are defined with the {@link CodeSource} of the jar
+ * they have been taken from, and their packages with the manifest of that jar.
+ * <p/>
+ * Entries which can not be read directly, for example because they are
+ * compressed with something else than deflate or because the jar is a ZIP64
+ * archive, are read through a {@link ZipFile} instead.
+ * <p/>
+ * Usage example:
+ * 
+ * <pre>
+ * ClassLoader libraries = classLoaderCreator.createClassLoader();
+ * BlendedClassLoader classLoader = blender.createClassLoader(libraries);
+ * Kickstarter.run(classLoader, arguments);
+ * </pre>
+ */
+public final class BlendedClassLoader extends ClassLoader {
+	
+	/**
+	 * The protocol of the {@link URL}s of the resources.
+	 */
+	public static final String PROTOCOL = "blend";
+	
+	private boolean closed = false;
+	private final ZipDirectory[] directories;
+	private final List<List<String>> entryNames;
+	private final URLStreamHandler handler = new BlendURLStreamHandler();
+	private final String host;
+	private final List<File> jars;
+	private final Manifest[] manifests;
+	private final boolean[] manifestsRead;
+	private final BlendPlan plan;
+	private final ProtectionDomain[] protectionDomains;
+	private final ZipFile[] zipFiles;
+	
+	/**
+	 * Creates a new instance of {@link BlendedClassLoader}.
+	 * 
+	 * @param parent the parent {@link ClassLoader}.
+	 * @param jars the jars of the stack, the last one wins.
+	 * @param keepManifest if the manifest should be provided.
+	 * @param rules the {@link BlendRule}s to apply.
+	 * @throws IOException if reading any jar failed.
+	 */
+	BlendedClassLoader(ClassLoader parent, List<File> jars, boolean keepManifest, List<BlendRule> rules) throws IOException {
+		super(parent);
+		
+		this.jars = new ArrayList<File>(jars);
+		directories = new ZipDirectory[jars.size()];
+		entryNames = new ArrayList<List<String>>(jars.size());
+		manifests = new Manifest[jars.size()];
+		manifestsRead = new boolean[jars.size()];
+		protectionDomains = new ProtectionDomain[jars.size()];
+		zipFiles = new ZipFile[jars.size()];
+		host = Integer.toHexString(System.identityHashCode(this));
+		
+		try {
+			for (int idx = 0; idx < jars.size(); idx++) {
+				protectionDomains[idx] = new ProtectionDomain(new CodeSource(jars.get(idx).toURI().toURL(), (Certificate[]) null), null, this, null);
+				
+				List<String> names = new ArrayList<String>();
+				try {
+					directories[idx] = ZipDirectory.open(jars.get(idx));
+					for (int entryIdx = 0; entryIdx < directories[idx].size(); entryIdx++) {
+						names.add(directories[idx].getName(entryIdx));
+					}
+				} catch (ZipException e) {
+					// Most likely a ZIP64 archive, which we can only read through
+					// ZipFile. If it is broken, ZipFile will tell us soon enough.
+					zipFiles[idx] = new ZipFile(jars.get(idx));
+					Enumeration<? extends ZipEntry> entries = zipFiles[idx].entries();
+					while (entries.hasMoreElements()) {
+						names.add(entries.nextElement().getName());
+					}
+				}
+				entryNames.add(names);
+			}
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		
+		plan = BlendPlan.create(jars, entryNames, keepManifest, rules);
+	}
+	
+	/**
+	 * Closes all jars. Classes and resources which have not been loaded yet
+	 * can not be loaded anymore.
+	 * 
+	 * @throws IOException if closing any jar failed.
+	 */
+	public void close() throws IOException {
+		IOException exception = null;
+		for (ZipDirectory directory : directories) {
+			if (directory != null) {
+				try {
+					directory.close();
+				} catch (IOException e) {
+					exception = e;
+				}
+			}
+		}
+		
+		synchronized (zipFiles) {
+			closed = true;
+			for (int idx = 0; idx < zipFiles.length; idx++) {
+				if (zipFiles[idx] != null) {
+					try {
+						zipFiles[idx].close();
+					} catch (IOException e) {
+						exception = e;
+					}
+					zipFiles[idx] = null;
+				}
+			}
+		}
+		
+		if (exception != null) {
+			throw exception;
+		}
+	}
+	
+	/**
+	 * Gets the {@link BlendPlan} which decides from which jar every class and
+	 * resource is taken.
+	 * 
+	 * @return the {@link BlendPlan}.
+	 */
+	public BlendPlan getPlan() {
+		return plan;
+	}
+	
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		String entryName = name.replace('.', '/') + ".class";
+		
+		int position = plan.getPosition(entryName);
+		if (position < 0) {
+			throw new ClassNotFoundException(name);
+		}
+		
+		byte[] data;
+		try {
+			data = read(position);
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+		
+		int jarIdx = plan.getOwnerIndex(position);
+		
+		int packageSeparator = name.lastIndexOf('.');
+		if (packageSeparator > 0) {
+			definePackage(name.substring(0, packageSeparator), jarIdx);
+		}
+		
+		return defineClass(name, data, 0, data.length, protectionDomains[jarIdx]);
+	}
+	
+	@Override
+	protected URL findResource(String name) {
+		int position = plan.getPosition(name);
+		if (position < 0) {
+			return null;
+		}
+		
+		try {
+			return new URL(PROTOCOL, host, -1, "/" + name, handler);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+	
+	@Override
+	protected Enumeration<URL> findResources(String name) throws IOException {
+		URL url = findResource(name);
+		if (url == null) {
+			return Collections.enumeration(Collections.<URL> emptyList());
+		}
+		return Collections.enumeration(Collections.singletonList(url));
+	}
+	
+	private void definePackage(String packageName, int jarIdx) {
+		if (getPackage(packageName) != null) {
+			return;
+		}
+		
+		try {
+			Manifest manifest = getManifest(jarIdx);
+			if (manifest != null) {
+				definePackage(packageName, manifest, protectionDomains[jarIdx].getCodeSource().getLocation());
+			} else {
+				definePackage(packageName, null, null, null, null, null, null, null);
+			}
+		} catch (IllegalArgumentException e) {
+			// Somebody else has been faster, that's fine.
+		}
+	}
+	
+	/**
+	 * Defines the given package with the attributes from the given manifest,
+	 * the same way as {@link java.net.URLClassLoader} does it.
+	 * 
+	 * @param packageName the name of the package.
+	 * @param manifest the manifest of the jar.
+	 * @param url the {@link URL} of the jar, used as seal base.
+	 */
+	private void definePackage(String packageName, Manifest manifest, URL url) {
+		Attributes packageAttributes = manifest.getAttributes(packageName.replace('.', '/') + "/");
+		Attributes mainAttributes = manifest.getMainAttributes();
+		
+		String sealed = getAttribute(packageAttributes, mainAttributes, Attributes.Name.SEALED);
+		
+		definePackage(packageName,
+				getAttribute(packageAttributes, mainAttributes, Attributes.Name.SPECIFICATION_TITLE),
+				getAttribute(packageAttributes, mainAttributes, Attributes.Name.SPECIFICATION_VERSION),
+				getAttribute(packageAttributes, mainAttributes, Attributes.Name.SPECIFICATION_VENDOR),
+				getAttribute(packageAttributes, mainAttributes, Attributes.Name.IMPLEMENTATION_TITLE),
+				getAttribute(packageAttributes, mainAttributes, Attributes.Name.IMPLEMENTATION_VERSION),
+				getAttribute(packageAttributes, mainAttributes, Attributes.Name.IMPLEMENTATION_VENDOR),
+				"true".equalsIgnoreCase(sealed) ? url : null);
+	}
+	
+	private Manifest getManifest(int jarIdx) {
+		synchronized (manifests) {
+			if (!manifestsRead[jarIdx]) {
+				manifestsRead[jarIdx] = true;
+				
+				// Taken from the jar itself, not from the plan, because the
+				// manifest of the blend might not be kept or merged.
+				int entryIdx = entryNames.get(jarIdx).indexOf(Blender.MANIFEST);
+				if (entryIdx >= 0) {
+					try {
+						manifests[jarIdx] = new Manifest(new ByteArrayInputStream(read(jarIdx, entryIdx)));
+					} catch (IOException e) {
+						// Then the package simply does not get any attributes.
+					}
+				}
+			}
+			
+			return manifests[jarIdx];
+		}
+	}
+	
+	private long getSize(int position) throws IOException {
+		int jarIdx = plan.getOwnerIndex(position);
+		int entryIdx = plan.getEntryIndex(position);
+		if (plan.getMergeParts(position) == null && directories[jarIdx] != null && directories[jarIdx].isPassThrough(entryIdx)) {
+			return directories[jarIdx].getSize(entryIdx);
+		}
+		return read(position).length;
+	}
+	
+	private ZipFile getZipFile(int jarIdx) throws IOException {
+		synchronized (zipFiles) {
+			if (closed) {
+				throw new IOException("The class loader has been closed.");
+			}
+			if (zipFiles[jarIdx] == null) {
+				zipFiles[jarIdx] = new ZipFile(jars.get(jarIdx));
+			}
+			return zipFiles[jarIdx];
+		}
+	}
+	
+	private byte[] read(int position) throws IOException {
+		int[] parts = plan.getMergeParts(position);
+		if (parts == null) {
+			return read(plan.getOwnerIndex(position), plan.getEntryIndex(position));
+		}
+		
+		// Merged the same way as by the Blender.
+		ByteArrayOutputStream merged = new ByteArrayOutputStream();
+		for (int idx = 0; idx < parts.length; idx += 2) {
+			byte[] data = read(parts[idx], parts[idx + 1]);
+			merged.write(data, 0, data.length);
+			if (data.length > 0 && data[data.length - 1] != '\n') {
+				merged.write('\n');
+			}
+		}
+		return merged.toByteArray();
+	}
+	
+	private byte[] read(int jarIdx, int entryIdx) throws IOException {
+		ZipDirectory directory = directories[jarIdx];
+		if (directory != null && directory.isPassThrough(entryIdx) && directory.getSize(entryIdx) <= Integer.MAX_VALUE) {
+			return directory.read(entryIdx);
+		}
+		
+		// Not something we can read ourselves, but ZipFile can.
+		String name = entryNames.get(jarIdx).get(entryIdx);
+		ZipFile zipFile = getZipFile(jarIdx);
+		ZipEntry entry = zipFile.getEntry(name);
+		if (entry == null) {
+			throw new ZipException("No such entry " + name + " in " + jars.get(jarIdx));
+		}
+		
+		InputStream input = zipFile.getInputStream(entry);
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				data.write(buffer, 0, read);
+			}
+			return data.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+	
+	private static String getAttribute(Attributes packageAttributes, Attributes mainAttributes, Attributes.Name name) {
+		String value = null;
+		if (packageAttributes != null) {
+			value = packageAttributes.getValue(name);
+		}
+		if (value == null) {
+			value = mainAttributes.getValue(name);
+		}
+		return value;
+	}
+	
+	/**
+	 * The {@link URLConnection} to a resource of this {@link ClassLoader}.
+	 */
+	private final class BlendURLConnection extends URLConnection {
+		
+		private final int position;
+		
+		public BlendURLConnection(URL url, int position) {
+			super(url);
+			this.position = position;
+		}
+		
+		@Override
+		public void connect() throws IOException {
+			connected = true;
+		}
+		
+		@Override
+		public int getContentLength() {
+			try {
+				return (int) getSize(position);
+			} catch (IOException e) {
+				return -1;
+			}
+		}
+		
+		@Override
+		public InputStream getInputStream() throws IOException {
+			connect();
+			return new ByteArrayInputStream(read(position));
+		}
+	}
+	
+	/**
+	 * The {@link URLStreamHandler} for the resources of this
+	 * {@link ClassLoader}.
+	 */
+	private final class BlendURLStreamHandler extends URLStreamHandler {
+		
+		@Override
+		protected URLConnection openConnection(URL url) throws IOException {
+			int position = -1;
+			if (host.equals(url.getHost()) && url.getPath().startsWith("/")) {
+				position = plan.getPosition(url.getPath().substring(1));
+			}
+			
+			if (position < 0) {
+				throw new IOException("No such resource: " + url);
+			}
+			
+			return new BlendURLConnection(url, position);
+		}
+	}
+}
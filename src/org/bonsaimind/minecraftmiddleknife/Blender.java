@@ -27,17 +27,20 @@
  */
 package org.bonsaimind.minecraftmiddleknife;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Enumeration;
+import java.util.Collections;
 import java.util.List;
-import java.util.ListIterator;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipException;
 import java.util.zip.ZipFile;
@@ -85,11 +88,34 @@ import java.util.zip.ZipOutputStream;
  * <pre>
  * 4.jar: A3 B3 C2 D1
  * </pre>
+ * <p/>
+ * By default every entry is inflated and deflated again while blending. With
+ * {@link #setRawCopy(boolean)} the compressed data is copied as it is instead,
+ * which is a lot faster. And with {@link #setThreads(int)} the work is spread
+ * over multiple threads.
+ * <p/>
+ * Which entry of which jar ends up in the output is decided up front from the
+ * central directories of the jars, see {@link #plan()}. Only the winning
+ * entries are ever read. Which entries are dropped, merged or renamed can be
+ * changed with {@link BlendRule}s, see {@link #addRule(BlendRule)}.
+ * <p/>
+ * Instead of a file, the blended jar can also be written to any
+ * {@link OutputStream} or {@link WritableByteChannel}, see
+ * {@link #blend(OutputStream)}.
  */
 public final class Blender {
 	
+	static final String MANIFEST = "META-INF/MANIFEST.MF";
+	
+	private static final int BUFFER_SIZE = 65536;
+	
+	private BlendCache cache = null;
+	private boolean incremental = false;
 	private boolean keepManifest = false;
+	private boolean rawCopy = false;
+	private List<BlendRule> rules = new ArrayList<BlendRule>();
 	private List<String> stack = new ArrayList<String>();
+	private int threads = 0;
 	
 	/**
 	 * Creates a new instance of {@link Blender}.
@@ -119,6 +145,17 @@ public final class Blender {
 		stack.addAll(jars);
 	}
 	
+	/**
+	 * Adds a {@link BlendRule}. The rules are applied in the order in which
+	 * they have been added, if an entry matches multiple rules the first one
+	 * wins.
+	 * 
+	 * @param rule the {@link BlendRule} to add.
+	 */
+	public void addRule(BlendRule rule) {
+		rules.add(rule);
+	}
+	
 	/**
 	 * Blends the stack into one and saves it into the given {@link outputJar}.
 	 * 
@@ -130,20 +167,167 @@ public final class Blender {
 	public void blend(String outputJar) throws FileNotFoundException, IOException {
 		File outputFile = new File(outputJar).getAbsoluteFile();
 		
-		if (outputFile.exists()) {
-			outputFile.delete();
+		String key = null;
+		if (cache != null) {
+			key = cache.createKey(getJarFiles(), getSettings());
+			if (cache.retrieve(key, outputFile)) {
+				return;
+			}
 		}
 		
-		ZipOutputStream blendedOutput = new ZipOutputStream(new FileOutputStream(outputFile));
-		
-		// We will walk backwards through the stack.
-		ListIterator<String> iterator = stack.listIterator();
-		while (iterator.hasPrevious()) {
-			File jar = new File(iterator.previous()).getAbsoluteFile();
-			copyToZip(blendedOutput, jar, keepManifest);
+		if (incremental) {
+			blendIncremental(outputFile);
+		} else if (rawCopy || threads > 0) {
+			FileOutputStream outputStream = openOutput(outputJar);
+			try {
+				new BlendJob(getJarFiles(), keepManifest, rules, rawCopy, threads).run(outputStream.getChannel());
+			} finally {
+				outputStream.close();
+			}
+		} else {
+			blend(plan(), outputJar);
 		}
 		
-		blendedOutput.close();
+		if (cache != null) {
+			cache.store(key, outputFile);
+		}
+	}
+	
+	/**
+	 * Blends the stack according to the given {@link BlendPlan} and saves it
+	 * into the given {@link outputJar}. The stack and the manifest setting of
+	 * this {@link Blender} are ignored, the ones of the plan are used.
+	 * 
+	 * @param plan the {@link BlendPlan} to use.
+	 * @param outputJar the path to where to store the blended jar.
+	 * @throws FileNotFoundException if the output jar could not be found.
+	 * @throws IOException if the output jar could not be opened or writing to
+	 *             it failed, or if the jars have changed since the plan has
+	 *             been created.
+	 * @see #plan()
+	 */
+	public void blend(BlendPlan plan, String outputJar) throws FileNotFoundException, IOException {
+		if (rawCopy || threads > 0) {
+			FileOutputStream outputStream = openOutput(outputJar);
+			try {
+				new BlendJob(plan, rawCopy, threads).run(outputStream.getChannel());
+			} finally {
+				outputStream.close();
+			}
+		} else {
+			if (!plan.isUpToDate()) {
+				throw new IOException("The jars have changed since the plan has been created.");
+			}
+			
+			ZipOutputStream blendedOutput = new ZipOutputStream(new BufferedOutputStream(openOutput(outputJar), BUFFER_SIZE));
+			try {
+				copyToZip(blendedOutput, plan);
+			} finally {
+				blendedOutput.close();
+			}
+		}
+	}
+	
+	/**
+	 * Blends the stack into one and writes it to the given
+	 * {@link OutputStream}, for example a socket or a pipe to another process.
+	 * The output is written in one forward pass, the stream does not need to
+	 * be seekable and is not closed.
+	 * <p/>
+	 * The {@link BlendCache} and incremental blending only work with output
+	 * jars, they are ignored here.
+	 * 
+	 * @param outputStream the {@link OutputStream} to write to.
+	 * @throws IOException if reading any jar or writing failed.
+	 */
+	public void blend(OutputStream outputStream) throws IOException {
+		if (rawCopy || threads > 0) {
+			new BlendJob(getJarFiles(), keepManifest, rules, rawCopy, threads).run(Channels.newChannel(outputStream));
+			outputStream.flush();
+		} else {
+			ZipOutputStream blendedOutput = new ZipOutputStream(new BufferedOutputStream(outputStream, BUFFER_SIZE));
+			copyToZip(blendedOutput, plan());
+			// Not closed, the stream belongs to the caller.
+			blendedOutput.finish();
+			blendedOutput.flush();
+		}
+	}
+	
+	/**
+	 * Blends the stack into one and writes it to the given
+	 * {@link WritableByteChannel}. The output is written in one forward pass,
+	 * the channel does not need to be seekable and is not closed.
+	 * <p/>
+	 * The {@link BlendCache} and incremental blending only work with output
+	 * jars, they are ignored here.
+	 * 
+	 * @param channel the {@link WritableByteChannel} to write to.
+	 * @throws IOException if reading any jar or writing failed.
+	 */
+	public void blend(WritableByteChannel channel) throws IOException {
+		if (rawCopy || threads > 0) {
+			new BlendJob(getJarFiles(), keepManifest, rules, rawCopy, threads).run(channel);
+		} else {
+			blend(Channels.newOutputStream(channel));
+		}
+	}
+	
+	/**
+	 * Removes all {@link BlendRule}s.
+	 */
+	public void clearRules() {
+		rules.clear();
+	}
+	
+	/**
+	 * Creates a {@link ClassLoader} which provides the classes and resources
+	 * of the stack as if it had been blended, without writing the blended jar.
+	 * The jars stay open until {@link BlendedClassLoader#close()} is called.
+	 * 
+	 * @param parent the parent {@link ClassLoader}, for example one with all
+	 *            the libraries created by the {@link ClassLoaderCreator}.
+	 * @return the {@link BlendedClassLoader}.
+	 * @throws IOException if reading any jar failed.
+	 */
+	public BlendedClassLoader createClassLoader(ClassLoader parent) throws IOException {
+		return new BlendedClassLoader(parent, getJarFiles(), keepManifest, rules);
+	}
+	
+	/**
+	 * Gets the {@link BlendCache} that is used.
+	 * 
+	 * @return the {@link BlendCache}, {@code null} if none is used.
+	 */
+	public BlendCache getCache() {
+		return cache;
+	}
+	
+	/**
+	 * Gets the {@link BlendRule}s, in the order in which they are applied.
+	 * 
+	 * @return the {@link BlendRule}s.
+	 */
+	public List<BlendRule> getRules() {
+		return Collections.unmodifiableList(rules);
+	}
+	
+	/**
+	 * Gets the number of threads that are used for blending.
+	 * 
+	 * @return the number of threads, {@code 0} if the calling thread is used.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * If the output jar is blended incrementally.
+	 * 
+	 * @return {@code true} if the output jar is blended incrementally.
+	 * @see #setIncremental(boolean)
+	 */
+	public boolean isIncremental() {
+		return incremental;
 	}
 	
 	/**
@@ -155,6 +339,57 @@ public final class Blender {
 		return keepManifest;
 	}
 	
+	/**
+	 * If the compressed data of the entries is copied as it is into the output
+	 * jar, without inflating and deflating it again.
+	 * 
+	 * @return {@code true} if the data is copied as it is.
+	 */
+	public boolean isRawCopy() {
+		return rawCopy;
+	}
+	
+	/**
+	 * Creates the {@link BlendPlan} for the current stack, which tells which
+	 * entry of which jar ends up in the blended jar. Only the central
+	 * directories of the jars are read for this.
+	 * 
+	 * @return the {@link BlendPlan}.
+	 * @throws IOException if reading any jar failed.
+	 */
+	public BlendPlan plan() throws IOException {
+		return new BlendJob(getJarFiles(), keepManifest, rules, rawCopy, threads).plan();
+	}
+	
+	/**
+	 * Sets the {@link BlendCache} to use. If a jar has already been blended
+	 * from the same stack with the same settings, it is taken from the cache
+	 * instead of blending it again. Every blended jar is put into the cache.
+	 * 
+	 * @param cache the {@link BlendCache} to use, {@code null} for none.
+	 */
+	public void setCache(BlendCache cache) {
+		this.cache = cache;
+	}
+	
+	/**
+	 * Sets if the output jar should be blended incrementally.
+	 * <p/>
+	 * An incremental blend stores a small manifest next to the output jar
+	 * (with the suffix {@code .blend}) which remembers the size, modification
+	 * time and hash of every jar of the stack and which jar every entry has
+	 * been taken from. The next blend into the same output jar does nothing at
+	 * all if nothing changed, otherwise only the entries of changed jars are
+	 * read from the stack, everything else is copied as it is from the
+	 * previous output jar.
+	 * 
+	 * @param incremental {@code true} if the output jar should be blended
+	 *            incrementally.
+	 */
+	public void setIncremental(boolean incremental) {
+		this.incremental = incremental;
+	}
+	
 	/**
 	 * Sets if the manifest should be copied to the output jar.
 	 * 
@@ -165,41 +400,233 @@ public final class Blender {
 	}
 	
 	/**
-	 * Copies the contents of {@code from} into {@code output}. Please be aware
-	 * that this method is evil and swallows exceptions during the creation of
-	 * entries (because of duplicates).
+	 * Sets if the compressed data of the entries should be copied as it is into
+	 * the output jar, without inflating and deflating it again. Entries which
+	 * can not be copied like that (for example because they are encrypted or
+	 * the whole jar is a ZIP64 archive) are still inflated and deflated.
 	 * 
-	 * @param output
-	 * @param from
-	 * @throws IOException
+	 * @param rawCopy {@code true} if the data should be copied as it is.
 	 */
-	private static void copyToZip(ZipOutputStream output, File from, boolean keepManifest) throws IOException {
-		ZipFile input = new ZipFile(from);
-		Enumeration<? extends ZipEntry> entries = input.entries();
-		while (entries.hasMoreElements()) {
-			try {
-				ZipEntry entry = entries.nextElement();
+	public void setRawCopy(boolean rawCopy) {
+		this.rawCopy = rawCopy;
+	}
+	
+	/**
+	 * Sets the number of threads that are used for blending.
+	 * <p/>
+	 * With {@code 0}, the default, everything happens on the calling thread.
+	 * Otherwise all jars are indexed at the same time and the entries are
+	 * inflated and deflated on the given number of threads. The output does
+	 * not depend on the number of threads, blending with one thread yields
+	 * exactly the same jar as blending with 32 threads.
+	 * 
+	 * @param threads the number of threads, {@code 0} to use the calling
+	 *            thread.
+	 * @throws IllegalArgumentException if threads is negative.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("threads is negative.");
+		}
+		
+		this.threads = threads;
+	}
+	
+	/**
+	 * Blends the stack into the given output jar, reusing as much as possible
+	 * from the previous output jar.
+	 * 
+	 * @param outputFile the output jar.
+	 * @throws IOException if reading or writing failed.
+	 */
+	private void blendIncremental(File outputFile) throws IOException {
+		List<File> jars = getJarFiles();
+		String settings = getSettings();
+		
+		BlendManifest previous = null;
+		if (outputFile.isFile()) {
+			previous = BlendManifest.read(outputFile);
+			if (previous != null && !previous.matches(outputFile, settings)) {
+				previous = null;
+			}
+		}
+		
+		BlendManifest current = BlendManifest.create(jars, settings, previous);
+		if (previous != null && current.sameStack(previous)) {
+			// Nothing changed, the output jar is still up to date.
+			return;
+		}
+		
+		BlendJob job = new BlendJob(jars, keepManifest, rules, rawCopy, threads);
+		if (previous != null) {
+			job.reuse(outputFile, previous, current);
+		}
+		
+		// The previous output jar is read while blending, so we write into a
+		// temporary file first.
+		File temporaryFile = new File(outputFile.getPath() + ".tmp");
+		BlendPlan plan = null;
+		FileOutputStream outputStream = new FileOutputStream(temporaryFile);
+		try {
+			plan = job.run(outputStream.getChannel());
+		} finally {
+			outputStream.close();
+			if (plan == null) {
+				temporaryFile.delete();
+			}
+		}
+		
+		// The manifest must never describe another output jar.
+		BlendManifest.getFile(outputFile).delete();
+		if (!temporaryFile.renameTo(outputFile)) {
+			outputFile.delete();
+			if (!temporaryFile.renameTo(outputFile)) {
+				throw new IOException("Failed to move " + temporaryFile + " to " + outputFile + ".");
+			}
+		}
+		
+		current.write(outputFile, plan);
+	}
+	
+	/**
+	 * Returns the settings which change the output, as used by the
+	 * incremental blending and the cache.
+	 * 
+	 * @return the settings which change the output.
+	 */
+	private String getSettings() {
+		return "keepManifest=" + keepManifest + ";rawCopy=" + rawCopy + ";rules=" + rules;
+	}
+	
+	private List<File> getJarFiles() {
+		List<File> jars = new ArrayList<File>(stack.size());
+		for (String jar : stack) {
+			jars.add(new File(jar).getAbsoluteFile());
+		}
+		return jars;
+	}
+	
+	/**
+	 * Copies the entries of the given plan into {@code output}. Only the
+	 * winning entries are read.
+	 * 
+	 * @param output the {@link ZipOutputStream} to write to.
+	 * @param plan the {@link BlendPlan} to use.
+	 * @throws IOException if reading or writing failed.
+	 */
+	private static void copyToZip(ZipOutputStream output, BlendPlan plan) throws IOException {
+		List<File> jars = plan.getJarFiles();
+		ZipFile[] inputs = new ZipFile[jars.size()];
+		byte[] buffer = new byte[BUFFER_SIZE];
+		try {
+			for (int position = 0; position < plan.size(); position++) {
+				String name = plan.getEntries().get(position);
+				int[] parts = plan.getMergeParts(position);
 				
-				if (!keepManifest && entry.getName().equals("META-INF/MANIFEST.MF")) {
-					// Continue with the next entry in case it is the manifest.
-					continue;
+				if (parts == null) {
+					int owner = plan.getOwnerIndex(position);
+					ZipEntry entry = getEntry(inputs, jars, owner, plan.getSourceName(position));
+					
+					ZipEntry outputEntry = null;
+					if (name.equals(entry.getName())) {
+						outputEntry = new ZipEntry(entry);
+					} else {
+						outputEntry = new ZipEntry(name);
+						outputEntry.setTime(entry.getTime());
+						outputEntry.setMethod(entry.getMethod());
+						outputEntry.setSize(entry.getSize());
+						outputEntry.setCrc(entry.getCrc());
+						outputEntry.setExtra(entry.getExtra());
+						outputEntry.setComment(entry.getComment());
+					}
+					if (outputEntry.getMethod() == ZipEntry.DEFLATED) {
+						// Our deflater might produce a different size.
+						outputEntry.setCompressedSize(-1);
+					} else {
+						outputEntry.setCompressedSize(entry.getSize());
+					}
+					output.putNextEntry(outputEntry);
+					
+					copy(inputs[owner].getInputStream(entry), output, buffer);
+				} else {
+					ZipEntry outputEntry = new ZipEntry(name);
+					outputEntry.setTime(getEntry(inputs, jars, parts[parts.length - 2], name).getTime());
+					output.putNextEntry(outputEntry);
+					
+					for (int idx = 0; idx < parts.length; idx += 2) {
+						ZipEntry entry = getEntry(inputs, jars, parts[idx], name);
+						if (copy(inputs[parts[idx]].getInputStream(entry), output, buffer) != '\n') {
+							output.write('\n');
+						}
+					}
 				}
 				
-				output.putNextEntry(entry);
-				
-				InputStream inputStream = input.getInputStream(entry);
-				byte[] buffer = new byte[4096];
-				while (inputStream.available() > 0) {
-					output.write(buffer, 0, inputStream.read(buffer, 0, buffer.length));
-				}
-				inputStream.close();
 				output.closeEntry();
-			} catch (ZipException e) {
-				// Assume that the error is the warning about a duplicate and
-				// ignore it.
-				// I know that this is evil...
 			}
+		} finally {
+			for (ZipFile input : inputs) {
+				if (input != null) {
+					input.close();
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Copies the given {@link InputStream} into the given
+	 * {@link OutputStream} and closes it.
+	 * 
+	 * @param inputStream the {@link InputStream} to copy.
+	 * @param outputStream the {@link OutputStream} to copy to.
+	 * @param buffer the buffer to use.
+	 * @return the last byte that has been copied, {@code '\n'} if there was
+	 *         nothing to copy.
+	 * @throws IOException if reading or writing failed.
+	 */
+	private static int copy(InputStream inputStream, OutputStream outputStream, byte[] buffer) throws IOException {
+		int last = '\n';
+		try {
+			// available() is only an estimate for inflating streams, the
+			// only reliable end is EOF.
+			int read;
+			while ((read = inputStream.read(buffer)) >= 0) {
+				outputStream.write(buffer, 0, read);
+				if (read > 0) {
+					last = buffer[read - 1];
+				}
+			}
+		} finally {
+			inputStream.close();
+		}
+		return last;
+	}
+	
+	private static ZipEntry getEntry(ZipFile[] inputs, List<File> jars, int owner, String name) throws IOException {
+		if (inputs[owner] == null) {
+			inputs[owner] = new ZipFile(jars.get(owner));
+		}
+		
+		ZipEntry entry = inputs[owner].getEntry(name);
+		if (entry == null) {
+			throw new ZipException("The jars do not match the plan.");
+		}
+		return entry;
+	}
+	
+	/**
+	 * Deletes the given output jar if it exists and opens it for writing.
+	 * 
+	 * @param outputJar the path of the output jar.
+	 * @return the {@link FileOutputStream}.
+	 * @throws FileNotFoundException if the output jar could not be opened.
+	 */
+	private static FileOutputStream openOutput(String outputJar) throws FileNotFoundException {
+		File outputFile = new File(outputJar).getAbsoluteFile();
+		
+		if (outputFile.exists()) {
+			outputFile.delete();
 		}
-		input.close();
+		
+		return new FileOutputStream(outputFile);
 	}
 }
@@ -0,0 +1,326 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Maintains Class Data Sharing archives for launches of Minecraft in its own
+ * JVM.
+ * <p/>
+ * Class Data Sharing maps the already parsed and verified classes from an
+ * archive into the JVM, instead of loading them from the jars one by one.
+ * Such an archive only fits the exact class path and JVM it has been created
+ * for, and it only works for classes which are loaded through the class path
+ * of the JVM. That means it can't be used with
+ * {@link org.bonsaimind.minecraftmiddleknife.post16.Kickstarter} inside of
+ * this JVM, but only when launching another JVM with the jars from the
+ * {@link ClassLoaderCreator} on its class path. That needs Java 10 or newer.
+ * <p/>
+ * Every profile goes through three steps, {@link #getJvmArguments} returns
+ * the arguments for the current one:
+ * <ol>
+ * <li>The training run, in which the JVM records which classes it loads.</li>
+ * <li>On the next launch, the archive is created from those classes before
+ * the JVM is started.</li>
+ * <li>All following launches use the archive.</li>
+ * </ol>
+ * The class path and the JVM are remembered as fingerprint, if either of them
+ * changes, the profile starts with the training run again.
+ * 
+ * <pre>
+ * ClassDataSharing classDataSharing = new ClassDataSharing(&quot;/path/to/cds/&quot;);
+ * 
+ * List&lt;String&gt; command = new ArrayList&lt;String&gt;();
+ * command.add(classDataSharing.getJava());
+ * command.addAll(classDataSharing.getJvmArguments(&quot;1.7.10&quot;, classLoaderCreator.getClasspath()));
+ * command.add(Kickstarter.MAIN_CLASS);
+ * command.addAll(Arrays.asList(Argument.toStrings(arguments)));
+ * 
+ * new ProcessBuilder(command).start();
+ * </pre>
+ */
+public final class ClassDataSharing {
+	
+	private static final String ARCHIVE_SUFFIX = ".jsa";
+	private static final String CLASS_LIST_SUFFIX = ".classlist";
+	private static final String FINGERPRINT_SUFFIX = ".fingerprint";
+	
+	private final File directory;
+	private String java;
+	
+	/**
+	 * Creates a new instance of {@link ClassDataSharing}, which uses the Java
+	 * of this JVM.
+	 * 
+	 * @param directory the directory in which the class lists and archives are
+	 *            stored. It is created if it does not exist.
+	 */
+	public ClassDataSharing(String directory) {
+		this.directory = new File(directory).getAbsoluteFile();
+		
+		java = new File(new File(System.getProperty("java.home"), "bin"), "java").getPath();
+	}
+	
+	/**
+	 * Gets the Java executable with which the other JVM is launched.
+	 * 
+	 * @return the Java executable.
+	 */
+	public String getJava() {
+		return java;
+	}
+	
+	/**
+	 * Gets the arguments for the JVM which launches the given profile with the
+	 * given class path, which includes the class path itself. If the archive
+	 * of the profile has to be created, that happens before this returns.
+	 * 
+	 * @param profile the name of the profile, for example the version of
+	 *            Minecraft.
+	 * @param classpath the jars of the class path.
+	 * @return the arguments for the JVM.
+	 * @throws IOException if the fingerprint of the class path could not be
+	 *             computed or the state of the profile could not be stored.
+	 * @throws IllegalArgumentException if the profile is not a valid file
+	 *             name.
+	 */
+	public List<String> getJvmArguments(String profile, List<File> classpath) throws IOException {
+		if (profile.length() == 0 || profile.indexOf('/') >= 0 || profile.indexOf(File.separatorChar) >= 0) {
+			throw new IllegalArgumentException("profile is not a valid file name.");
+		}
+		
+		String classpathString = toString(classpath);
+		String fingerprint = createFingerprint(classpath);
+		
+		File archive = getFile(profile, ARCHIVE_SUFFIX);
+		File classList = getFile(profile, CLASS_LIST_SUFFIX);
+		File fingerprintFile = getFile(profile, FINGERPRINT_SUFFIX);
+		
+		List<String> arguments = new ArrayList<String>();
+		
+		if (fingerprint.equals(readFingerprint(fingerprintFile))) {
+			if (!archive.isFile() && classList.length() > 0) {
+				try {
+					createArchive(classList, archive, classpathString);
+				} catch (IOException e) {
+					// Most likely the training run did not finish, so it is
+					// done again.
+					classList.delete();
+				}
+			}
+			
+			if (archive.isFile()) {
+				arguments.add("-XX:SharedArchiveFile=" + archive.getPath());
+				arguments.add("-Xshare:auto");
+			} else {
+				arguments.add("-XX:DumpLoadedClassList=" + classList.getPath());
+			}
+		} else {
+			archive.delete();
+			classList.delete();
+			writeFingerprint(fingerprintFile, fingerprint);
+			
+			arguments.add("-XX:DumpLoadedClassList=" + classList.getPath());
+		}
+		
+		arguments.add("-cp");
+		arguments.add(classpathString);
+		
+		return arguments;
+	}
+	
+	/**
+	 * Deletes the class list and archive of the given profile, so that it
+	 * starts with the training run again.
+	 * 
+	 * @param profile the name of the profile.
+	 */
+	public void reset(String profile) {
+		getFile(profile, ARCHIVE_SUFFIX).delete();
+		getFile(profile, CLASS_LIST_SUFFIX).delete();
+		getFile(profile, FINGERPRINT_SUFFIX).delete();
+	}
+	
+	/**
+	 * Sets the Java executable with which the other JVM is launched. It is
+	 * part of the fingerprint, as an archive only fits the JVM which created
+	 * it.
+	 * 
+	 * @param java the Java executable.
+	 */
+	public void setJava(String java) {
+		this.java = java;
+	}
+	
+	/**
+	 * Creates the archive from the given class list, by running the JVM.
+	 * 
+	 * @param classList the class list of the training run.
+	 * @param archive the archive to create.
+	 * @param classpath the class path.
+	 * @throws IOException if creating the archive failed.
+	 */
+	private void createArchive(File classList, File archive, String classpath) throws IOException {
+		// Created under a temporary name, so that no other launch can pick up
+		// a half written archive.
+		File temporaryFile = File.createTempFile(archive.getName(), ".tmp", directory);
+		try {
+			List<String> command = new ArrayList<String>();
+			command.add(java);
+			command.add("-Xshare:dump");
+			command.add("-XX:SharedClassListFile=" + classList.getPath());
+			command.add("-XX:SharedArchiveFile=" + temporaryFile.getPath());
+			command.add("-cp");
+			command.add(classpath);
+			
+			ProcessBuilder processBuilder = new ProcessBuilder(command);
+			processBuilder.redirectErrorStream(true);
+			Process process = processBuilder.start();
+			
+			// The output has to be consumed, otherwise the process blocks once
+			// the pipe is full.
+			InputStream output = process.getInputStream();
+			try {
+				byte[] buffer = new byte[8192];
+				while (output.read(buffer) >= 0) {
+					// Nothing to do.
+				}
+			} finally {
+				output.close();
+			}
+			
+			int exitCode;
+			try {
+				exitCode = process.waitFor();
+			} catch (InterruptedException e) {
+				process.destroy();
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while creating " + archive + ".");
+			}
+			
+			if (exitCode != 0 || temporaryFile.length() == 0) {
+				throw new IOException("Failed to create " + archive + ", the JVM exited with " + exitCode + ".");
+			}
+			
+			if (!temporaryFile.renameTo(archive)) {
+				if (!archive.delete() || !temporaryFile.renameTo(archive)) {
+					throw new IOException("Failed to move " + temporaryFile + " to " + archive + ".");
+				}
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+	
+	/**
+	 * Creates the fingerprint of the given class path together with the Java
+	 * executable, from the paths, sizes and modification times of the files.
+	 * 
+	 * @param classpath the jars of the class path.
+	 * @return the fingerprint.
+	 * @throws IOException if the fingerprint could not be computed.
+	 */
+	private String createFingerprint(List<File> classpath) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-1 is guaranteed to be available.");
+		}
+		
+		update(digest, new File(java).getAbsoluteFile());
+		for (File jar : classpath) {
+			update(digest, jar.getAbsoluteFile());
+		}
+		
+		return BlendManifest.toHex(digest.digest());
+	}
+	
+	private File getFile(String profile, String suffix) {
+		return new File(directory, profile + suffix);
+	}
+	
+	private void writeFingerprint(File file, String fingerprint) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create " + directory + ".");
+		}
+		
+		OutputStream output = new FileOutputStream(file);
+		try {
+			output.write(fingerprint.getBytes("UTF-8"));
+		} finally {
+			output.close();
+		}
+	}
+	
+	private static String readFingerprint(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		
+		try {
+			DataInputStream input = new DataInputStream(new FileInputStream(file));
+			try {
+				byte[] data = new byte[(int) file.length()];
+				input.readFully(data);
+				return new String(data, "UTF-8");
+			} finally {
+				input.close();
+			}
+		} catch (IOException e) {
+			return null;
+		}
+	}
+	
+	private static String toString(List<File> classpath) {
+		StringBuilder builder = new StringBuilder();
+		for (File jar : classpath) {
+			if (builder.length() > 0) {
+				builder.append(File.pathSeparatorChar);
+			}
+			builder.append(jar.getAbsolutePath());
+		}
+		return builder.toString();
+	}
+	
+	private static void update(MessageDigest digest, File file) throws UnsupportedEncodingException {
+		digest.update((file.getPath() + "\n" + file.length() + "\n" + file.lastModified() + "\n").getBytes("UTF-8"));
+	}
+}
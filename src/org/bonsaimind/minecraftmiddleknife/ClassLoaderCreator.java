@@ -28,17 +28,24 @@
 package org.bonsaimind.minecraftmiddleknife;
 
 import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.net.MalformedURLException;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.net.URLClassLoader;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Creates a new {@link URLClassLoader} with the jars which are set.
  * <p/>
  * This is a mere and simple wrapper around the constructor of the
- * {@link URLClassLoader}.
+ * {@link URLClassLoader}, or of the {@link IndexedClassLoader} which is a lot
+ * faster with many jars.
  * <p/>
  * Usage example:
  * 
@@ -54,7 +61,19 @@ import java.util.List;
  */
 public final class ClassLoaderCreator {
 	
+	private List<String> excludes = new ArrayList<String>();
+	private Map<File, String> hashes = new LinkedHashMap<File, String>();
+	private File hashFile = null;
+	private List<String> includes = new ArrayList<String>();
+	private File indexFile = null;
+	private boolean instrumented = false;
 	private List<URL> jars = new ArrayList<URL>();
+	private LibraryStore libraryStore = null;
+	private File reportFile = null;
+	private int threads = 0;
+	private File warmupFile = null;
+	private long warmupRecordInterval = TimeUnit.DAYS.toMillis(1);
+	private long warmupTimeBudget = 10000;
 	
 	/**
 	 * Creates a new instance of {@link ClassLoaderCreator}.
@@ -97,32 +116,92 @@ public final class ClassLoaderCreator {
 	}
 	
 	/**
-	 * Searches through the given path downwards and adss all jars that are
-	 * found.
+	 * Adds the given path to the list after converting it into an {@link URL},
+	 * together with its expected SHA-1 hash which is checked by
+	 * {@link #verify()}. If a {@link LibraryStore} is set and contains a file
+	 * with that hash, the stored file is added instead.
 	 * 
-	 * @param dir the directory in which to start.
+	 * @param jar the path to add.
+	 * @param hash the expected SHA-1 hash as hex.
 	 * @throws MalformedURLException If a protocol handler for the URL could not
 	 *             be found, or if some other error occurred while constructing
 	 *             the URL
 	 */
-	public void addRecursively(File dir) throws MalformedURLException {
-		for (File file : dir.listFiles()) {
-			if (file.isFile() && file.getName().endsWith(".jar")) {
-				add(file);
-			} else if (file.isDirectory()) {
-				addRecursively(file);
+	public void add(String jar, String hash) throws MalformedURLException {
+		File file = new File(jar).getAbsoluteFile();
+		if (libraryStore != null) {
+			File stored = libraryStore.get(hash);
+			if (stored != null) {
+				file = stored;
 			}
 		}
+		
+		add(file);
+		hashes.put(file, hash);
+	}
+	
+	/**
+	 * Adds a pattern of jars to exclude when searching recursively, relative
+	 * to the directory in which the search starts, with {@code /} as
+	 * separator. {@code *} matches within a directory, {@code **} across
+	 * directories. Directories are matched with a trailing {@code /} and are
+	 * not searched at all, for example {@code **}{@code /natives/}.
+	 * 
+	 * @param pattern the pattern.
+	 */
+	public void addExclude(String pattern) {
+		excludes.add(pattern);
+	}
+	
+	/**
+	 * Adds a pattern of jars to include when searching recursively, relative
+	 * to the directory in which the search starts. If there are any, only the
+	 * jars matching at least one of them are added.
+	 * 
+	 * @param pattern the pattern.
+	 * @see #addExclude(String)
+	 */
+	public void addInclude(String pattern) {
+		includes.add(pattern);
 	}
 	
 	/**
-	 * Searches through the given path downwards and adss all jars that are
-	 * found.
+	 * Searches through the given path downwards and adds all jars that are
+	 * found, in depth first order with every directory sorted by name.
 	 * 
 	 * @param dir the directory in which to start.
 	 * @throws MalformedURLException If a protocol handler for the URL could not
 	 *             be found, or if some other error occurred while constructing
-	 *             the URL
+	 *             the URL. Also if listing any directory failed, with the
+	 *             {@link IOException} as cause.
+	 * @see #setThreads(int)
+	 */
+	public void addRecursively(File dir) throws MalformedURLException {
+		List<File> found;
+		try {
+			found = new JarScanner(includes, excludes, threads).scan(dir);
+		} catch (IOException e) {
+			// Declaring the IOException would break existing callers.
+			MalformedURLException exception = new MalformedURLException(e.getMessage());
+			exception.initCause(e);
+			throw exception;
+		}
+		
+		for (File jar : found) {
+			add(jar);
+		}
+	}
+	
+	/**
+	 * Searches through the given path downwards and adds all jars that are
+	 * found, in depth first order with every directory sorted by name.
+	 * 
+	 * @param dir the directory in which to start.
+	 * @throws MalformedURLException If a protocol handler for the URL could not
+	 *             be found, or if some other error occurred while constructing
+	 *             the URL. Also if listing any directory failed, with the
+	 *             {@link IOException} as cause.
+	 * @see #setThreads(int)
 	 */
 	public void addRecursively(String dir) throws MalformedURLException {
 		addRecursively(new File(dir));
@@ -137,4 +216,394 @@ public final class ClassLoaderCreator {
 		URL[] urls = new URL[jars.size()];
 		return new URLClassLoader(jars.toArray(urls));
 	}
+	
+	/**
+	 * Creates a new {@link IndexedClassLoader} from the list, which finds
+	 * every class and resource with a single lookup instead of searching
+	 * through all jars. Multiple threads can load classes from it at the same
+	 * time.
+	 * 
+	 * @return the {@link IndexedClassLoader}.
+	 * @throws IOException if reading any jar failed.
+	 */
+	public IndexedClassLoader createIndexedClassLoader() throws IOException {
+		URL[] urls = new URL[jars.size()];
+		IndexedClassLoader classLoader = new IndexedClassLoader(jars.toArray(urls), ClassLoader.getSystemClassLoader(), indexFile, instrumented || reportFile != null);
+		if (reportFile != null) {
+			classLoader.reportOnExit(reportFile);
+		}
+		if (warmupFile != null) {
+			startWarmup(classLoader, warmupFile);
+		}
+		return classLoader;
+	}
+	
+	/**
+	 * Gets all added jars as local files, for example to put them on the
+	 * class path of another JVM.
+	 * 
+	 * @return the jars.
+	 * @throws IllegalStateException if any of the added {@link URL}s is not a
+	 *             local file.
+	 */
+	public List<File> getClasspath() {
+		List<File> classpath = new ArrayList<File>(jars.size());
+		for (URL jar : jars) {
+			if (!"file".equals(jar.getProtocol())) {
+				throw new IllegalStateException(jar + " is not a local file.");
+			}
+			
+			try {
+				classpath.add(new File(jar.toURI()));
+			} catch (URISyntaxException e) {
+				throw new IllegalStateException(jar + " is not a local file.", e);
+			}
+		}
+		return classpath;
+	}
+	
+	/**
+	 * Gets the file in which the hashes of the jars are remembered between
+	 * launches.
+	 * 
+	 * @return the path of the file, {@code null} if they are not remembered.
+	 */
+	public String getHashFile() {
+		if (hashFile == null) {
+			return null;
+		}
+		return hashFile.getPath();
+	}
+	
+	/**
+	 * Gets the file in which the index of the {@link IndexedClassLoader} is
+	 * cached between launches.
+	 * 
+	 * @return the path of the file, {@code null} if the index is not cached.
+	 */
+	public String getIndexFile() {
+		if (indexFile == null) {
+			return null;
+		}
+		return indexFile.getPath();
+	}
+	
+	/**
+	 * Gets the {@link LibraryStore} from which jars are taken.
+	 * 
+	 * @return the {@link LibraryStore}, {@code null} if there is none.
+	 */
+	public LibraryStore getLibraryStore() {
+		return libraryStore;
+	}
+	
+	/**
+	 * Gets the file to which the {@link IndexedClassLoader} writes its
+	 * {@link ClassLoadingStatistics} when the JVM exits.
+	 * 
+	 * @return the path of the file, {@code null} if there is no report.
+	 */
+	public String getReportFile() {
+		if (reportFile == null) {
+			return null;
+		}
+		return reportFile.getPath();
+	}
+	
+	/**
+	 * Gets the number of threads which list directories when searching
+	 * recursively.
+	 * 
+	 * @return the number of threads, {@code 0} if the calling thread does
+	 *         everything.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * Gets the file with the classes for the {@link ClassWarmup}.
+	 * 
+	 * @return the path of the file, {@code null} if there is no warmup.
+	 */
+	public String getWarmupFile() {
+		if (warmupFile == null) {
+			return null;
+		}
+		return warmupFile.getPath();
+	}
+	
+	/**
+	 * Gets the age of the file with the classes for the {@link ClassWarmup}
+	 * after which the classes are recorded again.
+	 * 
+	 * @return the age in milliseconds.
+	 */
+	public long getWarmupRecordInterval() {
+		return warmupRecordInterval;
+	}
+	
+	/**
+	 * Gets the time after which the {@link ClassWarmup} stops.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long getWarmupTimeBudget() {
+		return warmupTimeBudget;
+	}
+	
+	/**
+	 * If the {@link IndexedClassLoader} records what is loaded from which jar.
+	 * 
+	 * @return {@code true} if it is instrumented.
+	 * @see IndexedClassLoader#getStatistics()
+	 */
+	public boolean isInstrumented() {
+		return instrumented;
+	}
+	
+	/**
+	 * Sets the file in which the hashes of the jars are remembered between
+	 * launches, so that {@link #verify()} only reads the jars which have
+	 * changed since.
+	 * 
+	 * @param hashFile the path of the file, {@code null} to not remember
+	 *            them.
+	 * @see FileVerifier
+	 */
+	public void setHashFile(String hashFile) {
+		if (hashFile == null) {
+			this.hashFile = null;
+		} else {
+			this.hashFile = new File(hashFile).getAbsoluteFile();
+		}
+	}
+	
+	/**
+	 * Sets the file in which the index of the {@link IndexedClassLoader} is
+	 * cached between launches. The next launch then only reads the jars which
+	 * have changed, and only opens the others when a class or resource is
+	 * actually loaded from them. The file can be shared by multiple launchers
+	 * at the same time.
+	 * 
+	 * @param indexFile the path of the file, {@code null} to not cache the
+	 *            index.
+	 */
+	public void setIndexFile(String indexFile) {
+		if (indexFile == null) {
+			this.indexFile = null;
+		} else {
+			this.indexFile = new File(indexFile).getAbsoluteFile();
+		}
+	}
+	
+	/**
+	 * Sets if the {@link IndexedClassLoader} records what is loaded from
+	 * which jar and how long that takes.
+	 * 
+	 * @param instrumented {@code true} if it should be instrumented.
+	 * @see IndexedClassLoader#getStatistics()
+	 */
+	public void setInstrumented(boolean instrumented) {
+		this.instrumented = instrumented;
+	}
+	
+	/**
+	 * Sets the {@link LibraryStore} from which the jars which are added with
+	 * their hash are taken, if it contains them.
+	 * 
+	 * @param libraryStore the {@link LibraryStore}, {@code null} for none.
+	 * @see #add(String, String)
+	 */
+	public void setLibraryStore(LibraryStore libraryStore) {
+		this.libraryStore = libraryStore;
+	}
+	
+	/**
+	 * Sets the file to which the {@link IndexedClassLoader} writes its
+	 * {@link ClassLoadingStatistics} when the JVM exits, which includes the
+	 * jars from which nothing has been loaded at all. Setting a file also
+	 * instruments the {@link IndexedClassLoader}.
+	 * 
+	 * @param reportFile the path of the file, {@code null} for no report.
+	 */
+	public void setReportFile(String reportFile) {
+		if (reportFile == null) {
+			this.reportFile = null;
+		} else {
+			this.reportFile = new File(reportFile).getAbsoluteFile();
+		}
+	}
+	
+	/**
+	 * Sets the number of threads which list directories when searching
+	 * recursively. This helps if there are many directories on a slow file
+	 * system, the order of the jars is the same either way.
+	 * 
+	 * @param threads the number of threads, {@code 0} if the calling thread
+	 *            should do everything.
+	 * @throws IllegalArgumentException if threads is negative.
+	 */
+	public void setThreads(int threads) {
+		if (threads < 0) {
+			throw new IllegalArgumentException("threads is negative.");
+		}
+		
+		this.threads = threads;
+	}
+	
+	/**
+	 * Sets the file with the classes for the {@link ClassWarmup}. If it
+	 * exists, the {@link IndexedClassLoader} starts loading the classes from
+	 * it in the background right away. If it does not exist or is older than
+	 * the {@link #setWarmupRecordInterval(long) record interval}, there is no
+	 * warmup, instead the order in which the classes are needed is recorded
+	 * and written to it when the JVM exits, for the next runs.
+	 * 
+	 * @param warmupFile the path of the file, {@code null} for no warmup.
+	 * @see IndexedClassLoader#getWarmup()
+	 */
+	public void setWarmupFile(String warmupFile) {
+		if (warmupFile == null) {
+			this.warmupFile = null;
+		} else {
+			this.warmupFile = new File(warmupFile).getAbsoluteFile();
+		}
+	}
+	
+	/**
+	 * Sets the age of the file with the classes for the {@link ClassWarmup}
+	 * after which the classes are recorded again. Classes which are loaded by
+	 * the warmup can't be told apart from classes which are really needed, so
+	 * runs with a warmup record nothing. This is how classes which are not
+	 * needed anymore drop out of the file.
+	 * 
+	 * @param warmupRecordInterval the age in milliseconds.
+	 * @throws IllegalArgumentException if warmupRecordInterval is negative.
+	 */
+	public void setWarmupRecordInterval(long warmupRecordInterval) {
+		if (warmupRecordInterval < 0) {
+			throw new IllegalArgumentException("warmupRecordInterval is negative.");
+		}
+		
+		this.warmupRecordInterval = warmupRecordInterval;
+	}
+	
+	/**
+	 * Sets the time after which the {@link ClassWarmup} stops, even if not
+	 * all classes have been loaded.
+	 * 
+	 * @param warmupTimeBudget the time in milliseconds.
+	 * @throws IllegalArgumentException if warmupTimeBudget is negative.
+	 */
+	public void setWarmupTimeBudget(long warmupTimeBudget) {
+		if (warmupTimeBudget < 0) {
+			throw new IllegalArgumentException("warmupTimeBudget is negative.");
+		}
+		
+		this.warmupTimeBudget = warmupTimeBudget;
+	}
+	
+	/**
+	 * Checks all jars which have been added with a hash against it, reading
+	 * multiple jars at the same time. Jars which have not changed since they
+	 * have last been checked are not read again, see
+	 * {@link #setHashFile(String)}.
+	 * 
+	 * @throws IOException if reading any jar failed or any jar does not match
+	 *             its hash.
+	 */
+	public void verify() throws IOException {
+		verify(false);
+	}
+	
+	/**
+	 * Checks all jars which have been added with a hash against it.
+	 * 
+	 * @param full if all jars should be read again instead of trusting the
+	 *            remembered hashes.
+	 * @throws IOException if reading any jar failed or any jar does not match
+	 *             its hash.
+	 * @see #verify()
+	 */
+	public void verify(boolean full) throws IOException {
+		if (hashes.isEmpty()) {
+			return;
+		}
+		
+		String hashFilePath = null;
+		if (hashFile != null) {
+			hashFilePath = hashFile.getPath();
+		}
+		FileVerifier verifier = new FileVerifier(hashFilePath);
+		verifier.setFull(full);
+		
+		List<File> files = new ArrayList<File>(hashes.keySet());
+		for (File file : files) {
+			if (!file.isFile()) {
+				throw new FileNotFoundException(file.getPath());
+			}
+		}
+		
+		Map<File, String> actualHashes = verifier.hash(files);
+		verifier.save();
+		
+		StringBuilder mismatches = new StringBuilder();
+		for (Map.Entry<File, String> hash : hashes.entrySet()) {
+			if (!actualHashes.get(hash.getKey()).equalsIgnoreCase(hash.getValue())) {
+				if (mismatches.length() > 0) {
+					mismatches.append(", ");
+				}
+				mismatches.append(hash.getKey().getPath());
+			}
+		}
+		
+		if (mismatches.length() > 0) {
+			throw new IOException("Hash mismatch: " + mismatches);
+		}
+	}
+	
+	/**
+	 * Reads the classes for the {@link ClassWarmup} from the given file, if it
+	 * is younger than the {@link #setWarmupRecordInterval(long) record
+	 * interval}.
+	 * 
+	 * @param file the file with the classes.
+	 * @return the class names, {@code null} if there should be no warmup and
+	 *         the classes should be recorded again instead.
+	 */
+	List<String> readWarmup(File file) {
+		if (file.isFile() && System.currentTimeMillis() - file.lastModified() < warmupRecordInterval) {
+			try {
+				List<String> classNames = ClassWarmup.read(file);
+				if (!classNames.isEmpty()) {
+					return classNames;
+				}
+			} catch (IOException e) {
+				// Then the classes are recorded again.
+			}
+		}
+		
+		return null;
+	}
+	
+	private void startWarmup(final IndexedClassLoader classLoader, final File file) {
+		List<String> classNames = readWarmup(file);
+		if (classNames != null) {
+			classLoader.startWarmup(classNames, Math.max(1, Runtime.getRuntime().availableProcessors() / 2), warmupTimeBudget);
+			return;
+		}
+		
+		classLoader.startRecordingLoadOrder();
+		Runtime.getRuntime().addShutdownHook(new Thread("ClassWarmupRecorder") {
+			@Override
+			public void run() {
+				try {
+					ClassWarmup.write(file, classLoader.getLoadOrder());
+				} catch (IOException e) {
+					// Then the previous load order is used again next time.
+				}
+			}
+		});
+	}
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts what an {@link IndexedClassLoader} loads from which jar.
+ * <p/>
+ * All counters are atomic, classes are loaded from multiple threads at the
+ * same time.
+ */
+final class ClassLoadingRecorder {
+	
+	private final AtomicLongArray bytesRead;
+	private final AtomicIntegerArray classes;
+	private final AtomicLongArray defineTimes;
+	private final Map<String, Integer> jarIndexes;
+	private final AtomicLongArray lookupTimes;
+	private final AtomicIntegerArray resources;
+	private final URL[] urls;
+	
+	/**
+	 * Creates a new instance of {@link ClassLoadingRecorder}.
+	 * 
+	 * @param urls the {@link URL}s of the jars.
+	 */
+	public ClassLoadingRecorder(URL[] urls) {
+		this.urls = urls.clone();
+		
+		bytesRead = new AtomicLongArray(urls.length);
+		classes = new AtomicIntegerArray(urls.length);
+		defineTimes = new AtomicLongArray(urls.length);
+		lookupTimes = new AtomicLongArray(urls.length);
+		resources = new AtomicIntegerArray(urls.length);
+		
+		jarIndexes = new HashMap<String, Integer>(urls.length * 4 / 3 + 1);
+		for (int idx = urls.length - 1; idx >= 0; idx--) {
+			jarIndexes.put(urls[idx].toExternalForm(), Integer.valueOf(idx));
+		}
+	}
+	
+	/**
+	 * Finds the jar of the given {@link URL}, which is either the {@link URL}
+	 * of the jar itself or a {@code jar:} {@link URL} of an entry in it.
+	 * 
+	 * @param url the {@link URL}.
+	 * @return the index of the jar, {@code -1} if it is none of the jars.
+	 */
+	public int getJarIndex(URL url) {
+		if (url == null) {
+			return -1;
+		}
+		
+		String jarUrl = url.toExternalForm();
+		if (jarUrl.startsWith("jar:") && jarUrl.indexOf("!/") > 0) {
+			jarUrl = jarUrl.substring(4, jarUrl.indexOf("!/"));
+		}
+		
+		Integer jarIdx = jarIndexes.get(jarUrl);
+		if (jarIdx == null) {
+			return -1;
+		}
+		return jarIdx.intValue();
+	}
+	
+	/**
+	 * Records that the given number of bytes has been read from the jar.
+	 * 
+	 * @param jarIdx the index of the jar.
+	 * @param bytes the number of bytes.
+	 */
+	public void recordBytes(int jarIdx, long bytes) {
+		bytesRead.addAndGet(jarIdx, bytes);
+	}
+	
+	/**
+	 * Records that a class has been loaded from the jar.
+	 * 
+	 * @param jarIdx the index of the jar.
+	 * @param lookupTime the time spent finding and reading it in nanoseconds.
+	 * @param defineTime the time spent defining it in nanoseconds.
+	 */
+	public void recordClass(int jarIdx, long lookupTime, long defineTime) {
+		classes.incrementAndGet(jarIdx);
+		lookupTimes.addAndGet(jarIdx, lookupTime);
+		defineTimes.addAndGet(jarIdx, defineTime);
+	}
+	
+	/**
+	 * Records that a resource has been found in the jar.
+	 * 
+	 * @param jarIdx the index of the jar.
+	 * @param lookupTime the time spent finding it in nanoseconds.
+	 */
+	public void recordResource(int jarIdx, long lookupTime) {
+		resources.incrementAndGet(jarIdx);
+		lookupTimes.addAndGet(jarIdx, lookupTime);
+	}
+	
+	/**
+	 * Writes the report to the given file once the JVM exits. If writing fails,
+	 * there is no report.
+	 * 
+	 * @param reportFile the file.
+	 */
+	public void reportOnExit(final File reportFile) {
+		Runtime.getRuntime().addShutdownHook(new Thread("ClassLoadingReport") {
+			@Override
+			public void run() {
+				try {
+					Writer writer = new OutputStreamWriter(new FileOutputStream(reportFile), "UTF-8");
+					try {
+						snapshot().writeReport(writer);
+					} finally {
+						writer.close();
+					}
+				} catch (IOException e) {
+					// Nobody is left to tell, the report is simply missing.
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Takes a snapshot of the counters. They are read one after another, so a
+	 * class which is loaded at the same time might only be partly included.
+	 * 
+	 * @return the {@link ClassLoadingStatistics}.
+	 */
+	public ClassLoadingStatistics snapshot() {
+		List<ClassLoadingStatistics.Jar> jars = new ArrayList<ClassLoadingStatistics.Jar>(urls.length);
+		for (int idx = 0; idx < urls.length; idx++) {
+			jars.add(new ClassLoadingStatistics.Jar(
+					urls[idx],
+					classes.get(idx),
+					resources.get(idx),
+					bytesRead.get(idx),
+					lookupTimes.get(idx),
+					defineTimes.get(idx)));
+		}
+		return new ClassLoadingStatistics(jars);
+	}
+}
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * A snapshot of what an instrumented {@link IndexedClassLoader} has loaded
+ * from which jar.
+ * <p/>
+ * Jars from which nothing has been loaded at all are most likely not needed
+ * and can be dropped from the launch.
+ * 
+ * <pre>
+ * classLoaderCreator.setInstrumented(true);
+ * IndexedClassLoader classLoader = classLoaderCreator.createIndexedClassLoader();
+ * Kickstarter.run(classLoader, arguments);
+ * 
+ * for (ClassLoadingStatistics.Jar jar : classLoader.getStatistics().getUntouchedJars()) {
+ * 	System.out.println(jar.getUrl());
+ * }
+ * </pre>
+ */
+public final class ClassLoadingStatistics {
+	
+	private final List<Jar> jars;
+	
+	/**
+	 * Creates a new instance of {@link ClassLoadingStatistics}.
+	 * 
+	 * @param jars the statistics of every jar, in class path order.
+	 */
+	ClassLoadingStatistics(List<Jar> jars) {
+		this.jars = Collections.unmodifiableList(jars);
+	}
+	
+	/**
+	 * Gets the statistics of all jars, in class path order.
+	 * 
+	 * @return the statistics of all jars.
+	 */
+	public List<Jar> getJars() {
+		return jars;
+	}
+	
+	/**
+	 * Gets the statistics of all jars from which no class and no resource has
+	 * been loaded, in class path order.
+	 * 
+	 * @return the jars which have not been touched.
+	 */
+	public List<Jar> getUntouchedJars() {
+		List<Jar> untouched = new ArrayList<Jar>();
+		for (Jar jar : jars) {
+			if (!jar.isTouched()) {
+				untouched.add(jar);
+			}
+		}
+		return untouched;
+	}
+	
+	@Override
+	public String toString() {
+		StringWriter writer = new StringWriter();
+		try {
+			writeReport(writer);
+		} catch (IOException e) {
+			// Can't happen.
+		}
+		return writer.toString();
+	}
+	
+	/**
+	 * Writes a human readable report to the given {@link Writer}.
+	 * 
+	 * @param writer the {@link Writer}.
+	 * @throws IOException if writing failed.
+	 */
+	public void writeReport(Writer writer) throws IOException {
+		writer.write(String.format(Locale.ENGLISH, "%8s %9s %12s %10s %10s  %s%n", "Classes", "Resources", "Bytes", "Lookup ms", "Define ms", "Jar"));
+		for (Jar jar : jars) {
+			writer.write(String.format(Locale.ENGLISH, "%8d %9d %12d %10.1f %10.1f  %s%n",
+					Integer.valueOf(jar.getClasses()),
+					Integer.valueOf(jar.getResources()),
+					Long.valueOf(jar.getBytesRead()),
+					Double.valueOf(jar.getLookupTime() / 1000000d),
+					Double.valueOf(jar.getDefineTime() / 1000000d),
+					jar.getUrl()));
+		}
+		
+		List<Jar> untouched = getUntouchedJars();
+		writer.write(String.format(Locale.ENGLISH, "%nUntouched jars: %d of %d%n", Integer.valueOf(untouched.size()), Integer.valueOf(jars.size())));
+		for (Jar jar : untouched) {
+			writer.write(jar.getUrl() + String.format("%n"));
+		}
+		writer.flush();
+	}
+	
+	/**
+	 * What has been loaded from a single jar.
+	 */
+	public static final class Jar {
+		
+		private final long bytesRead;
+		private final int classes;
+		private final long defineTime;
+		private final long lookupTime;
+		private final int resources;
+		private final URL url;
+		
+		Jar(URL url, int classes, int resources, long bytesRead, long lookupTime, long defineTime) {
+			this.url = url;
+			this.classes = classes;
+			this.resources = resources;
+			this.bytesRead = bytesRead;
+			this.lookupTime = lookupTime;
+			this.defineTime = defineTime;
+		}
+		
+		/**
+		 * Gets the number of bytes the {@link ClassLoader} has read from the
+		 * jar, which are the classes and the manifest. Resources are read by
+		 * whoever requested them and are not included.
+		 * 
+		 * @return the number of bytes.
+		 */
+		public long getBytesRead() {
+			return bytesRead;
+		}
+		
+		/**
+		 * Gets the number of classes which have been loaded from the jar.
+		 * 
+		 * @return the number of classes.
+		 */
+		public int getClasses() {
+			return classes;
+		}
+		
+		/**
+		 * Gets the time spent in defining the classes of the jar. That includes
+		 * loading their superclasses and interfaces if needed, which are also
+		 * counted for their own jars.
+		 * 
+		 * @return the time in nanoseconds.
+		 */
+		public long getDefineTime() {
+			return defineTime;
+		}
+		
+		/**
+		 * Gets the time spent in finding and reading the classes and resources
+		 * of the jar. If the {@link IndexedClassLoader} is not indexed, this
+		 * also includes the time spent in defining the classes.
+		 * 
+		 * @return the time in nanoseconds.
+		 */
+		public long getLookupTime() {
+			return lookupTime;
+		}
+		
+		/**
+		 * Gets the number of resources which have been found in the jar.
+		 * 
+		 * @return the number of resources.
+		 */
+		public int getResources() {
+			return resources;
+		}
+		
+		/**
+		 * Gets the {@link URL} of the jar.
+		 * 
+		 * @return the {@link URL}.
+		 */
+		public URL getUrl() {
+			return url;
+		}
+		
+		/**
+		 * If any class or resource has been loaded from the jar.
+		 * 
+		 * @return {@code true} if the jar has been used.
+		 */
+		public boolean isTouched() {
+			return classes > 0 || resources > 0;
+		}
+		
+		@Override
+		public String toString() {
+			return url + " (" + classes + " classes, " + resources + " resources)";
+		}
+	}
+}
@@ -0,0 +1,330 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Loads classes from an {@link IndexedClassLoader} in background threads,
+ * before anybody else needs them.
+ * <p/>
+ * The classes are loaded in the order in which they were needed in a
+ * previous run, see {@link IndexedClassLoader#startRecordingLoadOrder()}.
+ * They are only loaded, not initialized, so no static initializer runs on the
+ * wrong thread. The warmup stops once all classes are loaded, once the time
+ * budget is used up or when it is cancelled, whatever comes first.
+ * 
+ * <pre>
+ * IndexedClassLoader classLoader = classLoaderCreator.createIndexedClassLoader();
+ * ClassWarmup warmup = classLoader.startWarmup(ClassWarmup.read(warmupFile), 2, 10000);
+ * Kickstarter.run(classLoader, arguments);
+ * </pre>
+ */
+public final class ClassWarmup {
+	
+	private static final ThreadLocal<Boolean> WARMUP_THREAD = new ThreadLocal<Boolean>();
+	
+	private final AtomicInteger alreadyLoaded = new AtomicInteger();
+	private volatile boolean cancelled = false;
+	private final IndexedClassLoader classLoader;
+	private final List<String> classNames;
+	private final long deadline;
+	private final AtomicInteger failed = new AtomicInteger();
+	private final CountDownLatch finished;
+	private final AtomicInteger loaded = new AtomicInteger();
+	private final AtomicInteger next = new AtomicInteger();
+	private final long start;
+	private volatile long stop = 0;
+	private volatile boolean timedOut = false;
+	
+	/**
+	 * Creates and starts a new instance of {@link ClassWarmup}.
+	 * 
+	 * @param classLoader the {@link IndexedClassLoader} to load the classes
+	 *            from.
+	 * @param classNames the binary names of the classes, in the order in which
+	 *            they should be loaded.
+	 * @param threads the number of threads to load them with.
+	 * @param timeBudget the time in milliseconds after which the warmup stops.
+	 */
+	ClassWarmup(IndexedClassLoader classLoader, List<String> classNames, int threads, long timeBudget) {
+		this.classLoader = classLoader;
+		this.classNames = new ArrayList<String>(classNames);
+		
+		start = System.nanoTime();
+		deadline = start + TimeUnit.MILLISECONDS.toNanos(timeBudget);
+		finished = new CountDownLatch(threads);
+		
+		ThreadFactory threadFactory = new DaemonThreadFactory("ClassWarmup-");
+		for (int idx = 0; idx < threads; idx++) {
+			Thread thread = threadFactory.newThread(new Runnable() {
+				public void run() {
+					warmup();
+				}
+			});
+			thread.setPriority(Thread.MIN_PRIORITY);
+			thread.start();
+		}
+	}
+	
+	/**
+	 * Waits until the warmup has stopped.
+	 * 
+	 * @param timeout the maximum time to wait in milliseconds.
+	 * @return {@code true} if the warmup has stopped.
+	 * @throws InterruptedException if the current thread has been interrupted.
+	 */
+	public boolean await(long timeout) throws InterruptedException {
+		return finished.await(timeout, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the warmup, the classes which are being loaded right now are still
+	 * loaded.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	/**
+	 * Gets the number of classes which had already been loaded by somebody
+	 * else when the warmup got to them.
+	 * 
+	 * @return the number of classes.
+	 */
+	public int getAlreadyLoaded() {
+		return alreadyLoaded.get();
+	}
+	
+	/**
+	 * Gets the number of classes which could not be loaded, most likely
+	 * because they do not exist anymore.
+	 * 
+	 * @return the number of classes.
+	 */
+	public int getFailed() {
+		return failed.get();
+	}
+	
+	/**
+	 * Gets the number of classes which the warmup has loaded itself, because
+	 * nobody else had loaded them yet. Whether all of them are needed later
+	 * on is not known, the list might still contain classes which are not
+	 * used anymore.
+	 * 
+	 * @return the number of classes.
+	 */
+	public int getLoaded() {
+		return loaded.get();
+	}
+	
+	/**
+	 * Gets the number of classes the warmup was supposed to load.
+	 * 
+	 * @return the number of classes.
+	 */
+	public int getTotal() {
+		return classNames.size();
+	}
+	
+	/**
+	 * Gets the time the warmup has been running.
+	 * 
+	 * @return the time in milliseconds.
+	 */
+	public long getTime() {
+		long end = stop;
+		if (end == 0) {
+			end = System.nanoTime();
+		}
+		return TimeUnit.NANOSECONDS.toMillis(end - start);
+	}
+	
+	/**
+	 * If the warmup has been cancelled.
+	 * 
+	 * @return {@code true} if it has been cancelled.
+	 */
+	public boolean isCancelled() {
+		return cancelled;
+	}
+	
+	/**
+	 * If the warmup has stopped, either because it is done, has been cancelled
+	 * or has used up its time budget.
+	 * 
+	 * @return {@code true} if it has stopped.
+	 */
+	public boolean isStopped() {
+		return finished.getCount() == 0;
+	}
+	
+	/**
+	 * If the warmup has stopped because it has used up its time budget.
+	 * 
+	 * @return {@code true} if it has used up its time budget.
+	 */
+	public boolean isTimedOut() {
+		return timedOut;
+	}
+	
+	@Override
+	public String toString() {
+		StringBuilder builder = new StringBuilder();
+		builder.append("Loaded ").append(getLoaded()).append(" of ").append(getTotal()).append(" classes ahead of time");
+		builder.append(", ").append(getAlreadyLoaded()).append(" were already loaded");
+		builder.append(", ").append(getFailed()).append(" failed");
+		builder.append(", in ").append(getTime()).append("ms");
+		if (cancelled) {
+			builder.append(" (cancelled)");
+		} else if (timedOut) {
+			builder.append(" (timed out)");
+		} else if (!isStopped()) {
+			builder.append(" (running)");
+		}
+		return builder.toString();
+	}
+	
+	private void warmup() {
+		WARMUP_THREAD.set(Boolean.TRUE);
+		try {
+			for (int idx = next.getAndIncrement(); idx < classNames.size() && !cancelled; idx = next.getAndIncrement()) {
+				if (System.nanoTime() - deadline > 0) {
+					timedOut = true;
+					break;
+				}
+				
+				String className = classNames.get(idx);
+				if (classLoader.isLoaded(className)) {
+					alreadyLoaded.incrementAndGet();
+					continue;
+				}
+				
+				try {
+					classLoader.loadClass(className);
+					loaded.incrementAndGet();
+				} catch (ClassNotFoundException e) {
+					failed.incrementAndGet();
+				} catch (LinkageError e) {
+					failed.incrementAndGet();
+				}
+			}
+		} finally {
+			stop = System.nanoTime();
+			finished.countDown();
+		}
+	}
+	
+	/**
+	 * Reads the class names from the given file, one per line.
+	 * 
+	 * @param file the file.
+	 * @return the class names, empty if the file does not exist.
+	 * @throws IOException if reading the file failed.
+	 */
+	public static List<String> read(File file) throws IOException {
+		List<String> classNames = new ArrayList<String>();
+		if (!file.isFile()) {
+			return classNames;
+		}
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() > 0) {
+					classNames.add(line);
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		
+		return classNames;
+	}
+	
+	/**
+	 * Writes the class names to the given file, one per line. It is replaced
+	 * at once, so that nobody can read a half written file.
+	 * 
+	 * @param file the file.
+	 * @param classNames the class names.
+	 * @throws IOException if writing the file failed.
+	 */
+	public static void write(File file, List<String> classNames) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create " + directory + ".");
+		}
+		
+		// The prefix of a temporary file needs at least three characters.
+		File temporaryFile = File.createTempFile(file.getName() + ".tmp", null, directory);
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8");
+			try {
+				for (String className : classNames) {
+					writer.write(className);
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+			
+			if (!temporaryFile.renameTo(file)) {
+				if (!file.delete() || !temporaryFile.renameTo(file)) {
+					throw new IOException("Failed to replace " + file + ".");
+				}
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+	
+	/**
+	 * If the current thread is one of the threads of a warmup.
+	 * 
+	 * @return {@code true} if it is a warmup thread.
+	 */
+	static boolean isWarmupThread() {
+		return WARMUP_THREAD.get() != null;
+	}
+}
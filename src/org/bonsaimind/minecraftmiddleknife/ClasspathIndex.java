@@ -0,0 +1,257 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The names of the entries of jars, stored in a file so that they do not need
+ * to be read from the jars on every launch.
+ * <p/>
+ * Every jar is stored together with its size and modification time, if either
+ * of them changes the jar is read again. The file is read at once and
+ * replaced as a whole for writing, so multiple processes can share it:
+ * everybody sees either the old or the new file, never a half written one,
+ * and the last writer wins.
+ */
+final class ClasspathIndex {
+	
+	private static final int MAGIC = 0x4d4d4b49; // MMKI
+	private static final int VERSION = 1;
+	
+	private boolean changed = false;
+	private final Map<String, Jar> jars = new LinkedHashMap<String, Jar>();
+	
+	private ClasspathIndex() {
+	}
+	
+	/**
+	 * Reads the given index file.
+	 * 
+	 * @param file the index file.
+	 * @return the {@link ClasspathIndex}, empty if the file does not exist or
+	 *         can not be read.
+	 */
+	public static ClasspathIndex read(File file) {
+		ClasspathIndex index = new ClasspathIndex();
+		if (!file.isFile()) {
+			return index;
+		}
+		
+		try {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = randomAccessFile.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+				ZipDirectory.readFully(channel, buffer, 0);
+				buffer.flip();
+				
+				if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+					return index;
+				}
+				
+				int jarCount = readCount(buffer);
+				for (int jarIdx = 0; jarIdx < jarCount; jarIdx++) {
+					String path = readString(buffer);
+					long length = buffer.getLong();
+					long lastModified = buffer.getLong();
+					
+					String[] names = new String[readCount(buffer)];
+					for (int idx = 0; idx < names.length; idx++) {
+						names[idx] = readString(buffer);
+					}
+					
+					index.jars.put(path, new Jar(length, lastModified, names));
+				}
+			} finally {
+				randomAccessFile.close();
+			}
+		} catch (IOException e) {
+			// A broken index only means that the jars have to be read.
+			index.jars.clear();
+		} catch (BufferUnderflowException e) {
+			index.jars.clear();
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Gets the names of the entries of the given jar, in the order of its
+	 * central directory.
+	 * 
+	 * @param jar the jar.
+	 * @return the names of the entries, {@code null} if the jar is not in this
+	 *         index or has changed since.
+	 */
+	public String[] get(File jar) {
+		Jar indexed = jars.get(jar.getPath());
+		if (indexed == null || indexed.length != jar.length() || indexed.lastModified != jar.lastModified()) {
+			return null;
+		}
+		return indexed.names;
+	}
+	
+	/**
+	 * If anything has been put into this index since it has been read.
+	 * 
+	 * @return {@code true} if it needs to be written.
+	 */
+	public boolean isChanged() {
+		return changed;
+	}
+	
+	/**
+	 * Puts the names of the entries of the given jar into this index.
+	 * 
+	 * @param jar the jar.
+	 * @param names the names of the entries, in the order of its central
+	 *            directory.
+	 */
+	public void put(File jar, String[] names) {
+		jars.put(jar.getPath(), new Jar(jar.length(), jar.lastModified(), names));
+		changed = true;
+	}
+	
+	/**
+	 * Writes this index to the given file, dropping all jars which do not
+	 * exist anymore.
+	 * 
+	 * @param file the index file.
+	 * @throws IOException if writing failed.
+	 */
+	public void write(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create " + directory + ".");
+		}
+		
+		// Written under a temporary name first, so that nobody else can see a
+		// half written index. The prefix of a temporary file needs at least
+		// three characters.
+		File temporaryFile = File.createTempFile(file.getName() + ".tmp", null, directory);
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+			try {
+				int jarCount = 0;
+				for (String path : jars.keySet()) {
+					if (new File(path).isFile()) {
+						jarCount++;
+					}
+				}
+				
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeInt(jarCount);
+				
+				for (Map.Entry<String, Jar> entry : jars.entrySet()) {
+					if (new File(entry.getKey()).isFile()) {
+						writeString(output, entry.getKey());
+						output.writeLong(entry.getValue().length);
+						output.writeLong(entry.getValue().lastModified);
+						output.writeInt(entry.getValue().names.length);
+						for (String name : entry.getValue().names) {
+							writeString(output, name);
+						}
+					}
+				}
+			} finally {
+				output.close();
+			}
+			
+			if (!temporaryFile.renameTo(file)) {
+				// Windows does not replace existing files.
+				if (!file.delete() || !temporaryFile.renameTo(file)) {
+					throw new IOException("Failed to replace " + file + ".");
+				}
+			}
+			
+			changed = false;
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+	
+	/**
+	 * Reads a count of strings, which can not be more than the remaining
+	 * bytes could hold.
+	 * 
+	 * @param buffer the buffer.
+	 * @return the count.
+	 * @throws BufferUnderflowException if the count is broken.
+	 */
+	static int readCount(ByteBuffer buffer) {
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining() / 2) {
+			throw new BufferUnderflowException();
+		}
+		return count;
+	}
+	
+	static String readString(ByteBuffer buffer) throws UnsupportedEncodingException {
+		byte[] bytes = new byte[buffer.getShort() & 0xffff];
+		buffer.get(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
+	static void writeString(DataOutputStream output, String value) throws IOException {
+		byte[] bytes = value.getBytes("UTF-8");
+		if (bytes.length > 0xffff) {
+			throw new IOException("Too long to be indexed: " + value);
+		}
+		output.writeShort(bytes.length);
+		output.write(bytes);
+	}
+	
+	/**
+	 * A single jar of the index.
+	 */
+	private static final class Jar {
+		
+		private final long lastModified;
+		private final long length;
+		private final String[] names;
+		
+		public Jar(long length, long lastModified, String[] names) {
+			this.length = length;
+			this.lastModified = lastModified;
+			this.names = names;
+		}
+	}
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tells which directories have changed, through the
+ * {@code java.nio.file.WatchService} of the default file system.
+ * <p/>
+ * That is only available since Java 7, so it is looked up by reflection and
+ * {@link #open()} returns {@code null} on Java 6, in which case the caller
+ * has to fall back to looking at the files itself.
+ */
+final class DirectoryWatchService {
+	
+	private static final Method CANCEL;
+	private static final Method CLOSE;
+	private static final Object FILE_SYSTEM;
+	private static final Object KINDS;
+	private static final Method NEW_WATCH_SERVICE;
+	private static final Method POLL;
+	private static final Method POLL_EVENTS;
+	private static final Method REGISTER;
+	private static final Method RESET;
+	private static final Method TO_PATH;
+	
+	static {
+		Method cancel = null;
+		Method close = null;
+		Object fileSystem = null;
+		Object kinds = null;
+		Method newWatchService = null;
+		Method poll = null;
+		Method pollEvents = null;
+		Method register = null;
+		Method reset = null;
+		Method toPath = null;
+		
+		try {
+			Class<?> watchServiceClass = Class.forName("java.nio.file.WatchService");
+			Class<?> watchKeyClass = Class.forName("java.nio.file.WatchKey");
+			Class<?> kindClass = Class.forName("java.nio.file.WatchEvent$Kind");
+			Class<?> standardKindsClass = Class.forName("java.nio.file.StandardWatchEventKinds");
+			
+			fileSystem = Class.forName("java.nio.file.FileSystems").getMethod("getDefault").invoke(null);
+			newWatchService = Class.forName("java.nio.file.FileSystem").getMethod("newWatchService");
+			
+			// Files are replaced by moving a new one in place, which is a
+			// create for the directory.
+			kinds = Array.newInstance(kindClass, 2);
+			Array.set(kinds, 0, standardKindsClass.getField("ENTRY_CREATE").get(null));
+			Array.set(kinds, 1, standardKindsClass.getField("ENTRY_MODIFY").get(null));
+			
+			toPath = File.class.getMethod("toPath");
+			register = Class.forName("java.nio.file.Path").getMethod("register", watchServiceClass, kinds.getClass());
+			poll = watchServiceClass.getMethod("poll", long.class, TimeUnit.class);
+			close = watchServiceClass.getMethod("close");
+			pollEvents = watchKeyClass.getMethod("pollEvents");
+			reset = watchKeyClass.getMethod("reset");
+			cancel = watchKeyClass.getMethod("cancel");
+		} catch (ClassNotFoundException e) {
+			// Java 6, there is nothing to watch with.
+			newWatchService = null;
+		} catch (NoSuchMethodException e) {
+			newWatchService = null;
+		} catch (NoSuchFieldException e) {
+			newWatchService = null;
+		} catch (IllegalAccessException e) {
+			newWatchService = null;
+		} catch (InvocationTargetException e) {
+			newWatchService = null;
+		}
+		
+		CANCEL = cancel;
+		CLOSE = close;
+		FILE_SYSTEM = fileSystem;
+		KINDS = kinds;
+		NEW_WATCH_SERVICE = newWatchService;
+		POLL = poll;
+		POLL_EVENTS = pollEvents;
+		REGISTER = register;
+		RESET = reset;
+		TO_PATH = toPath;
+	}
+	
+	private final Map<Object, File> directories = new ConcurrentHashMap<Object, File>();
+	private final Map<File, Object> keys = new ConcurrentHashMap<File, Object>();
+	private final Object watchService;
+	
+	private DirectoryWatchService(Object watchService) {
+		this.watchService = watchService;
+	}
+	
+	/**
+	 * Opens a new {@link DirectoryWatchService}.
+	 * 
+	 * @return the {@link DirectoryWatchService}, {@code null} if it is not
+	 *         available.
+	 */
+	public static DirectoryWatchService open() {
+		if (NEW_WATCH_SERVICE == null) {
+			return null;
+		}
+		
+		try {
+			return new DirectoryWatchService(NEW_WATCH_SERVICE.invoke(FILE_SYSTEM));
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// Not supported by the file system or no more watches left.
+			return null;
+		}
+	}
+	
+	/**
+	 * Closes this, a waiting {@link #take(long)} ends with an
+	 * {@link IOException}.
+	 */
+	public void close() {
+		try {
+			CLOSE.invoke(watchService);
+		} catch (IllegalAccessException e) {
+			// Nothing we can do about it.
+		} catch (InvocationTargetException e) {
+			// Nothing we can do about it.
+		}
+		
+		directories.clear();
+		keys.clear();
+	}
+	
+	/**
+	 * If the given directory is watched. A directory which is gone is not
+	 * watched anymore as soon as {@link #take(long)} has returned it.
+	 * 
+	 * @param directory the directory.
+	 * @return {@code true} if it is watched.
+	 */
+	public boolean isWatched(File directory) {
+		return keys.containsKey(directory);
+	}
+	
+	/**
+	 * Starts watching the given directory, if it is not already watched.
+	 * 
+	 * @param directory the directory.
+	 * @throws IOException if the directory can not be watched.
+	 */
+	public void register(File directory) throws IOException {
+		if (keys.containsKey(directory)) {
+			return;
+		}
+		
+		try {
+			Object key = REGISTER.invoke(TO_PATH.invoke(directory), watchService, KINDS);
+			directories.put(key, directory);
+			keys.put(directory, key);
+		} catch (IllegalAccessException e) {
+			throw new IOException("Failed to watch " + directory + ".", e);
+		} catch (InvocationTargetException e) {
+			throw new IOException("Failed to watch " + directory + ".", e.getCause());
+		}
+	}
+	
+	/**
+	 * Waits until anything in any of the watched directories has changed.
+	 * 
+	 * @param timeout the maximum time to wait in milliseconds.
+	 * @return the directory in which something has changed, {@code null} if
+	 *         nothing has changed. If the directory is gone, it is returned
+	 *         one last time and is not watched anymore afterwards, see
+	 *         {@link #isWatched(File)}.
+	 * @throws InterruptedException if the current thread has been interrupted.
+	 * @throws IOException if this has been closed.
+	 */
+	public File take(long timeout) throws InterruptedException, IOException {
+		try {
+			Object key = POLL.invoke(watchService, Long.valueOf(timeout), TimeUnit.MILLISECONDS);
+			if (key == null) {
+				return null;
+			}
+			
+			// Which files have changed does not matter, only that something
+			// has changed.
+			POLL_EVENTS.invoke(key);
+			File directory = directories.get(key);
+			
+			if (!((Boolean) RESET.invoke(key)).booleanValue()) {
+				// The directory is gone.
+				directories.remove(key);
+				if (directory != null) {
+					keys.remove(directory);
+				}
+			}
+			
+			return directory;
+		} catch (IllegalAccessException e) {
+			throw new IOException("Failed to wait for changes.", e);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof InterruptedException) {
+				throw (InterruptedException) e.getCause();
+			}
+			throw new IOException("Failed to wait for changes.", e.getCause());
+		}
+	}
+	
+	/**
+	 * Stops watching the given directory.
+	 * 
+	 * @param directory the directory.
+	 */
+	public void unregister(File directory) {
+		Object key = keys.remove(directory);
+		if (key != null) {
+			directories.remove(key);
+			try {
+				CANCEL.invoke(key);
+			} catch (IllegalAccessException e) {
+				// Then it stays registered, we ignore it anyway.
+			} catch (InvocationTargetException e) {
+				// Then it stays registered, we ignore it anyway.
+			}
+		}
+	}
+}
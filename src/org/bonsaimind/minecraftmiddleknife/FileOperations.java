@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Array;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.nio.channels.FileChannel;
+
+/**
+ * Static helper for file operations which are not available through
+ * {@link File}.
+ * <p/>
+ * Some of them are only available since Java 7 through {@code java.nio.file},
+ * they are looked up by reflection so that we can still run on Java 6 and
+ * simply fall back to something slower there.
+ */
+final class FileOperations {
+	
+	private static final Class<?> BASIC_FILE_ATTRIBUTES;
+	private static final Method CREATE_LINK;
+	private static final Method FILE_KEY;
+	private static final Object NO_LINK_OPTIONS;
+	private static final Method READ_ATTRIBUTES;
+	private static final Method TO_PATH;
+	
+	static {
+		Method toPath = null;
+		Method createLink = null;
+		Class<?> basicFileAttributes = null;
+		Method fileKey = null;
+		Object noLinkOptions = null;
+		Method readAttributes = null;
+		
+		try {
+			toPath = File.class.getMethod("toPath");
+			Class<?> pathClass = Class.forName("java.nio.file.Path");
+			Class<?> filesClass = Class.forName("java.nio.file.Files");
+			createLink = filesClass.getMethod("createLink", pathClass, pathClass);
+			
+			basicFileAttributes = Class.forName("java.nio.file.attribute.BasicFileAttributes");
+			fileKey = basicFileAttributes.getMethod("fileKey");
+			noLinkOptions = Array.newInstance(Class.forName("java.nio.file.LinkOption"), 0);
+			readAttributes = filesClass.getMethod("readAttributes", pathClass, Class.class, noLinkOptions.getClass());
+		} catch (ClassNotFoundException e) {
+			// Java 6, there are no links for us.
+		} catch (NoSuchMethodException e) {
+			// Java 6, there are no links for us.
+		}
+		
+		TO_PATH = toPath;
+		CREATE_LINK = createLink;
+		BASIC_FILE_ATTRIBUTES = basicFileAttributes;
+		FILE_KEY = fileKey;
+		NO_LINK_OPTIONS = noLinkOptions;
+		READ_ATTRIBUTES = readAttributes;
+	}
+	
+	/**
+	 * Not supposed to be instantiated.
+	 */
+	private FileOperations() {
+		throw new AssertionError();
+	}
+	
+	/**
+	 * Copies the given file.
+	 * 
+	 * @param source the file to copy.
+	 * @param target the file to copy to, it is overwritten if it exists.
+	 * @throws IOException if copying failed.
+	 */
+	public static void copy(File source, File target) throws IOException {
+		FileInputStream input = new FileInputStream(source);
+		try {
+			FileOutputStream output = new FileOutputStream(target);
+			try {
+				FileChannel inputChannel = input.getChannel();
+				FileChannel outputChannel = output.getChannel();
+				
+				long size = inputChannel.size();
+				long transferred = 0;
+				while (transferred < size) {
+					transferred += inputChannel.transferTo(transferred, size - transferred, outputChannel);
+				}
+			} finally {
+				output.close();
+			}
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Gets the key which identifies the given file on its file system, on
+	 * Unix for example the device and inode.
+	 * 
+	 * @param file the file.
+	 * @return the key, {@code null} if it is not available.
+	 */
+	public static String getFileKey(File file) {
+		if (READ_ATTRIBUTES == null) {
+			return null;
+		}
+		
+		try {
+			Object attributes = READ_ATTRIBUTES.invoke(null, TO_PATH.invoke(file), BASIC_FILE_ATTRIBUTES, NO_LINK_OPTIONS);
+			Object fileKey = FILE_KEY.invoke(attributes);
+			if (fileKey == null) {
+				return null;
+			}
+			return fileKey.toString();
+		} catch (IllegalAccessException e) {
+			return null;
+		} catch (InvocationTargetException e) {
+			// The file does not exist or can't be read.
+			return null;
+		}
+	}
+	
+	/**
+	 * Creates a hard link to the given file, if that is possible.
+	 * 
+	 * @param existing the existing file.
+	 * @param link the link to create, must not exist.
+	 * @return {@code true} if the link has been created.
+	 */
+	public static boolean link(File existing, File link) {
+		if (CREATE_LINK == null) {
+			return false;
+		}
+		
+		try {
+			CREATE_LINK.invoke(null, TO_PATH.invoke(link), TO_PATH.invoke(existing));
+			return true;
+		} catch (IllegalAccessException e) {
+			return false;
+		} catch (InvocationTargetException e) {
+			// Not supported by the file system, across file systems or
+			// something else, either way we can't do it.
+			return false;
+		}
+	}
+	
+	/**
+	 * Creates a hard link to the given file or, if that is not possible,
+	 * copies it.
+	 * 
+	 * @param source the existing file.
+	 * @param target the link or copy to create, it is replaced if it exists.
+	 * @throws IOException if copying failed.
+	 */
+	public static void linkOrCopy(File source, File target) throws IOException {
+		if (target.exists() && !target.delete()) {
+			throw new IOException("Failed to delete " + target + ".");
+		}
+		
+		if (!link(source, target)) {
+			copy(source, target);
+		}
+	}
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes the SHA-1 hashes of files, and remembers them so that files which
+ * have not changed are not read again.
+ * <p/>
+ * The hashes are kept in a file together with the size, modification time
+ * and, if available, the inode of every file. As long as none of them has
+ * changed, the remembered hash is used. Everything can be hashed again by
+ * setting {@link #setFull(boolean)}, for example if the files are suspected
+ * to be corrupt. Multiple files are hashed at the same time. Nothing is memory
+ * mapped, so the files can be replaced right after they have been hashed,
+ * even on Windows.
+ * <p/>
+ * Like the index of the {@link IndexedClassLoader}, the file is replaced as
+ * a whole, so multiple processes can share it and the last writer wins.
+ * 
+ * <pre>
+ * FileVerifier verifier = new FileVerifier(&quot;/path/to/hashes&quot;);
+ * if (!verifier.verify(new File(&quot;/path/to/library.jar&quot;), expectedHash)) {
+ * 	// Download it again.
+ * }
+ * verifier.save();
+ * </pre>
+ */
+public final class FileVerifier {
+	
+	private static final int BUFFER_SIZE = 256 * 1024;
+	private static final int MAGIC = 0x4d4d4b48; // MMKH
+	private static final int VERSION = 1;
+	
+	private boolean changed = false;
+	private final Map<String, Hash> hashes = new LinkedHashMap<String, Hash>();
+	private final File file;
+	private volatile boolean full = false;
+	private final int threads;
+	
+	/**
+	 * Creates a new instance of {@link FileVerifier}.
+	 * 
+	 * @param file the path of the file in which the hashes are remembered,
+	 *            {@code null} to not remember them between instances.
+	 */
+	public FileVerifier(String file) {
+		if (file != null) {
+			this.file = new File(file).getAbsoluteFile();
+			read();
+		} else {
+			this.file = null;
+		}
+		
+		threads = Runtime.getRuntime().availableProcessors();
+	}
+	
+	/**
+	 * Gets the path of the file in which the hashes are remembered.
+	 * 
+	 * @return the path of the file, {@code null} if they are not remembered.
+	 */
+	public String getFile() {
+		if (file == null) {
+			return null;
+		}
+		return file.getPath();
+	}
+	
+	/**
+	 * Gets the SHA-1 hash of the given file, either the remembered one or, if
+	 * it has changed, by reading it.
+	 * 
+	 * @param file the file.
+	 * @return the hash as hex.
+	 * @throws IOException if reading the file failed.
+	 */
+	public String hash(File file) throws IOException {
+		File absoluteFile = file.getAbsoluteFile();
+		String fileKey = FileOperations.getFileKey(absoluteFile);
+		long length = absoluteFile.length();
+		long lastModified = absoluteFile.lastModified();
+		
+		if (!full) {
+			synchronized (this) {
+				Hash remembered = hashes.get(absoluteFile.getPath());
+				if (remembered != null && remembered.matches(length, lastModified, fileKey)) {
+					return remembered.hash;
+				}
+			}
+		}
+		
+		String hash = hashContents(absoluteFile);
+		put(absoluteFile, length, lastModified, fileKey, hash);
+		return hash;
+	}
+	
+	/**
+	 * Gets the SHA-1 hashes of the given files, reading multiple files at the
+	 * same time.
+	 * 
+	 * @param files the files.
+	 * @return the hashes as hex, by file.
+	 * @throws IOException if reading any file failed.
+	 * @see #hash(File)
+	 */
+	public Map<File, String> hash(List<File> files) throws IOException {
+		Map<File, String> hashed = new LinkedHashMap<File, String>();
+		if (files.size() <= 1 || threads <= 1) {
+			for (File file : files) {
+				hashed.put(file, hash(file));
+			}
+			return hashed;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(Math.min(threads, files.size()), new DaemonThreadFactory("FileVerifier-"));
+		try {
+			Map<File, Future<String>> futures = new LinkedHashMap<File, Future<String>>();
+			for (final File file : files) {
+				futures.put(file, executor.submit(new Callable<String>() {
+					public String call() throws IOException {
+						return hash(file);
+					}
+				}));
+			}
+			
+			for (Map.Entry<File, Future<String>> future : futures.entrySet()) {
+				hashed.put(future.getKey(), get(future.getValue()));
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		return hashed;
+	}
+	
+	/**
+	 * If every file is read again instead of using the remembered hashes.
+	 * 
+	 * @return {@code true} if every file is read again.
+	 */
+	public boolean isFull() {
+		return full;
+	}
+	
+	/**
+	 * Writes the remembered hashes to the file, if anything has changed. Files
+	 * which do not exist anymore are dropped.
+	 * 
+	 * @throws IOException if writing failed.
+	 */
+	public synchronized void save() throws IOException {
+		if (file == null || !changed) {
+			return;
+		}
+		
+		File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create " + directory + ".");
+		}
+		
+		// Written under a temporary name first, so that nobody else can see
+		// half written hashes. The prefix of a temporary file needs at least
+		// three characters.
+		File temporaryFile = File.createTempFile(file.getName() + ".tmp", null, directory);
+		try {
+			DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+			try {
+				List<Map.Entry<String, Hash>> existing = new ArrayList<Map.Entry<String, Hash>>(hashes.size());
+				for (Map.Entry<String, Hash> entry : hashes.entrySet()) {
+					if (new File(entry.getKey()).isFile()) {
+						existing.add(entry);
+					}
+				}
+				
+				output.writeInt(MAGIC);
+				output.writeInt(VERSION);
+				output.writeInt(existing.size());
+				
+				for (Map.Entry<String, Hash> entry : existing) {
+					ClasspathIndex.writeString(output, entry.getKey());
+					output.writeLong(entry.getValue().length);
+					output.writeLong(entry.getValue().lastModified);
+					ClasspathIndex.writeString(output, entry.getValue().fileKey);
+					ClasspathIndex.writeString(output, entry.getValue().hash);
+				}
+			} finally {
+				output.close();
+			}
+			
+			if (!temporaryFile.renameTo(file)) {
+				if (!file.delete() || !temporaryFile.renameTo(file)) {
+					throw new IOException("Failed to replace " + file + ".");
+				}
+			}
+			
+			changed = false;
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+	
+	/**
+	 * Sets if every file is read again instead of using the remembered hashes.
+	 * The hashes which are read are remembered either way.
+	 * 
+	 * @param full {@code true} if every file should be read again.
+	 */
+	public void setFull(boolean full) {
+		this.full = full;
+	}
+	
+	/**
+	 * Checks if the given file has the given SHA-1 hash.
+	 * 
+	 * @param file the file.
+	 * @param hash the expected hash as hex.
+	 * @return {@code true} if the file exists and has the hash.
+	 * @throws IOException if reading the file failed.
+	 */
+	public boolean verify(File file, String hash) throws IOException {
+		if (!file.isFile()) {
+			return false;
+		}
+		return hash(file).equalsIgnoreCase(hash);
+	}
+	
+	/**
+	 * Remembers the hash of the given file, which has just been written by
+	 * ourselves, without reading it again.
+	 * 
+	 * @param file the file.
+	 * @param hash the hash as hex.
+	 */
+	void put(File file, String hash) {
+		File absoluteFile = file.getAbsoluteFile();
+		put(absoluteFile, absoluteFile.length(), absoluteFile.lastModified(), FileOperations.getFileKey(absoluteFile), hash);
+	}
+	
+	private synchronized void put(File file, long length, long lastModified, String fileKey, String hash) {
+		hashes.put(file.getPath(), new Hash(length, lastModified, fileKey, hash));
+		changed = true;
+	}
+	
+	private void read() {
+		if (!file.isFile()) {
+			return;
+		}
+		
+		Map<String, Hash> read = new HashMap<String, Hash>();
+		try {
+			RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+			try {
+				FileChannel channel = randomAccessFile.getChannel();
+				ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+				ZipDirectory.readFully(channel, buffer, 0);
+				buffer.flip();
+				
+				if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+					return;
+				}
+				
+				int count = buffer.getInt();
+				for (int idx = 0; idx < count; idx++) {
+					String path = ClasspathIndex.readString(buffer);
+					long length = buffer.getLong();
+					long lastModified = buffer.getLong();
+					String fileKey = ClasspathIndex.readString(buffer);
+					String hash = ClasspathIndex.readString(buffer);
+					
+					read.put(path, new Hash(length, lastModified, fileKey, hash));
+				}
+			} finally {
+				randomAccessFile.close();
+			}
+		} catch (IOException e) {
+			// Broken hashes only mean that the files have to be read.
+			return;
+		} catch (BufferUnderflowException e) {
+			return;
+		}
+		
+		hashes.putAll(read);
+	}
+	
+	private static String get(Future<String> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while hashing.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Hashing failed: " + cause);
+		}
+	}
+	
+	/**
+	 * Computes the SHA-1 hash of the given file by reading it.
+	 * 
+	 * @param file the file.
+	 * @return the hash as hex.
+	 * @throws IOException if reading the file failed.
+	 */
+	static String hashContents(File file) throws IOException {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-1 is guaranteed to be available.");
+		}
+		
+		FileInputStream input = new FileInputStream(file);
+		try {
+			byte[] buffer = new byte[BUFFER_SIZE];
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				digest.update(buffer, 0, read);
+			}
+		} finally {
+			input.close();
+		}
+		
+		return BlendManifest.toHex(digest.digest());
+	}
+	
+	/**
+	 * The remembered hash of a single file.
+	 */
+	private static final class Hash {
+		
+		private final String fileKey;
+		private final String hash;
+		private final long lastModified;
+		private final long length;
+		
+		public Hash(long length, long lastModified, String fileKey, String hash) {
+			this.length = length;
+			this.lastModified = lastModified;
+			if (fileKey != null) {
+				this.fileKey = fileKey;
+			} else {
+				this.fileKey = "";
+			}
+			this.hash = hash;
+		}
+		
+		public boolean matches(long length, long lastModified, String fileKey) {
+			return this.length == length
+					&& this.lastModified == lastModified
+					&& this.fileKey.equals(fileKey != null ? fileKey : "");
+		}
+	}
+}
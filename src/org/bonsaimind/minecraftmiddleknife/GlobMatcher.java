@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Matches names against many glob patterns at once.
+ * <p/>
+ * All patterns are compiled into a single trie, which is walked once per
+ * name, so the cost of a match depends on the length of the name and not on
+ * the number of patterns. The following wildcards are supported:
+ * 
+ * <pre>
+ * ?    any single character except '/'
+ * *    any number of characters except '/'
+ * **   any number of characters, including '/'
+ * **&#47; any number of directories, including none
+ * </pre>
+ * 
+ * The last one only applies to whole directories, which means at the start
+ * of the pattern or after a {@code /}. Anywhere else {@code **} is followed
+ * by a plain {@code /}, so {@code x**&#47;y} matches {@code x/y} and
+ * {@code xa/b/y}, but not {@code xy}.
+ * 
+ * If multiple patterns match, the one that has been added first wins.
+ */
+final class GlobMatcher {
+	
+	private static final int LOOP_NONE = 0;
+	private static final int LOOP_SEGMENT = 1;
+	private static final int LOOP_ANY = 2;
+	
+	private final List<Node> nodes = new ArrayList<Node>();
+	private int patternCount = 0;
+	private final Node root;
+	
+	/**
+	 * Creates a new instance of {@link GlobMatcher} without any patterns.
+	 */
+	public GlobMatcher() {
+		root = createNode(LOOP_NONE);
+	}
+	
+	/**
+	 * Adds the given pattern.
+	 * 
+	 * @param pattern the glob pattern.
+	 * @return the index of the pattern, which is returned by
+	 *         {@link #match(String)}.
+	 */
+	public int add(String pattern) {
+		int index = patternCount++;
+		
+		Node node = root;
+		int idx = 0;
+		while (idx < pattern.length()) {
+			char current = pattern.charAt(idx);
+			
+			if (current == '*' && idx + 1 < pattern.length() && pattern.charAt(idx + 1) == '*') {
+				if (idx + 2 < pattern.length() && pattern.charAt(idx + 2) == '/' && (idx == 0 || pattern.charAt(idx - 1) == '/')) {
+					// "**/" also matches no directory at all, so whatever follows
+					// can be reached directly as well.
+					Node any = node.getEpsilon(LOOP_ANY, this);
+					Node afterSlash = any.getChild('/', this);
+					node.addEpsilon(afterSlash);
+					node = afterSlash;
+					idx += 3;
+				} else {
+					node = node.getEpsilon(LOOP_ANY, this);
+					idx += 2;
+				}
+			} else if (current == '*') {
+				node = node.getEpsilon(LOOP_SEGMENT, this);
+				idx++;
+			} else if (current == '?') {
+				if (node.wildcard == null) {
+					node.wildcard = createNode(LOOP_NONE);
+				}
+				node = node.wildcard;
+				idx++;
+			} else {
+				node = node.getChild(current, this);
+				idx++;
+			}
+		}
+		
+		if (node.pattern < 0) {
+			node.pattern = index;
+		}
+		
+		return index;
+	}
+	
+	/**
+	 * Gets the number of patterns that have been added.
+	 * 
+	 * @return the number of patterns.
+	 */
+	public int getPatternCount() {
+		return patternCount;
+	}
+	
+	/**
+	 * Matches the given name against all patterns.
+	 * 
+	 * @param name the name to match.
+	 * @return the index of the first added pattern that matches,
+	 *         {@code -1} if none does.
+	 */
+	public int match(String name) {
+		if (patternCount == 0) {
+			return -1;
+		}
+		
+		int[] marks = new int[nodes.size()];
+		int generation = 1;
+		
+		Node[] active = new Node[nodes.size()];
+		Node[] next = new Node[nodes.size()];
+		int activeCount = addClosure(root, active, 0, marks, generation);
+		
+		for (int idx = 0; idx < name.length() && activeCount > 0; idx++) {
+			char current = name.charAt(idx);
+			generation++;
+			int nextCount = 0;
+			
+			for (int nodeIdx = 0; nodeIdx < activeCount; nodeIdx++) {
+				Node node = active[nodeIdx];
+				
+				if (node.loop == LOOP_ANY || (node.loop == LOOP_SEGMENT && current != '/')) {
+					nextCount = addClosure(node, next, nextCount, marks, generation);
+				}
+				
+				Node child = node.findChild(current);
+				if (child != null) {
+					nextCount = addClosure(child, next, nextCount, marks, generation);
+				}
+				
+				if (node.wildcard != null && current != '/') {
+					nextCount = addClosure(node.wildcard, next, nextCount, marks, generation);
+				}
+			}
+			
+			Node[] swap = active;
+			active = next;
+			next = swap;
+			activeCount = nextCount;
+		}
+		
+		int result = -1;
+		for (int nodeIdx = 0; nodeIdx < activeCount; nodeIdx++) {
+			int pattern = active[nodeIdx].pattern;
+			if (pattern >= 0 && (result < 0 || pattern < result)) {
+				result = pattern;
+			}
+		}
+		
+		return result;
+	}
+	
+	private int addClosure(Node node, Node[] target, int count, int[] marks, int generation) {
+		if (marks[node.id] == generation) {
+			return count;
+		}
+		
+		marks[node.id] = generation;
+		target[count++] = node;
+		
+		for (int idx = 0; idx < node.epsilonCount; idx++) {
+			count = addClosure(node.epsilons[idx], target, count, marks, generation);
+		}
+		
+		return count;
+	}
+	
+	private Node createNode(int loop) {
+		Node node = new Node(nodes.size(), loop);
+		nodes.add(node);
+		return node;
+	}
+	
+	/**
+	 * A single node of the trie.
+	 */
+	private static final class Node {
+		
+		private char[] characters = new char[0];
+		private Node[] children = new Node[0];
+		private int epsilonCount = 0;
+		private Node[] epsilons = new Node[0];
+		private final int id;
+		private final int loop;
+		private int pattern = -1;
+		private Node wildcard = null;
+		
+		public Node(int id, int loop) {
+			this.id = id;
+			this.loop = loop;
+		}
+		
+		public void addEpsilon(Node node) {
+			for (int idx = 0; idx < epsilonCount; idx++) {
+				if (epsilons[idx] == node) {
+					return;
+				}
+			}
+			
+			if (epsilonCount == epsilons.length) {
+				Node[] grown = new Node[epsilonCount + 2];
+				System.arraycopy(epsilons, 0, grown, 0, epsilonCount);
+				epsilons = grown;
+			}
+			epsilons[epsilonCount++] = node;
+		}
+		
+		public Node findChild(char character) {
+			for (int idx = 0; idx < characters.length; idx++) {
+				if (characters[idx] == character) {
+					return children[idx];
+				}
+			}
+			return null;
+		}
+		
+		public Node getChild(char character, GlobMatcher matcher) {
+			Node child = findChild(character);
+			if (child == null) {
+				child = matcher.createNode(LOOP_NONE);
+				
+				char[] grownCharacters = new char[characters.length + 1];
+				Node[] grownChildren = new Node[children.length + 1];
+				System.arraycopy(characters, 0, grownCharacters, 0, characters.length);
+				System.arraycopy(children, 0, grownChildren, 0, children.length);
+				grownCharacters[characters.length] = character;
+				grownChildren[children.length] = child;
+				characters = grownCharacters;
+				children = grownChildren;
+			}
+			return child;
+		}
+		
+		public Node getEpsilon(int loop, GlobMatcher matcher) {
+			for (int idx = 0; idx < epsilonCount; idx++) {
+				if (epsilons[idx].loop == loop) {
+					return epsilons[idx];
+				}
+			}
+			
+			Node node = matcher.createNode(loop);
+			addEpsilon(node);
+			return node;
+		}
+	}
+}
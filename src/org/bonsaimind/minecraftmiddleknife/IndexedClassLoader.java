@@ -0,0 +1,722 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.security.CodeSource;
+import java.security.cert.Certificate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.jar.Manifest;
+import java.util.zip.ZipException;
+
+/**
+ * A {@link URLClassLoader} which knows up front which jar contains which class
+ * and resource.
+ * <p/>
+ * When it is created, the central directories of all jars are read into one
+ * index from the name of every entry to the jar that contains it. Every
+ * {@link #findClass(String)} and {@link #findResource(String)} is then a
+ * single lookup in that index, instead of probing every jar one after
+ * another. As with {@link URLClassLoader}, the first jar that contains an
+ * entry wins.
+ * <p/>
+ * Only local jars can be indexed. If any of the {@link URL}s is something
+ * else, for example a directory, the index is not used at all and this
+ * behaves exactly like a {@link URLClassLoader}.
+ * <p/>
+ * Usage example:
+ * 
+ * <pre>
+ * ClassLoaderCreator classLoaderCreator = new ClassLoaderCreator();
+ * classLoaderCreator.addRecursively(&quot;/path/to/libraries/&quot;);
+ * IndexedClassLoader classLoader = classLoaderCreator.createIndexedClassLoader();
+ * </pre>
+ * <p/>
+ * Since Java 7 it is registered as parallel capable, so multiple threads can
+ * load classes at the same time. There is only one lock per jar, which is
+ * held while opening it, everything else needs no lock at all.
+ * <p/>
+ * If it is instrumented, it also records what is loaded from which jar and
+ * how long that takes, see {@link #getStatistics()}.
+ */
+public final class IndexedClassLoader extends URLClassLoader {
+	
+	/**
+	 * {@code MethodHandle.invokeWithArguments(Object...)}, {@code null} before
+	 * Java 7.
+	 */
+	private static final Method INVOKE_WITH_ARGUMENTS;
+	/**
+	 * A {@code MethodHandle} of {@code URLClassLoader.close()} which does not
+	 * end up in {@link #close()} again, {@code null} before Java 7.
+	 */
+	private static final Object URL_CLASS_LOADER_CLOSE;
+	
+	static {
+		// Only available since Java 7. Without it, every class is loaded while
+		// holding the lock on the whole ClassLoader.
+		try {
+			Method registerAsParallelCapable = ClassLoader.class.getDeclaredMethod("registerAsParallelCapable");
+			registerAsParallelCapable.setAccessible(true);
+			registerAsParallelCapable.invoke(null);
+		} catch (NoSuchMethodException e) {
+			// Java 6, classes are loaded one after another.
+		} catch (IllegalAccessException e) {
+			// Then classes are loaded one after another.
+		} catch (InvocationTargetException e) {
+			// Then classes are loaded one after another.
+		} catch (SecurityException e) {
+			// Then classes are loaded one after another.
+		}
+		
+		// URLClassLoader.close() is only available since Java 7, and it can't
+		// be called through super, as it does not exist in Java 6. Through
+		// plain reflection it would end up in our own close() again.
+		Method invokeWithArguments = null;
+		Object urlClassLoaderClose = null;
+		try {
+			Class<?> lookupClass = Class.forName("java.lang.invoke.MethodHandles$Lookup");
+			Class<?> methodTypeClass = Class.forName("java.lang.invoke.MethodType");
+			Object lookup = Class.forName("java.lang.invoke.MethodHandles").getMethod("lookup").invoke(null);
+			Object methodType = methodTypeClass.getMethod("methodType", Class.class).invoke(null, void.class);
+			
+			urlClassLoaderClose = lookupClass.getMethod("findSpecial", Class.class, String.class, methodTypeClass, Class.class).invoke(lookup, URLClassLoader.class, "close", methodType, IndexedClassLoader.class);
+			invokeWithArguments = Class.forName("java.lang.invoke.MethodHandle").getMethod("invokeWithArguments", Object[].class);
+		} catch (ClassNotFoundException e) {
+			// Java 6, there is nothing to close.
+		} catch (NoSuchMethodException e) {
+			// Java 6, there is nothing to close.
+		} catch (IllegalAccessException e) {
+			urlClassLoaderClose = null;
+		} catch (InvocationTargetException e) {
+			urlClassLoaderClose = null;
+		}
+		
+		INVOKE_WITH_ARGUMENTS = invokeWithArguments;
+		URL_CLASS_LOADER_CLOSE = urlClassLoaderClose;
+	}
+	
+	private volatile boolean closed = false;
+	private final CodeSource[] codeSources;
+	private final ZipDirectory[] directories;
+	private final Map<String, List<Long>> duplicates = new HashMap<String, List<Long>>();
+	private final File[] files;
+	private final Map<String, Long> index;
+	private volatile Queue<String> loadOrder = null;
+	private final Object[] locks;
+	private final int[] manifestEntries;
+	private final Manifest[] manifests;
+	private final boolean[] manifestsRead;
+	private final ClassLoadingRecorder recorder;
+	private final URL[] urls;
+	private ClassWarmup warmup = null;
+	
+	/**
+	 * Creates a new instance of {@link IndexedClassLoader} with the system
+	 * {@link ClassLoader} as parent.
+	 * 
+	 * @param urls the {@link URL}s of the jars.
+	 * @throws IOException if reading any jar failed.
+	 */
+	public IndexedClassLoader(URL[] urls) throws IOException {
+		this(urls, ClassLoader.getSystemClassLoader(), null);
+	}
+	
+	/**
+	 * Creates a new instance of {@link IndexedClassLoader}.
+	 * 
+	 * @param urls the {@link URL}s of the jars.
+	 * @param parent the parent {@link ClassLoader}.
+	 * @throws IOException if reading any jar failed.
+	 */
+	public IndexedClassLoader(URL[] urls, ClassLoader parent) throws IOException {
+		this(urls, parent, null);
+	}
+	
+	/**
+	 * Creates a new instance of {@link IndexedClassLoader}.
+	 * 
+	 * @param urls the {@link URL}s of the jars.
+	 * @param parent the parent {@link ClassLoader}.
+	 * @param indexFile the file in which the index is cached between
+	 *            launches, {@code null} for none. Only the jars which are not
+	 *            in there or have changed are read, all others are only
+	 *            opened once a class or resource is loaded from them. It can
+	 *            be shared by multiple processes.
+	 * @throws IOException if reading any jar failed.
+	 */
+	public IndexedClassLoader(URL[] urls, ClassLoader parent, File indexFile) throws IOException {
+		this(urls, parent, indexFile, false);
+	}
+	
+	/**
+	 * Creates a new instance of {@link IndexedClassLoader}.
+	 * 
+	 * @param urls the {@link URL}s of the jars.
+	 * @param parent the parent {@link ClassLoader}.
+	 * @param indexFile the file in which the index is cached between
+	 *            launches, {@code null} for none.
+	 * @param instrumented if what is loaded from which jar should be recorded.
+	 * @throws IOException if reading any jar failed.
+	 * @see #getStatistics()
+	 */
+	public IndexedClassLoader(URL[] urls, ClassLoader parent, File indexFile, boolean instrumented) throws IOException {
+		super(urls, parent);
+		
+		this.urls = urls.clone();
+		if (instrumented) {
+			recorder = new ClassLoadingRecorder(urls);
+		} else {
+			recorder = null;
+		}
+		codeSources = new CodeSource[urls.length];
+		directories = new ZipDirectory[urls.length];
+		manifestEntries = new int[urls.length];
+		manifests = new Manifest[urls.length];
+		manifestsRead = new boolean[urls.length];
+		locks = new Object[urls.length];
+		for (int idx = 0; idx < locks.length; idx++) {
+			locks[idx] = new Object();
+		}
+		
+		files = toFiles(urls);
+		if (files == null) {
+			index = null;
+			return;
+		}
+		
+		ClasspathIndex cache = null;
+		if (indexFile != null) {
+			cache = ClasspathIndex.read(indexFile);
+		}
+		
+		String[][] names = new String[files.length][];
+		int total = 0;
+		try {
+			for (int idx = 0; idx < files.length; idx++) {
+				codeSources[idx] = new CodeSource(urls[idx], (Certificate[]) null);
+				
+				if (cache != null) {
+					names[idx] = cache.get(files[idx]);
+				}
+				
+				if (names[idx] == null) {
+					directories[idx] = ZipDirectory.open(files[idx]);
+					names[idx] = new String[directories[idx].size()];
+					for (int entryIdx = 0; entryIdx < names[idx].length; entryIdx++) {
+						names[idx][entryIdx] = directories[idx].getName(entryIdx);
+					}
+					
+					if (cache != null) {
+						cache.put(files[idx], names[idx]);
+					}
+				}
+				
+				total += names[idx].length;
+			}
+		} catch (ZipException e) {
+			// Most likely a ZIP64 archive, which we can't index.
+			closeDirectories();
+			index = null;
+			return;
+		} catch (IOException e) {
+			closeDirectories();
+			throw e;
+		}
+		
+		if (cache != null && cache.isChanged()) {
+			try {
+				cache.write(indexFile);
+			} catch (IOException e) {
+				// Then the jars are simply read again next time.
+			}
+		}
+		
+		index = new HashMap<String, Long>(total * 4 / 3 + 1);
+		for (int jarIdx = 0; jarIdx < names.length; jarIdx++) {
+			manifestEntries[jarIdx] = -1;
+			
+			for (int entryIdx = 0; entryIdx < names[jarIdx].length; entryIdx++) {
+				String name = names[jarIdx][entryIdx];
+				Long location = Long.valueOf(((long) jarIdx << 32) | entryIdx);
+				
+				Long existing = index.put(name, location);
+				if (existing != null) {
+					// The first jar wins, but all of them are needed for
+					// getResources().
+					index.put(name, existing);
+					
+					List<Long> locations = duplicates.get(name);
+					if (locations == null) {
+						locations = new ArrayList<Long>(2);
+						locations.add(existing);
+						duplicates.put(name, locations);
+					}
+					locations.add(location);
+				}
+				
+				if (name.equals(Blender.MANIFEST) && manifestEntries[jarIdx] < 0) {
+					manifestEntries[jarIdx] = entryIdx;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Closes all indexed jars, and since Java 7 also everything the
+	 * {@link URLClassLoader} has opened. Classes and resources which have not
+	 * been loaded yet can not be loaded anymore.
+	 * 
+	 * @throws IOException if closing any jar failed.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		try {
+			closeDirectories();
+		} finally {
+			closeURLClassLoader();
+		}
+	}
+	
+	/**
+	 * Gets the names of the classes which have been loaded from this
+	 * {@link ClassLoader}, in the order in which they have been loaded.
+	 * Classes which have been loaded by a {@link ClassWarmup} are not
+	 * included.
+	 * 
+	 * @return the names of the classes, {@code null} if the order is not
+	 *         recorded.
+	 * @see #startRecordingLoadOrder()
+	 */
+	public List<String> getLoadOrder() {
+		Queue<String> currentLoadOrder = loadOrder;
+		if (currentLoadOrder == null) {
+			return null;
+		}
+		return new ArrayList<String>(currentLoadOrder);
+	}
+	
+	/**
+	 * Gets a snapshot of what has been loaded from which jar so far.
+	 * 
+	 * @return the {@link ClassLoadingStatistics}, {@code null} if this is not
+	 *         instrumented.
+	 */
+	public ClassLoadingStatistics getStatistics() {
+		if (recorder == null) {
+			return null;
+		}
+		return recorder.snapshot();
+	}
+	
+	/**
+	 * Gets the {@link ClassWarmup} which has been started.
+	 * 
+	 * @return the {@link ClassWarmup}, {@code null} if none has been started.
+	 */
+	public synchronized ClassWarmup getWarmup() {
+		return warmup;
+	}
+	
+	/**
+	 * If the index is used, which is the case if all {@link URL}s point to
+	 * local jars.
+	 * 
+	 * @return {@code true} if the index is used.
+	 */
+	public boolean isIndexed() {
+		return index != null;
+	}
+	
+	/**
+	 * If this records what is loaded from which jar.
+	 * 
+	 * @return {@code true} if this is instrumented.
+	 */
+	public boolean isInstrumented() {
+		return recorder != null;
+	}
+	
+	/**
+	 * Writes the report of the {@link ClassLoadingStatistics} to the given
+	 * file when the JVM exits.
+	 * 
+	 * @param reportFile the file.
+	 * @throws IllegalStateException if this is not instrumented.
+	 */
+	public void reportOnExit(File reportFile) {
+		if (recorder == null) {
+			throw new IllegalStateException("The class loader is not instrumented.");
+		}
+		
+		recorder.reportOnExit(reportFile.getAbsoluteFile());
+	}
+	
+	/**
+	 * Starts recording the order in which the classes from this
+	 * {@link ClassLoader} are needed, to be used for a {@link ClassWarmup} in
+	 * the next run. Classes which are loaded by a {@link ClassWarmup} are not
+	 * recorded, as nobody might need them.
+	 * 
+	 * @see #getLoadOrder()
+	 */
+	public synchronized void startRecordingLoadOrder() {
+		if (loadOrder == null) {
+			loadOrder = new ConcurrentLinkedQueue<String>();
+		}
+	}
+	
+	/**
+	 * Starts loading the given classes in background threads, so that they
+	 * are already loaded once they are needed. Only one warmup can be started.
+	 * 
+	 * @param classNames the binary names of the classes, in the order in which
+	 *            they should be loaded.
+	 * @param threads the number of threads.
+	 * @param timeBudget the time in milliseconds after which the warmup stops.
+	 * @return the {@link ClassWarmup}, which can be cancelled.
+	 * @throws IllegalArgumentException if threads is not positive.
+	 * @throws IllegalStateException if a warmup has already been started.
+	 */
+	public synchronized ClassWarmup startWarmup(List<String> classNames, int threads, long timeBudget) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads is not positive.");
+		}
+		if (warmup != null) {
+			throw new IllegalStateException("A warmup has already been started.");
+		}
+		
+		warmup = new ClassWarmup(this, classNames, threads, timeBudget);
+		return warmup;
+	}
+	
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		long start = 0;
+		if (recorder != null) {
+			start = System.nanoTime();
+		}
+		
+		if (index == null) {
+			Class<?> clazz = super.findClass(name);
+			if (recorder != null) {
+				// The lookup and the definition can't be told apart here.
+				recordClass(clazz, System.nanoTime() - start);
+			}
+			recordLoadOrder(name);
+			return clazz;
+		}
+		
+		Long location = index.get(name.replace('.', '/') + ".class");
+		if (location == null) {
+			throw new ClassNotFoundException(name);
+		}
+		
+		int jarIdx = getJarIndex(location);
+		byte[] data;
+		try {
+			data = read(jarIdx, getEntryIndex(location), name.replace('.', '/') + ".class");
+		} catch (IOException e) {
+			throw new ClassNotFoundException(name, e);
+		}
+		
+		long defineStart = 0;
+		if (recorder != null) {
+			defineStart = System.nanoTime();
+		}
+		
+		int packageSeparator = name.lastIndexOf('.');
+		if (packageSeparator > 0) {
+			definePackage(name.substring(0, packageSeparator), jarIdx);
+		}
+		
+		Class<?> clazz = defineClass(name, data, 0, data.length, codeSources[jarIdx]);
+		
+		if (recorder != null) {
+			long end = System.nanoTime();
+			recorder.recordClass(jarIdx, defineStart - start, end - defineStart);
+		}
+		recordLoadOrder(name);
+		
+		return clazz;
+	}
+	
+	@Override
+	public URL findResource(String name) {
+		long start = 0;
+		if (recorder != null) {
+			start = System.nanoTime();
+		}
+		
+		if (index == null) {
+			URL url = super.findResource(name);
+			if (recorder != null && url != null) {
+				int jarIdx = recorder.getJarIndex(url);
+				if (jarIdx >= 0) {
+					recorder.recordResource(jarIdx, System.nanoTime() - start);
+				}
+			}
+			return url;
+		}
+		
+		Long location = index.get(name);
+		if (location == null) {
+			return null;
+		}
+		
+		URL url = toURL(getJarIndex(location), name);
+		if (recorder != null) {
+			recorder.recordResource(getJarIndex(location), System.nanoTime() - start);
+		}
+		return url;
+	}
+	
+	@Override
+	public Enumeration<URL> findResources(String name) throws IOException {
+		if (index == null) {
+			return super.findResources(name);
+		}
+		
+		List<URL> resources = new ArrayList<URL>();
+		List<Long> locations = duplicates.get(name);
+		if (locations != null) {
+			for (Long location : locations) {
+				URL url = toURL(getJarIndex(location), name);
+				if (url != null) {
+					resources.add(url);
+					
+					if (recorder != null) {
+						recorder.recordResource(getJarIndex(location), 0);
+					}
+				}
+			}
+		} else {
+			URL url = findResource(name);
+			if (url != null) {
+				resources.add(url);
+			}
+		}
+		
+		return Collections.enumeration(resources);
+	}
+	
+	/**
+	 * If the given class has already been loaded by this {@link ClassLoader}.
+	 * 
+	 * @param name the binary name of the class.
+	 * @return {@code true} if it has already been loaded.
+	 */
+	boolean isLoaded(String name) {
+		return findLoadedClass(name) != null;
+	}
+	
+	private void closeDirectories() throws IOException {
+		IOException exception = null;
+		for (int jarIdx = 0; jarIdx < directories.length; jarIdx++) {
+			synchronized (locks[jarIdx]) {
+				if (directories[jarIdx] != null) {
+					try {
+						directories[jarIdx].close();
+					} catch (IOException e) {
+						exception = e;
+					}
+				}
+			}
+		}
+		
+		if (exception != null) {
+			throw exception;
+		}
+	}
+	
+	private void closeURLClassLoader() throws IOException {
+		if (URL_CLASS_LOADER_CLOSE == null) {
+			return;
+		}
+		
+		try {
+			INVOKE_WITH_ARGUMENTS.invoke(URL_CLASS_LOADER_CLOSE, (Object) new Object[] { this });
+		} catch (IllegalAccessException e) {
+			throw new IOException("Failed to close the URLClassLoader.", e);
+		} catch (InvocationTargetException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException("Failed to close the URLClassLoader.", e.getCause());
+		}
+	}
+	
+	private void definePackage(String packageName, int jarIdx) {
+		if (getPackage(packageName) != null) {
+			return;
+		}
+		
+		try {
+			Manifest manifest = getManifest(jarIdx);
+			if (manifest != null) {
+				definePackage(packageName, manifest, urls[jarIdx]);
+			} else {
+				definePackage(packageName, null, null, null, null, null, null, null);
+			}
+		} catch (IllegalArgumentException e) {
+			// Somebody else has been faster, that's fine.
+		}
+	}
+	
+	private Manifest getManifest(int jarIdx) {
+		synchronized (locks[jarIdx]) {
+			if (!manifestsRead[jarIdx]) {
+				manifestsRead[jarIdx] = true;
+				
+				if (manifestEntries[jarIdx] >= 0) {
+					try {
+						manifests[jarIdx] = new Manifest(new ByteArrayInputStream(read(jarIdx, manifestEntries[jarIdx], Blender.MANIFEST)));
+					} catch (IOException e) {
+						// Then the package simply does not get any attributes.
+					}
+				}
+			}
+			
+			return manifests[jarIdx];
+		}
+	}
+	
+	/**
+	 * Reads the given entry, opening the jar if that has not happened yet.
+	 * 
+	 * @param jarIdx the index of the jar.
+	 * @param entryIdx the index of the entry in the jar.
+	 * @param name the expected name of the entry.
+	 * @return the data of the entry.
+	 * @throws IOException if reading failed or the jar does not match the
+	 *             index anymore.
+	 */
+	private byte[] read(int jarIdx, int entryIdx, String name) throws IOException {
+		ZipDirectory directory = null;
+		// Only one lock per jar, so that classes from different jars can be
+		// loaded at the same time.
+		synchronized (locks[jarIdx]) {
+			if (closed) {
+				throw new IOException("The class loader has been closed.");
+			}
+			if (directories[jarIdx] == null) {
+				directories[jarIdx] = ZipDirectory.open(files[jarIdx]);
+			}
+			directory = directories[jarIdx];
+		}
+		
+		// The jar might have been replaced with one of the same size and
+		// modification time.
+		if (entryIdx >= directory.size() || !directory.getName(entryIdx).equals(name)) {
+			throw new ZipException("The index does not match " + files[jarIdx] + " anymore.");
+		}
+		
+		byte[] data = directory.read(entryIdx);
+		if (recorder != null) {
+			recorder.recordBytes(jarIdx, data.length);
+		}
+		return data;
+	}
+	
+	private void recordClass(Class<?> clazz, long time) {
+		CodeSource codeSource = clazz.getProtectionDomain().getCodeSource();
+		if (codeSource != null) {
+			int jarIdx = recorder.getJarIndex(codeSource.getLocation());
+			if (jarIdx >= 0) {
+				recorder.recordClass(jarIdx, time, 0);
+			}
+		}
+	}
+	
+	private void recordLoadOrder(String name) {
+		Queue<String> currentLoadOrder = loadOrder;
+		if (currentLoadOrder != null && !ClassWarmup.isWarmupThread()) {
+			currentLoadOrder.add(name);
+		}
+	}
+	
+	private URL toURL(int jarIdx, String name) {
+		try {
+			return new URL("jar:" + urls[jarIdx].toExternalForm() + "!/" + name);
+		} catch (MalformedURLException e) {
+			return null;
+		}
+	}
+	
+	private static int getEntryIndex(Long location) {
+		return (int) location.longValue();
+	}
+	
+	private static int getJarIndex(Long location) {
+		return (int) (location.longValue() >>> 32);
+	}
+	
+	/**
+	 * Converts the given {@link URL}s into the local jars they point to.
+	 * 
+	 * @param urls the {@link URL}s.
+	 * @return the jars, {@code null} if any of the {@link URL}s is not a local
+	 *         jar.
+	 */
+	private static File[] toFiles(URL[] urls) {
+		File[] files = new File[urls.length];
+		for (int idx = 0; idx < urls.length; idx++) {
+			if (!"file".equals(urls[idx].getProtocol())) {
+				return null;
+			}
+			
+			try {
+				files[idx] = new File(urls[idx].toURI());
+			} catch (URISyntaxException e) {
+				return null;
+			} catch (IllegalArgumentException e) {
+				return null;
+			}
+			
+			if (!files[idx].isFile()) {
+				return null;
+			}
+		}
+		return files;
+	}
+}
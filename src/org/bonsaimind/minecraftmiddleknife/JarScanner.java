@@ -0,0 +1,226 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Finds all jars below a directory, optionally listing multiple directories
+ * at the same time.
+ * <p/>
+ * Every directory is listed on its own, as soon as its parent has been
+ * listed, so on slow (network) file systems many directories are waited for
+ * at the same time. Only one stat is done per directory entry, files are
+ * only checked if their name ends with {@code .jar}, everything else only if
+ * it is a directory. The names are sorted, so the jars are always returned in
+ * the same order, no matter how many threads are used or in which order the
+ * file system returns them.
+ */
+final class JarScanner {
+	
+	private static final String SUFFIX = ".jar";
+	
+	private final GlobMatcher excludes;
+	private final GlobMatcher includes;
+	private final int threads;
+	
+	/**
+	 * Creates a new instance of {@link JarScanner}.
+	 * 
+	 * @param includes the patterns of the jars to include, relative to the
+	 *            scanned directory. If there are none, all jars are included.
+	 * @param excludes the patterns of the jars and directories to exclude,
+	 *            relative to the scanned directory. Directories are matched
+	 *            with a trailing {@code /}.
+	 * @param threads the number of threads to use, {@code 0} to do everything
+	 *            on the calling thread.
+	 */
+	public JarScanner(List<String> includes, List<String> excludes, int threads) {
+		this.includes = new GlobMatcher();
+		for (String include : includes) {
+			this.includes.add(include);
+		}
+		
+		this.excludes = new GlobMatcher();
+		for (String exclude : excludes) {
+			this.excludes.add(exclude);
+		}
+		
+		this.threads = threads;
+	}
+	
+	/**
+	 * Finds all jars below the given directory, in depth first order with the
+	 * jars of a directory before its subdirectories, everything sorted by
+	 * name.
+	 * 
+	 * @param directory the directory to scan.
+	 * @return all jars which have been found.
+	 * @throws IOException if listing any directory failed.
+	 */
+	public List<File> scan(File directory) throws IOException {
+		Map<String, Listing> listings = new HashMap<String, Listing>();
+		
+		if (threads == 0) {
+			LinkedList<String> pending = new LinkedList<String>();
+			pending.add("");
+			while (!pending.isEmpty()) {
+				String path = pending.removeFirst();
+				Listing listing = list(directory, path);
+				listings.put(path, listing);
+				pending.addAll(listing.directories);
+			}
+		} else {
+			ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("JarScanner-"));
+			try {
+				CompletionService<Listing> completionService = new ExecutorCompletionService<Listing>(executor);
+				submit(completionService, directory, "");
+				int running = 1;
+				
+				while (running > 0) {
+					Listing listing = get(completionService);
+					running--;
+					
+					listings.put(listing.path, listing);
+					for (String subdirectory : listing.directories) {
+						submit(completionService, directory, subdirectory);
+						running++;
+					}
+				}
+			} finally {
+				executor.shutdownNow();
+			}
+		}
+		
+		List<File> jars = new ArrayList<File>();
+		collect(directory, "", listings, jars);
+		return jars;
+	}
+	
+	private void collect(File directory, String path, Map<String, Listing> listings, List<File> jars) {
+		Listing listing = listings.get(path);
+		for (String jar : listing.jars) {
+			jars.add(new File(directory, jar));
+		}
+		for (String subdirectory : listing.directories) {
+			collect(directory, subdirectory, listings, jars);
+		}
+	}
+	
+	/**
+	 * Lists a single directory.
+	 * 
+	 * @param root the scanned directory.
+	 * @param path the path of the directory relative to the scanned one,
+	 *            either empty or ending with {@code /}.
+	 * @return the {@link Listing}.
+	 * @throws IOException if listing the directory failed.
+	 */
+	private Listing list(File root, String path) throws IOException {
+		File directory = new File(root, path);
+		String[] names = directory.list();
+		if (names == null) {
+			throw new IOException("Failed to list " + directory + ".");
+		}
+		Arrays.sort(names);
+		
+		Listing listing = new Listing(path);
+		for (String name : names) {
+			String relativePath = path + name;
+			
+			if (name.endsWith(SUFFIX)) {
+				if (new File(directory, name).isFile()) {
+					if ((includes.getPatternCount() == 0 || includes.match(relativePath) >= 0) && excludes.match(relativePath) < 0) {
+						listing.jars.add(relativePath);
+					}
+					continue;
+				}
+			}
+			
+			if (new File(directory, name).isDirectory() && excludes.match(relativePath + "/") < 0) {
+				listing.directories.add(relativePath + "/");
+			}
+		}
+		
+		return listing;
+	}
+	
+	private void submit(CompletionService<Listing> completionService, final File root, final String path) {
+		completionService.submit(new Callable<Listing>() {
+			public Listing call() throws IOException {
+				return list(root, path);
+			}
+		});
+	}
+	
+	private static Listing get(CompletionService<Listing> completionService) throws IOException {
+		try {
+			return completionService.take().get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while scanning.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Scanning failed: " + cause);
+		}
+	}
+	
+	/**
+	 * The jars and subdirectories of a single directory.
+	 */
+	private static final class Listing {
+		
+		private final List<String> directories = new ArrayList<String>();
+		private final List<String> jars = new ArrayList<String>();
+		private final String path;
+		
+		public Listing(String path) {
+			this.path = path;
+		}
+	}
+}
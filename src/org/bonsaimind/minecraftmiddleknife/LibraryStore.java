@@ -0,0 +1,188 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * A content addressed store of libraries and natives, which can be shared by
+ * many instances on the same host.
+ * <p/>
+ * Every file is stored once under its SHA-1 hash. The copies in the
+ * instances can be replaced with hard links to the stored file, so that they
+ * take up disk space only once and share the page cache of the OS when they
+ * are loaded by multiple instances at the same time. The stored files are
+ * made read only, as changing one of them would change it for every
+ * instance.
+ * 
+ * <pre>
+ * LibraryStore store = new LibraryStore(&quot;/path/to/libraries/&quot;);
+ * for (File library : instanceLibraries) {
+ * 	store.deduplicate(library);
+ * }
+ * 
+ * ClassLoaderCreator classLoaderCreator = new ClassLoaderCreator();
+ * classLoaderCreator.setLibraryStore(store);
+ * classLoaderCreator.add(&quot;/path/to/instance/libraries/lwjgl.jar&quot;, lwjglHash);
+ * </pre>
+ */
+public final class LibraryStore {
+	
+	private static final String HASHES = ".hashes";
+	
+	private final File directory;
+	private final FileVerifier verifier;
+	
+	/**
+	 * Creates a new instance of {@link LibraryStore}.
+	 * 
+	 * @param directory the directory of the store. It is created if it does
+	 *            not exist.
+	 */
+	public LibraryStore(String directory) {
+		this.directory = new File(directory).getAbsoluteFile();
+		
+		verifier = new FileVerifier(new File(this.directory, HASHES).getPath());
+	}
+	
+	/**
+	 * Stores the given file, if it is not already stored, and replaces it
+	 * with a hard link to the stored file. If a hard link can not be created,
+	 * for example because the file is on another file system, the file is left
+	 * as it is.
+	 * 
+	 * @param file the file.
+	 * @return the stored file.
+	 * @throws IOException if storing the file or replacing it failed.
+	 */
+	public File deduplicate(File file) throws IOException {
+		File stored = store(file);
+		
+		String fileKey = FileOperations.getFileKey(file);
+		if (fileKey != null && fileKey.equals(FileOperations.getFileKey(stored))) {
+			// Already linked.
+			return stored;
+		}
+		
+		// The prefix of a temporary file needs at least three characters.
+		File parent = file.getAbsoluteFile().getParentFile();
+		File temporaryFile = File.createTempFile(file.getName() + ".tmp", null, parent);
+		try {
+			if (!temporaryFile.delete() || !FileOperations.link(stored, temporaryFile)) {
+				return stored;
+			}
+			
+			if (!temporaryFile.renameTo(file)) {
+				if (!file.delete() || !temporaryFile.renameTo(file)) {
+					throw new IOException("Failed to replace " + file + ".");
+				}
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+		
+		return stored;
+	}
+	
+	/**
+	 * Gets the stored file with the given hash.
+	 * 
+	 * @param hash the SHA-1 hash as hex.
+	 * @return the stored file, {@code null} if there is none with that hash.
+	 */
+	public File get(String hash) {
+		if (hash.length() != 40) {
+			return null;
+		}
+		
+		File stored = getFile(hash.toLowerCase());
+		if (!stored.isFile()) {
+			return null;
+		}
+		return stored;
+	}
+	
+	/**
+	 * Gets the directory of the store.
+	 * 
+	 * @return the directory.
+	 */
+	public String getDirectory() {
+		return directory.getPath();
+	}
+	
+	/**
+	 * Stores the given file, if it is not already stored.
+	 * 
+	 * @param file the file.
+	 * @return the stored file.
+	 * @throws IOException if storing the file failed.
+	 */
+	public File store(File file) throws IOException {
+		File stored = getFile(verifier.hash(file));
+		if (stored.isFile()) {
+			verifier.save();
+			return stored;
+		}
+		
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create " + directory + ".");
+		}
+		
+		// Copied under a temporary name first and hashed again, so that
+		// nobody else can see a half written file and a file which has changed
+		// while it was copied does not end up under the wrong hash.
+		File temporaryFile = File.createTempFile(file.getName() + ".tmp", null, directory);
+		try {
+			FileOperations.copy(file, temporaryFile);
+			stored = getFile(FileVerifier.hashContents(temporaryFile));
+			
+			File parent = stored.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+				throw new IOException("Failed to create " + parent + ".");
+			}
+			
+			if (!temporaryFile.renameTo(stored) && !stored.isFile()) {
+				throw new IOException("Failed to move " + temporaryFile + " into the store.");
+			}
+			
+			// Only now, Windows does not delete a read only temporary file.
+			stored.setWritable(false, false);
+		} finally {
+			temporaryFile.delete();
+		}
+		
+		verifier.save();
+		return stored;
+	}
+	
+	private File getFile(String hash) {
+		return new File(new File(directory, hash.substring(0, 2)), hash);
+	}
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.nio.channels.FileLock;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+import java.util.zip.ZipFile;
+
+/**
+ * A cache of extracted native libraries, which can be shared between multiple
+ * instances and processes.
+ * <p/>
+ * The natives of a set of jars are extracted into a directory which is named
+ * after the hash of the contents of the jars, so the same jars always end up
+ * in the same directory, no matter where they are. Next to the libraries, a
+ * listing with the size and hash of every library is written once the
+ * extraction is complete. As long as the libraries still match that listing,
+ * they are not extracted again, and if only some of them do not, only those
+ * are extracted again. The hashes are checked through a {@link FileVerifier},
+ * so libraries which have not changed since are not even read.
+ * <p/>
+ * Libraries are never rewritten in place, they are written under a temporary
+ * name and then moved over the old ones. Processes which have the old ones
+ * loaded keep them mapped, writing into them would crash these processes.
+ * <p/>
+ * Processes which extract the same natives at the same time coordinate
+ * through a lock file, the first one extracts them and the others wait for it
+ * and then use its result.
+ */
+final class NativeCache {
+	
+	private static final String LISTING = ".listing";
+	private static final String LOCK_SUFFIX = ".lock";
+	
+	private final File directory;
+	private final int threads;
+	private final FileVerifier verifier;
+	
+	/**
+	 * Creates a new instance of {@link NativeCache}.
+	 * 
+	 * @param directory the directory of the cache. It is created if it does
+	 *            not exist.
+	 * @param threads the number of threads with which the libraries are
+	 *            extracted.
+	 * @param verifier the {@link FileVerifier} with which the jars and the
+	 *            libraries are hashed.
+	 */
+	public NativeCache(File directory, int threads, FileVerifier verifier) {
+		this.directory = directory.getAbsoluteFile();
+		this.threads = threads;
+		this.verifier = verifier;
+	}
+	
+	/**
+	 * Extracts the natives from the given jars, or reuses them if they have
+	 * already been extracted.
+	 * 
+	 * @param jars the jars with the natives. If multiple jars contain the same
+	 *            file, the last one wins.
+	 * @return the directory with the natives.
+	 * @throws IOException if extracting the natives failed.
+	 */
+	public File extract(List<File> jars) throws IOException {
+		File nativesDirectory = new File(directory, createKey(jars));
+		if (verify(nativesDirectory, null)) {
+			verifier.save();
+			return nativesDirectory;
+		}
+		
+		ExecutorService executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("NativeCache-"));
+		try {
+			
+			if (!directory.isDirectory() && !directory.mkdirs()) {
+				throw new IOException("Failed to create " + directory + ".");
+			}
+			
+			RandomAccessFile lockFile = new RandomAccessFile(new File(directory, nativesDirectory.getName() + LOCK_SUFFIX), "rw");
+			try {
+				// Inside of this JVM the lock has to be taken by one thread
+				// after another, the FileLock is held by the whole JVM.
+				synchronized (NativeCache.class) {
+					FileLock lock = lockFile.getChannel().lock();
+					try {
+						// Somebody else might have extracted them while we
+						// were waiting for the lock.
+						Map<String, String> unchanged = new HashMap<String, String>();
+						if (!verify(nativesDirectory, unchanged)) {
+							extractAll(executor, jars, nativesDirectory, unchanged);
+						}
+					} finally {
+						lock.release();
+					}
+				}
+			} finally {
+				lockFile.close();
+			}
+		} finally {
+			executor.shutdownNow();
+		}
+		
+		verifier.save();
+		return nativesDirectory;
+	}
+	
+	/**
+	 * Computes the key of the given jars, which is the hash of their hashes.
+	 * 
+	 * @param jars the jars.
+	 * @return the key.
+	 * @throws IOException if hashing any jar failed.
+	 */
+	private String createKey(List<File> jars) throws IOException {
+		Map<File, String> hashes = verifier.hash(jars);
+		
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-1 is guaranteed to be available.");
+		}
+		
+		for (File jar : jars) {
+			update(digest, hashes.get(jar));
+			update(digest, "\n");
+		}
+		
+		return BlendManifest.toHex(digest.digest());
+	}
+	
+	/**
+	 * Extracts the natives into the given directory, replacing everything
+	 * that is in there except the unchanged libraries.
+	 * 
+	 * @param executor the {@link ExecutorService} to extract the natives with.
+	 * @param jars the jars.
+	 * @param nativesDirectory the directory.
+	 * @param unchanged the lines of the listing of the libraries which still
+	 *            match it, by their name. These are not extracted again.
+	 * @throws IOException if extracting failed.
+	 */
+	private void extractAll(ExecutorService executor, List<File> jars, final File nativesDirectory, Map<String, String> unchanged) throws IOException {
+		File listingFile = new File(nativesDirectory, LISTING);
+		listingFile.delete();
+		if (!nativesDirectory.isDirectory() && !nativesDirectory.mkdirs()) {
+			throw new IOException("Failed to create " + nativesDirectory + ".");
+		}
+		
+		List<ZipFile> zipFiles = new ArrayList<ZipFile>(jars.size());
+		try {
+			// The last jar wins, but the order of the entries stays.
+			Map<String, Integer> owners = new LinkedHashMap<String, Integer>();
+			for (File jar : jars) {
+				ZipFile zipFile = new ZipFile(jar);
+				zipFiles.add(zipFile);
+				
+				Enumeration<? extends ZipEntry> entries = zipFile.entries();
+				while (entries.hasMoreElements()) {
+					ZipEntry entry = entries.nextElement();
+					if (!entry.isDirectory() && !entry.getName().startsWith("META-INF/")) {
+						checkName(entry.getName());
+						owners.put(entry.getName(), Integer.valueOf(zipFiles.size() - 1));
+					}
+				}
+			}
+			
+			// The directory is named after the jars, so the entries are the
+			// same ones which have been listed before.
+			List<Future<String>> results = new ArrayList<Future<String>>(owners.size());
+			for (Map.Entry<String, Integer> owner : owners.entrySet()) {
+				if (unchanged.containsKey(owner.getKey())) {
+					results.add(null);
+				} else {
+					final ZipFile zipFile = zipFiles.get(owner.getValue().intValue());
+					final ZipEntry entry = zipFile.getEntry(owner.getKey());
+					results.add(executor.submit(new Callable<String>() {
+						public String call() throws IOException {
+							return extract(zipFile, entry, nativesDirectory, verifier);
+						}
+					}));
+				}
+			}
+			
+			List<String> listing = new ArrayList<String>(results.size());
+			int idx = 0;
+			for (String name : owners.keySet()) {
+				Future<String> result = results.get(idx++);
+				if (result != null) {
+					listing.add(get(result));
+				} else {
+					listing.add(unchanged.get(name));
+				}
+			}
+			
+			writeListing(listingFile, listing);
+		} finally {
+			for (ZipFile zipFile : zipFiles) {
+				zipFile.close();
+			}
+		}
+	}
+	
+	/**
+	 * Checks the given listing against the given directory.
+	 * 
+	 * @param nativesDirectory the directory.
+	 * @param unchanged the map which receives the lines of the listing of the
+	 *            libraries which still match it, by their name. Can be
+	 *            {@code null}.
+	 * @return {@code true} if the listing exists and all libraries match it.
+	 * @throws IOException if verifying failed.
+	 */
+	private boolean verify(File nativesDirectory, Map<String, String> unchanged) throws IOException {
+		File listingFile = new File(nativesDirectory, LISTING);
+		if (!listingFile.isFile()) {
+			return false;
+		}
+		
+		List<File> files = new ArrayList<File>();
+		List<String> expectedHashes = new ArrayList<String>();
+		List<String> lines = new ArrayList<String>();
+		boolean valid = true;
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(listingFile), "UTF-8"));
+		try {
+			String line = null;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(" ", 3);
+				if (parts.length != 3) {
+					return false;
+				}
+				
+				File file = new File(nativesDirectory, parts[2]);
+				if (file.isFile() && Long.toString(file.length()).equals(parts[1])) {
+					files.add(file);
+					expectedHashes.add(parts[0]);
+					lines.add(line);
+				} else if (unchanged != null) {
+					valid = false;
+				} else {
+					return false;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+		
+		Map<File, String> hashes = verifier.hash(files);
+		for (int idx = 0; idx < files.size(); idx++) {
+			File file = files.get(idx);
+			if (hashes.get(file).equals(expectedHashes.get(idx))) {
+				if (unchanged != null) {
+					unchanged.put(lines.get(idx).split(" ", 3)[2], lines.get(idx));
+				}
+			} else {
+				valid = false;
+			}
+		}
+		
+		return valid;
+	}
+	
+	/**
+	 * Makes sure that the given name of an entry stays inside of the
+	 * directory it is extracted to.
+	 * 
+	 * @param name the name of the entry.
+	 * @throws ZipException if the name points outside of the directory.
+	 */
+	private static void checkName(String name) throws ZipException {
+		if (name.startsWith("/") || name.startsWith("\\") || name.indexOf(':') >= 0) {
+			throw new ZipException("Invalid entry: " + name);
+		}
+		
+		for (String segment : name.split("[/\\\\]")) {
+			if (segment.equals("..")) {
+				throw new ZipException("Invalid entry: " + name);
+			}
+		}
+	}
+	
+	/**
+	 * Extracts the given entry under a temporary name and then moves it over
+	 * the library, if there is one.
+	 * 
+	 * @param zipFile the jar.
+	 * @param entry the entry.
+	 * @param nativesDirectory the directory to extract it into.
+	 * @param verifier the {@link FileVerifier} which is told the hash.
+	 * @return the line of the entry in the listing.
+	 * @throws IOException if extracting failed.
+	 */
+	private static String extract(ZipFile zipFile, ZipEntry entry, File nativesDirectory, FileVerifier verifier) throws IOException {
+		File file = new File(nativesDirectory, entry.getName());
+		File parent = file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+			throw new IOException("Failed to create " + parent + ".");
+		}
+		
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1");
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError("SHA-1 is guaranteed to be available.");
+		}
+		long size = 0;
+		
+		// The prefix of a temporary file needs at least three characters.
+		File temporaryFile = File.createTempFile(file.getName() + ".tmp", null, parent);
+		try {
+			InputStream input = zipFile.getInputStream(entry);
+			try {
+				OutputStream output = new FileOutputStream(temporaryFile);
+				try {
+					byte[] buffer = new byte[65536];
+					int read = 0;
+					while ((read = input.read(buffer)) >= 0) {
+						digest.update(buffer, 0, read);
+						output.write(buffer, 0, read);
+						size += read;
+					}
+				} finally {
+					output.close();
+				}
+			} finally {
+				input.close();
+			}
+			
+			// Not every platform can rename over an existing file.
+			if (!temporaryFile.renameTo(file) && !(file.delete() && temporaryFile.renameTo(file))) {
+				throw new IOException("Failed to move " + temporaryFile + " to " + file + ".");
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+		
+		String hash = BlendManifest.toHex(digest.digest());
+		verifier.put(file, hash);
+		
+		return hash + " " + size + " " + entry.getName();
+	}
+	
+	private static <T> T get(Future<T> future) throws IOException {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while extracting the natives.");
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw (IOException) cause;
+			} else if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			} else if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new IOException("Extracting the natives failed: " + cause);
+		}
+	}
+	
+	private static void update(MessageDigest digest, String value) throws UnsupportedEncodingException {
+		digest.update(value.getBytes("UTF-8"));
+	}
+	
+	/**
+	 * Writes the listing under a temporary name first, so that it only
+	 * appears once all libraries have been extracted.
+	 * 
+	 * @param listingFile the file of the listing.
+	 * @param listing the lines of the listing.
+	 * @throws IOException if writing failed.
+	 */
+	private static void writeListing(File listingFile, List<String> listing) throws IOException {
+		File temporaryFile = File.createTempFile(LISTING, ".tmp", listingFile.getParentFile());
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), "UTF-8");
+			try {
+				for (String line : listing) {
+					writer.write(line);
+					writer.write('\n');
+				}
+			} finally {
+				writer.close();
+			}
+			
+			if (!temporaryFile.renameTo(listingFile)) {
+				throw new IOException("Failed to move " + temporaryFile + " to " + listingFile + ".");
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+	}
+}
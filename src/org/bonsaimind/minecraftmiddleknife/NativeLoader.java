@@ -28,13 +28,27 @@
 package org.bonsaimind.minecraftmiddleknife;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * A simple static helper that allows you to load the native libraries which are
  * needed for LWJGL and possibly others.
+ * <p/>
+ * Usage example:
+ * 
+ * <pre>
+ * String nativesDir = NativeLoader.extractNativeLibraries(&quot;/path/to/natives-cache/&quot;,
+ * 		&quot;/path/to/lwjgl-platform-natives-linux.jar&quot;,
+ * 		&quot;/path/to/jinput-platform-natives-linux.jar&quot;);
+ * NativeLoader.loadNativeLibraries(nativesDir);
+ * </pre>
  */
 public final class NativeLoader {
 	
+	private static final String HASHES = ".hashes";
+	
 	/**
 	 * Not supposed to be instantiated.
 	 */
@@ -42,6 +56,57 @@ public final class NativeLoader {
 		throw new AssertionError();
 	}
 	
+	/**
+	 * Extracts the native libraries from the given jars into a shared cache.
+	 * <p/>
+	 * The natives are extracted into a directory of the cache which is named
+	 * after the hash of the contents of the jars, everything but
+	 * {@code META-INF} is extracted. If they have already been extracted and
+	 * still match what has been extracted, nothing is done. The cache can be
+	 * shared by multiple launchers, which then wait for each other instead of
+	 * extracting the same natives at the same time.
+	 * 
+	 * @param cacheDir the directory of the cache.
+	 * @param jars the jars with the natives. If multiple jars contain the same
+	 *            file, the last one wins.
+	 * @return the directory with the natives, which can be passed to
+	 *         {@link #loadNativeLibraries(String)}.
+	 * @throws IOException if extracting the natives failed.
+	 */
+	public static String extractNativeLibraries(String cacheDir, String... jars) throws IOException {
+		return extractNativeLibraries(cacheDir, false, jars);
+	}
+	
+	/**
+	 * Extracts the native libraries from the given jars into a shared cache.
+	 * <p/>
+	 * The hashes of the jars and of the extracted natives are remembered in
+	 * the cache, and only files which have changed since are read again. With
+	 * a full verification all of them are read again.
+	 * 
+	 * @param cacheDir the directory of the cache.
+	 * @param fullVerification if all jars and natives should be read again
+	 *            instead of trusting the remembered hashes.
+	 * @param jars the jars with the natives. If multiple jars contain the same
+	 *            file, the last one wins.
+	 * @return the directory with the natives, which can be passed to
+	 *         {@link #loadNativeLibraries(String)}.
+	 * @throws IOException if extracting the natives failed.
+	 * @see #extractNativeLibraries(String, String...)
+	 */
+	public static String extractNativeLibraries(String cacheDir, boolean fullVerification, String... jars) throws IOException {
+		FileVerifier verifier = new FileVerifier(new File(cacheDir, HASHES).getPath());
+		verifier.setFull(fullVerification);
+		
+		List<File> jarFiles = new ArrayList<File>(jars.length);
+		for (String jar : jars) {
+			jarFiles.add(new File(jar));
+		}
+		
+		NativeCache cache = new NativeCache(new File(cacheDir), Runtime.getRuntime().availableProcessors(), verifier);
+		return cache.extract(jarFiles).getPath();
+	}
+	
 	/**
 	 * Loads the native libraries from the given directory.
 	 * <p/>
@@ -30,11 +30,17 @@ package org.bonsaimind.minecraftmiddleknife;
 import java.io.BufferedReader;
 import java.io.BufferedWriter;
 import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Reads, parses, manipulates and saves the {@code .minecraft/options.txt}-file.
@@ -42,6 +48,18 @@ import java.util.List;
  * The important thing to note about the {@code options.txt} is that the options
  * need to be in the correct order. This class will preserve the order of the
  * file that is read. New options are appended to the end.
+ * <p/>
+ * The keys and values are kept in arrays in the order of the file, with an
+ * open addressing hash index over the keys, so every lookup takes constant
+ * time no matter how many options there are.
+ * <p/>
+ * Changed options are tracked, and writing to the same file which has been
+ * read or written last is skipped if nothing has changed. Otherwise the file
+ * is written under a temporary name first, synced to the disk and then moved
+ * into place, so a crash or power loss while writing never leaves a half
+ * written file behind. On Windows, where the old file has to be deleted
+ * before the new one can be moved into place, a crash at exactly that moment
+ * can leave no file at all.
  */
 public final class OptionsFile {
 	
@@ -50,8 +68,23 @@ public final class OptionsFile {
 	 */
 	public static final String FILENAME = "options.txt";
 	
-	private List<String> keys = new ArrayList<String>();
-	private List<String> values = new ArrayList<String>();
+	private static final int INITIAL_CAPACITY = 256;
+	private static final byte SEPARATOR = (byte) Option.KEY_VALUE_SEPARATOR.charAt(0);
+	
+	private boolean[] dirty = new boolean[INITIAL_CAPACITY];
+	private int dirtyCount = 0;
+	
+	/**
+	 * The position of every key in {@link #keys} plus one, {@code 0} marks an
+	 * empty slot. Always at most half full.
+	 */
+	private int[] index = new int[INITIAL_CAPACITY * 2];
+	private String[] keys = new String[INITIAL_CAPACITY];
+	private int size = 0;
+	private String[] values = new String[INITIAL_CAPACITY];
+	private File writtenFile = null;
+	private long writtenLastModified = 0;
+	private long writtenLength = 0;
 	
 	/**
 	 * Creates a new instance of {@link OptionsFile}.
@@ -67,13 +100,35 @@ public final class OptionsFile {
 	 * @return the value to the given key. {@code null} if there is no such key.
 	 */
 	public String getOption(String key) {
-		if (keys.contains(key)) {
-			return values.get(keys.indexOf(key));
+		int position = indexOf(key);
+		if (position >= 0) {
+			return values[position];
 		}
 		
 		return null;
 	}
 	
+	/**
+	 * If any option has been changed since the file has been read or written.
+	 * 
+	 * @return {@code true} if any option has been changed.
+	 */
+	public boolean isDirty() {
+		return dirtyCount > 0;
+	}
+	
+	/**
+	 * If the given option has been changed since the file has been read or
+	 * written.
+	 * 
+	 * @param key the key of the option.
+	 * @return {@code true} if the option has been changed.
+	 */
+	public boolean isDirty(String key) {
+		int position = indexOf(key);
+		return position >= 0 && dirty[position];
+	}
+	
 	/**
 	 * Reads the contents of the given file.
 	 * 
@@ -83,25 +138,7 @@ public final class OptionsFile {
 	 * @see {@link OptionsFile#FILENAME}
 	 */
 	public void read(String fileOrPath) throws IOException {
-		File file = makeFile(fileOrPath);
-		
-		keys.clear();
-		values.clear();
-		
-		BufferedReader reader = new BufferedReader(new FileReader(file));
-		
-		String line;
-		while ((line = reader.readLine()) != null) {
-			String[] keyValue = line.split(Option.KEY_VALUE_SEPARATOR);
-			keys.add(keyValue[0]);
-			if (keyValue.length > 1) {
-				values.add(keyValue[1]);
-			} else {
-				values.add("");
-			}
-		}
-		
-		reader.close();
+		read(makeFile(fileOrPath), null);
 	}
 	
 	/**
@@ -112,8 +149,15 @@ public final class OptionsFile {
 	 * @return
 	 */
 	public boolean setOption(String key, String value) {
-		if (keys.indexOf(key) >= 0) {
-			values.set(keys.indexOf(key), value);
+		int position = indexOf(key);
+		if (position >= 0) {
+			if (value == null ? values[position] != null : !value.equals(values[position])) {
+				values[position] = value;
+				if (!dirty[position]) {
+					dirty[position] = true;
+					dirtyCount++;
+				}
+			}
 			return true;
 		}
 		
@@ -141,18 +185,291 @@ public final class OptionsFile {
 	
 	/**
 	 * Writes all current options to the given file.
+	 * <p/>
+	 * If it is the file which has been read or written last, nothing has
+	 * changed since and the file has not been touched by anybody else, nothing
+	 * is written at all.
+	 * 
+	 * @param fileOrPath the path to the file or the containing directory. If
+	 *            only a directory is provided, the default filename is used.
+	 * @throws IOException if writing the file failed.
 	 */
 	public void write(String fileOrPath) throws IOException {
 		File file = makeFile(fileOrPath);
 		
-		BufferedWriter writer = new BufferedWriter(new FileWriter(file));
+		if (dirtyCount == 0
+				&& file.equals(writtenFile)
+				&& file.length() == writtenLength
+				&& file.lastModified() == writtenLastModified) {
+			return;
+		}
+		
+		// Written under a temporary name first, so that a crash never leaves a
+		// half written file behind. It has to be on the disk before it is
+		// renamed, otherwise the rename might be and the contents not. The
+		// prefix of a temporary file needs at least three characters.
+		File temporaryFile = File.createTempFile(file.getName() + ".tmp", null, file.getParentFile());
+		try {
+			FileOutputStream output = new FileOutputStream(temporaryFile);
+			try {
+				BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(output));
+				for (int idx = 0; idx < size; idx++) {
+					writer.write(keys[idx]);
+					writer.write(Option.KEY_VALUE_SEPARATOR);
+					writer.write(String.valueOf(values[idx]));
+					writer.newLine();
+				}
+				writer.flush();
+				output.getFD().sync();
+			} finally {
+				output.close();
+			}
+			
+			if (!temporaryFile.renameTo(file)) {
+				// Windows does not replace existing files.
+				if (!file.delete() || !temporaryFile.renameTo(file)) {
+					throw new IOException("Failed to replace " + file + ".");
+				}
+			}
+		} finally {
+			temporaryFile.delete();
+		}
+		
+		Arrays.fill(dirty, 0, size, false);
+		dirtyCount = 0;
+		setWritten(file);
+	}
+	
+	/**
+	 * Compares this file with the given one.
+	 * 
+	 * @param previous the file to compare with.
+	 * @return the options which have been added or changed with their new
+	 *         value, and the ones which have been removed with {@code null}.
+	 */
+	Map<String, String> diff(OptionsFile previous) {
+		Map<String, String> changes = new LinkedHashMap<String, String>();
 		
-		for (int idx = 0; idx < keys.size(); idx++) {
-			writer.write(keys.get(idx) + Option.KEY_VALUE_SEPARATOR + values.get(idx));
-			writer.newLine();
+		for (int position = 0; position < size; position++) {
+			// Duplicated keys are only compared by their first occurrence.
+			if (indexOf(keys[position]) == position) {
+				int previousPosition = previous.indexOf(keys[position]);
+				if (previousPosition < 0 || !previous.values[previousPosition].equals(values[position])) {
+					changes.put(keys[position], values[position]);
+				}
+			}
+		}
+		for (int position = 0; position < previous.size; position++) {
+			if (indexOf(previous.keys[position]) < 0) {
+				changes.put(previous.keys[position], null);
+			}
 		}
 		
-		writer.close();
+		return changes;
+	}
+	
+	/**
+	 * Reads the contents of the given file, into the given buffer if it is
+	 * large enough, so that it can be reused for many files.
+	 * 
+	 * @param file the file.
+	 * @param buffer the buffer, {@code null} for none.
+	 * @return the buffer which has been used, either the given one or a
+	 *         larger one.
+	 * @throws IOException if reading from the given file failed.
+	 */
+	ByteBuffer read(File file, ByteBuffer buffer) throws IOException {
+		clear();
+		
+		ByteBuffer usedBuffer = buffer;
+		FileInputStream input = new FileInputStream(file);
+		try {
+			FileChannel channel = input.getChannel();
+			int size = (int) channel.size();
+			if (usedBuffer == null || usedBuffer.capacity() < size) {
+				usedBuffer = ByteBuffer.allocate(size);
+			}
+			
+			usedBuffer.clear();
+			usedBuffer.limit(size);
+			while (usedBuffer.hasRemaining() && channel.read(usedBuffer) >= 0) {
+				// Read until the buffer is full or the file ends.
+			}
+			
+			parse(usedBuffer.array(), usedBuffer.position());
+		} finally {
+			input.close();
+		}
+		
+		setWritten(file);
+		return usedBuffer;
+	}
+	
+	/**
+	 * Copies all options into a {@link Map}, in the order of the file.
+	 * 
+	 * @return the options, of duplicated keys only the first one.
+	 */
+	Map<String, String> toMap() {
+		Map<String, String> options = new LinkedHashMap<String, String>();
+		for (int position = 0; position < size; position++) {
+			if (!options.containsKey(keys[position])) {
+				options.put(keys[position], values[position]);
+			}
+		}
+		return options;
+	}
+	
+	/**
+	 * Appends the given option. If the key is already there, the first one
+	 * stays the one that is found, the new one is only kept so that it is
+	 * written again.
+	 * 
+	 * @param key the key.
+	 * @param value the value.
+	 */
+	private void add(String key, String value) {
+		if (size == keys.length) {
+			String[] newKeys = new String[keys.length * 2];
+			String[] newValues = new String[values.length * 2];
+			boolean[] newDirty = new boolean[dirty.length * 2];
+			System.arraycopy(keys, 0, newKeys, 0, size);
+			System.arraycopy(values, 0, newValues, 0, size);
+			System.arraycopy(dirty, 0, newDirty, 0, size);
+			keys = newKeys;
+			values = newValues;
+			dirty = newDirty;
+			
+			rehash(keys.length * 2);
+		}
+		
+		keys[size] = key;
+		values[size] = value;
+		size++;
+		
+		int mask = index.length - 1;
+		for (int slot = hash(key) & mask;; slot = (slot + 1) & mask) {
+			if (index[slot] == 0) {
+				index[slot] = size;
+				return;
+			}
+			if (keys[index[slot] - 1].equals(key)) {
+				return;
+			}
+		}
+	}
+	
+	private void addLine(byte[] data, int start, int separator, int end, String charset) throws UnsupportedEncodingException {
+		if (separator < 0) {
+			add(new String(data, start, end - start, charset), "");
+		} else {
+			add(new String(data, start, separator - start, charset), new String(data, separator + 1, end - separator - 1, charset));
+		}
+	}
+	
+	private void clear() {
+		if (size > 0) {
+			Arrays.fill(index, 0);
+			Arrays.fill(keys, 0, size, null);
+			Arrays.fill(values, 0, size, null);
+			Arrays.fill(dirty, 0, size, false);
+			size = 0;
+		}
+		dirtyCount = 0;
+	}
+	
+	/**
+	 * Finds the given key.
+	 * 
+	 * @param key the key.
+	 * @return the position of the first option with the key, {@code -1} if
+	 *         there is none.
+	 */
+	private int indexOf(String key) {
+		if (key == null) {
+			return -1;
+		}
+		
+		int mask = index.length - 1;
+		for (int slot = hash(key) & mask; index[slot] != 0; slot = (slot + 1) & mask) {
+			if (keys[index[slot] - 1].equals(key)) {
+				return index[slot] - 1;
+			}
+		}
+		
+		return -1;
+	}
+	
+	/**
+	 * Parses the given contents of a file, line by line. Every line is split
+	 * at the first colon, so values can contain colons themselves. Lines end
+	 * with a line feed, a carriage return or both, like with
+	 * {@link BufferedReader#readLine()}.
+	 * <p/>
+	 * Only the bytes are searched for the boundaries, which works because
+	 * line feed, carriage return and colon are the same in every encoding
+	 * which is compatible with ASCII. Only the keys and values are decoded.
+	 * 
+	 * @param data the contents of the file.
+	 * @param length the length of the contents.
+	 */
+	private void parse(byte[] data, int length) throws UnsupportedEncodingException {
+		String charset = Charset.defaultCharset().name();
+		
+		int lineStart = 0;
+		int separator = -1;
+		for (int position = 0; position < length; position++) {
+			byte current = data[position];
+			if (current == SEPARATOR && separator < 0) {
+				separator = position;
+			} else if (current == '\n' || current == '\r') {
+				addLine(data, lineStart, separator, position, charset);
+				
+				if (current == '\r' && position + 1 < length && data[position + 1] == '\n') {
+					position++;
+				}
+				lineStart = position + 1;
+				separator = -1;
+			}
+		}
+		
+		if (lineStart < length) {
+			addLine(data, lineStart, separator, length, charset);
+		}
+	}
+	
+	/**
+	 * Rebuilds the index with the given capacity.
+	 * 
+	 * @param capacity the number of slots, must be a power of two.
+	 */
+	private void rehash(int capacity) {
+		index = new int[capacity];
+		
+		int mask = capacity - 1;
+		for (int position = 0; position < size; position++) {
+			for (int slot = hash(keys[position]) & mask;; slot = (slot + 1) & mask) {
+				if (index[slot] == 0) {
+					index[slot] = position + 1;
+					break;
+				}
+				if (keys[index[slot] - 1].equals(keys[position])) {
+					break;
+				}
+			}
+		}
+	}
+	
+	private void setWritten(File file) {
+		writtenFile = file;
+		writtenLength = file.length();
+		writtenLastModified = file.lastModified();
+	}
+	
+	private static int hash(String key) {
+		// Spreads the higher bits, as only the lower ones are used.
+		int hash = key.hashCode();
+		return hash ^ (hash >>> 16);
 	}
 	
 	/**
@@ -162,7 +479,7 @@ public final class OptionsFile {
 	 * @param fileOrPath
 	 * @return
 	 */
-	private static File makeFile(String pathOrFile) {
+	static File makeFile(String pathOrFile) {
 		File file = new File(pathOrFile);
 		if (file.isDirectory()) {
 			file = new File(file.getAbsolutePath(), FILENAME);
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Applies the same options to many {@code options.txt}-files, multiple files
+ * at the same time.
+ * <p/>
+ * Every file is read, patched and written like with
+ * {@link OptionsFile#setOptions(Iterable)}, so only options which already
+ * exist are changed, and files in which nothing changes are not written. The
+ * number of threads bounds how many files are read or written at the same
+ * time, every thread reuses its {@link OptionsFile} and read buffer for all
+ * of its files.
+ * 
+ * <pre>
+ * OptionsFileBatch batch = new OptionsFileBatch(Arrays.asList(&quot;fboEnable:true&quot;, &quot;renderDistance:8&quot;));
+ * batch.setThreads(8);
+ * for (OptionsFileBatch.Result result : batch.apply(instanceDirectories)) {
+ * 	if (result.getException() != null) {
+ * 		System.err.println(result);
+ * 	}
+ * }
+ * </pre>
+ */
+public final class OptionsFileBatch {
+	
+	private final List<String> keys = new ArrayList<String>();
+	private int threads = 4;
+	private final List<String> values = new ArrayList<String>();
+	
+	/**
+	 * Creates a new instance of {@link OptionsFileBatch}.
+	 * 
+	 * @param options the options to apply, every one looks like
+	 *            {@code key:value}.
+	 */
+	public OptionsFileBatch(Iterable<String> options) {
+		for (String option : options) {
+			int splitIdx = option.indexOf(Option.KEY_VALUE_SEPARATOR);
+			if (splitIdx > 0) { // We don't want not-named options.
+				keys.add(option.substring(0, splitIdx));
+				values.add(option.substring(splitIdx + 1));
+			}
+		}
+	}
+	
+	/**
+	 * Applies the options to all given files.
+	 * 
+	 * @param filesOrPaths the paths to the files or the containing
+	 *            directories. If only a directory is provided, the default
+	 *            filename is used.
+	 * @return the {@link Result} of every file, in the same order.
+	 * @throws InterruptedException if the current thread has been interrupted
+	 *             while waiting for the files.
+	 * @see OptionsFile#FILENAME
+	 */
+	public List<Result> apply(final List<String> filesOrPaths) throws InterruptedException {
+		final Result[] results = new Result[filesOrPaths.size()];
+		final AtomicInteger next = new AtomicInteger();
+		
+		int threadCount = Math.max(1, Math.min(threads, filesOrPaths.size()));
+		final CountDownLatch finished = new CountDownLatch(threadCount);
+		
+		ThreadFactory threadFactory = new DaemonThreadFactory("OptionsFileBatch-");
+		for (int threadIdx = 0; threadIdx < threadCount; threadIdx++) {
+			threadFactory.newThread(new Runnable() {
+				public void run() {
+					try {
+						OptionsFile optionsFile = new OptionsFile();
+						ByteBuffer buffer = null;
+						
+						for (int idx = next.getAndIncrement(); idx < results.length; idx = next.getAndIncrement()) {
+							File file = OptionsFile.makeFile(filesOrPaths.get(idx));
+							long start = System.nanoTime();
+							try {
+								buffer = optionsFile.read(file, buffer);
+								for (int optionIdx = 0; optionIdx < keys.size(); optionIdx++) {
+									optionsFile.setOption(keys.get(optionIdx), values.get(optionIdx));
+								}
+								
+								boolean changed = optionsFile.isDirty();
+								optionsFile.write(file.getPath());
+								
+								results[idx] = new Result(file, changed, System.nanoTime() - start, null);
+							} catch (IOException e) {
+								results[idx] = new Result(file, false, System.nanoTime() - start, e);
+							}
+						}
+					} finally {
+						finished.countDown();
+					}
+				}
+			}).start();
+		}
+		
+		try {
+			finished.await();
+		} catch (InterruptedException e) {
+			// Stop handing out files, the ones in progress are still finished.
+			next.set(results.length);
+			throw e;
+		}
+		
+		return Collections.unmodifiableList(Arrays.asList(results));
+	}
+	
+	/**
+	 * Gets the number of files which are processed at the same time.
+	 * 
+	 * @return the number of threads.
+	 */
+	public int getThreads() {
+		return threads;
+	}
+	
+	/**
+	 * Sets the number of files which are processed at the same time. On a
+	 * single local disk a handful is enough, on network storage more can
+	 * help.
+	 * 
+	 * @param threads the number of threads.
+	 * @throws IllegalArgumentException if threads is not positive.
+	 */
+	public void setThreads(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("threads is not positive.");
+		}
+		
+		this.threads = threads;
+	}
+	
+	/**
+	 * The result of a single file.
+	 */
+	public static final class Result {
+		
+		private final boolean changed;
+		private final IOException exception;
+		private final File file;
+		private final long time;
+		
+		Result(File file, boolean changed, long time, IOException exception) {
+			this.file = file;
+			this.changed = changed;
+			this.time = time;
+			this.exception = exception;
+		}
+		
+		/**
+		 * Gets the exception with which reading or writing the file failed.
+		 * 
+		 * @return the exception, {@code null} if it did not fail.
+		 */
+		public IOException getException() {
+			return exception;
+		}
+		
+		/**
+		 * Gets the path of the file.
+		 * 
+		 * @return the path of the file.
+		 */
+		public String getPath() {
+			return file.getPath();
+		}
+		
+		/**
+		 * Gets the time it took to read, patch and write the file.
+		 * 
+		 * @return the time in microseconds.
+		 */
+		public long getTime() {
+			return TimeUnit.NANOSECONDS.toMicros(time);
+		}
+		
+		/**
+		 * If any option has changed, and so the file has been written.
+		 * 
+		 * @return {@code true} if the file has been written.
+		 */
+		public boolean isChanged() {
+			return changed;
+		}
+		
+		@Override
+		public String toString() {
+			if (exception != null) {
+				return file + ": failed after " + getTime() + "us: " + exception.getMessage();
+			} else if (changed) {
+				return file + ": written in " + getTime() + "us";
+			} else {
+				return file + ": unchanged in " + getTime() + "us";
+			}
+		}
+	}
+}
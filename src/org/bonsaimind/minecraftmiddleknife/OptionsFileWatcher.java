@@ -0,0 +1,429 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches many {@code options.txt}-files with a single thread and tells its
+ * listeners which options have changed.
+ * <p/>
+ * Since Java 7 the directories of the files are watched through a
+ * {@code java.nio.file.WatchService}, so a file is only looked at when
+ * something in its directory has changed. On Java 6, or for directories
+ * which can not be watched, the size and modification time of the files are
+ * looked at every interval instead, which is still a lot cheaper than reading
+ * them. Either way a file is only parsed again if its size or modification
+ * time has changed, and the listeners are only called if any option has
+ * actually changed.
+ * 
+ * <pre>
+ * OptionsFileWatcher watcher = new OptionsFileWatcher(1000);
+ * watcher.addListener(new OptionsFileWatcher.Listener() {
+ * 	public void optionsChanged(String path, Map&lt;String, String&gt; changes) {
+ * 		System.out.println(path + &quot;: &quot; + changes);
+ * 	}
+ * });
+ * for (String instanceDirectory : instanceDirectories) {
+ * 	watcher.watch(instanceDirectory);
+ * }
+ * watcher.start();
+ * </pre>
+ */
+public final class OptionsFileWatcher {
+	
+	private final long interval;
+	private final List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	private volatile Thread thread = null;
+	private final Map<File, Watched> watched = new ConcurrentHashMap<File, Watched>();
+	private DirectoryWatchService watchService = null;
+	
+	/**
+	 * Creates a new instance of {@link OptionsFileWatcher}.
+	 * 
+	 * @param interval the time between two checks of files which are not
+	 *            watched through a {@code WatchService}, in milliseconds.
+	 * @throws IllegalArgumentException if interval is not positive.
+	 */
+	public OptionsFileWatcher(long interval) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("interval is not positive.");
+		}
+		
+		this.interval = interval;
+	}
+	
+	/**
+	 * Adds the given listener.
+	 * 
+	 * @param listener the listener.
+	 */
+	public void addListener(Listener listener) {
+		listeners.add(listener);
+	}
+	
+	/**
+	 * Gets the last read options of the given file.
+	 * 
+	 * @param fileOrPath the path to the file or the containing directory.
+	 * @return the options in the order of the file, {@code null} if the file
+	 *         is not watched.
+	 */
+	public Map<String, String> getOptions(String fileOrPath) {
+		Watched file = watched.get(OptionsFile.makeFile(fileOrPath));
+		if (file == null) {
+			return null;
+		}
+		return file.getOptions();
+	}
+	
+	/**
+	 * If the watching thread is running.
+	 * 
+	 * @return {@code true} if it is running.
+	 */
+	public boolean isRunning() {
+		return thread != null;
+	}
+	
+	/**
+	 * Checks all watched files once and calls the listeners for every file in
+	 * which options have changed. The watching thread does this on its own,
+	 * it can also be called directly without starting it.
+	 */
+	public synchronized void poll() {
+		for (Watched file : watched.values()) {
+			check(file);
+		}
+	}
+	
+	/**
+	 * Removes the given listener.
+	 * 
+	 * @param listener the listener.
+	 */
+	public void removeListener(Listener listener) {
+		listeners.remove(listener);
+	}
+	
+	/**
+	 * Starts the watching thread, if it is not already running. The thread is
+	 * a daemon and does not keep the JVM running. Files which have changed
+	 * while it was not running are reported right away.
+	 */
+	public synchronized void start() {
+		if (thread != null) {
+			return;
+		}
+		
+		watchService = DirectoryWatchService.open();
+		if (watchService != null) {
+			for (Watched file : watched.values()) {
+				register(file);
+			}
+		}
+		
+		final DirectoryWatchService currentWatchService = watchService;
+		thread = new DaemonThreadFactory("OptionsFileWatcher-").newThread(new Runnable() {
+			public void run() {
+				try {
+					if (currentWatchService != null) {
+						// Only changes after the registration are told.
+						poll();
+						watch(currentWatchService);
+					} else {
+						while (thread == Thread.currentThread()) {
+							poll();
+							Thread.sleep(interval);
+						}
+					}
+				} catch (InterruptedException e) {
+					// Stopped.
+				} catch (IOException e) {
+					// The WatchService has been closed, stopped.
+				} finally {
+					stopped(Thread.currentThread());
+				}
+			}
+		});
+		thread.start();
+	}
+	
+	/**
+	 * Stops the watching thread. A check which is already running is still
+	 * finished.
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			stopped(thread);
+		}
+	}
+	
+	/**
+	 * Stops watching the given file.
+	 * 
+	 * @param fileOrPath the path to the file or the containing directory.
+	 */
+	public synchronized void unwatch(String fileOrPath) {
+		Watched file = watched.remove(OptionsFile.makeFile(fileOrPath));
+		if (file != null && watchService != null) {
+			File directory = file.file.getParentFile();
+			for (Watched otherFile : watched.values()) {
+				if (otherFile.file.getParentFile().equals(directory)) {
+					return;
+				}
+			}
+			watchService.unregister(directory);
+		}
+	}
+	
+	/**
+	 * Starts watching the given file. It is read right away, changes are
+	 * reported from then on.
+	 * 
+	 * @param fileOrPath the path to the file or the containing directory. If
+	 *            only a directory is provided, the default filename is used.
+	 * @throws IOException if reading the file failed.
+	 * @see OptionsFile#FILENAME
+	 */
+	public synchronized void watch(String fileOrPath) throws IOException {
+		File file = OptionsFile.makeFile(fileOrPath);
+		if (!watched.containsKey(file)) {
+			Watched newWatched = new Watched(file);
+			newWatched.read();
+			watched.put(file, newWatched);
+			
+			if (watchService != null) {
+				register(newWatched);
+			}
+		}
+	}
+	
+	/**
+	 * Checks the given file and calls the listeners if options have changed.
+	 * 
+	 * @param file the file.
+	 */
+	private void check(Watched file) {
+		Map<String, String> changes = file.check();
+		if (!changes.isEmpty()) {
+			changes = Collections.unmodifiableMap(changes);
+			for (Listener listener : listeners) {
+				try {
+					listener.optionsChanged(file.file.getPath(), changes);
+				} catch (RuntimeException e) {
+					// A broken listener must neither keep the others from
+					// being told nor stop the watching.
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Checks the files in the given directory.
+	 * 
+	 * @param directory the directory.
+	 */
+	private synchronized void check(File directory) {
+		for (Watched file : watched.values()) {
+			if (file.file.getParentFile().equals(directory)) {
+				check(file);
+			}
+		}
+	}
+	
+	/**
+	 * Checks the files which are not watched through the
+	 * {@link DirectoryWatchService}, and tries to watch the ones whose
+	 * directory is there (again).
+	 */
+	private synchronized void checkUnregistered() {
+		for (Watched file : watched.values()) {
+			if (!file.registered) {
+				if (watchService != null && file.file.getParentFile().isDirectory()) {
+					register(file);
+				}
+				check(file);
+			}
+		}
+	}
+	
+	/**
+	 * Marks the files in the given directory as not watched anymore, so that
+	 * they are looked at every interval.
+	 * 
+	 * @param directory the directory, which is gone.
+	 */
+	private synchronized void dropped(File directory) {
+		for (Watched file : watched.values()) {
+			if (file.file.getParentFile().equals(directory)) {
+				file.registered = false;
+			}
+		}
+	}
+	
+	private void register(Watched file) {
+		try {
+			watchService.register(file.file.getParentFile());
+			file.registered = true;
+		} catch (IOException e) {
+			// Then it is looked at every interval.
+			file.registered = false;
+		}
+	}
+	
+	private synchronized void stopped(Thread stoppedThread) {
+		if (thread == stoppedThread) {
+			thread = null;
+			if (watchService != null) {
+				watchService.close();
+				watchService = null;
+			}
+			for (Watched file : watched.values()) {
+				file.registered = false;
+			}
+		}
+	}
+	
+	private void watch(DirectoryWatchService currentWatchService) throws InterruptedException, IOException {
+		long nextCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+		while (thread == Thread.currentThread()) {
+			File directory = currentWatchService.take(interval);
+			if (directory != null) {
+				if (!currentWatchService.isWatched(directory)) {
+					dropped(directory);
+				}
+				check(directory);
+			}
+			
+			if (System.nanoTime() - nextCheck >= 0) {
+				checkUnregistered();
+				nextCheck = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(interval);
+			}
+		}
+	}
+	
+	/**
+	 * Is told about changed options.
+	 */
+	public interface Listener {
+		
+		/**
+		 * Called from the watching thread, or from {@link #poll()}, when
+		 * options of a watched file have changed.
+		 * 
+		 * @param path the path of the file.
+		 * @param changes the added and changed options with their new value,
+		 *            the removed ones with {@code null}.
+		 */
+		public void optionsChanged(String path, Map<String, String> changes);
+	}
+	
+	/**
+	 * A single watched file, with its last contents.
+	 */
+	private static final class Watched {
+		
+		private ByteBuffer buffer = null;
+		private OptionsFile current = new OptionsFile();
+		private final File file;
+		private long lastModified = 0;
+		private long length = 0;
+		private OptionsFile next = new OptionsFile();
+		private volatile boolean registered = false;
+		
+		public Watched(File file) {
+			this.file = file;
+		}
+		
+		/**
+		 * Reads the file again if it has been modified.
+		 * 
+		 * @return the changed options, empty if there are none.
+		 */
+		public Map<String, String> check() {
+			long newLength = file.length();
+			long newLastModified = file.lastModified();
+			
+			// A missing file keeps its last contents until it is back.
+			if (newLastModified == 0 || (newLength == length && newLastModified == lastModified)) {
+				return Collections.emptyMap();
+			}
+			
+			try {
+				read();
+			} catch (IOException e) {
+				// Tried again with the next check.
+				return Collections.emptyMap();
+			}
+			
+			return current.diff(next);
+		}
+		
+		/**
+		 * Gets a copy of the current options.
+		 * 
+		 * @return the options.
+		 */
+		public synchronized Map<String, String> getOptions() {
+			return Collections.unmodifiableMap(current.toMap());
+		}
+		
+		/**
+		 * Reads the file into the spare {@link OptionsFile} and swaps it with
+		 * the current one, so that the previous contents are still there to
+		 * compare with.
+		 * 
+		 * @throws IOException if reading the file failed.
+		 */
+		public void read() throws IOException {
+			long newLength = file.length();
+			long newLastModified = file.lastModified();
+			
+			buffer = next.read(file, buffer);
+			
+			synchronized (this) {
+				OptionsFile previous = current;
+				current = next;
+				next = previous;
+			}
+			
+			length = newLength;
+			lastModified = newLastModified;
+		}
+	}
+}
@@ -0,0 +1,530 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal reader for the central directory of a zip file.
+ * <p/>
+ * It does not inflate anything, it only knows where the (compressed) data of
+ * every entry is located, so that it can be copied around as it is. ZIP64
+ * archives are not supported, opening one fails with a {@link ZipException}.
+ * <p/>
+ * The central directory is read into a single buffer and the entries are only
+ * the offsets of their records in that buffer, addressed by their index. No
+ * object is created per entry, every field is read from the buffer when it is
+ * asked for. Nothing is memory mapped, so once this is closed the file can be
+ * deleted or replaced right away, even on Windows. All methods are safe to be
+ * used from multiple threads.
+ */
+final class ZipDirectory {
+	
+	static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+	static final int CENTRAL_HEADER_SIZE = 46;
+	static final int END_HEADER_SIGNATURE = 0x06054b50;
+	static final int END_HEADER_SIZE = 22;
+	static final int FLAG_DATA_DESCRIPTOR = 0x0008;
+	static final int FLAG_ENCRYPTED = 0x0001;
+	static final int FLAG_UTF8 = 0x0800;
+	static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+	static final int LOCAL_HEADER_SIZE = 30;
+	static final long ZIP64_MAGIC = 0xffffffffL;
+	
+	private final FileChannel channel;
+	private final ByteBuffer directory;
+	private final File file;
+	private final int[] offsets;
+	private final RandomAccessFile randomAccessFile;
+	
+	private ZipDirectory(File file, RandomAccessFile randomAccessFile) throws IOException {
+		this.file = file;
+		this.randomAccessFile = randomAccessFile;
+		this.channel = randomAccessFile.getChannel();
+		
+		try {
+			directory = readDirectory(file, channel);
+			offsets = readOffsets(file, directory);
+		} catch (IndexOutOfBoundsException e) {
+			throw new ZipException("Malformed central directory: " + file);
+		}
+	}
+	
+	/**
+	 * Opens the given zip file and reads its central directory.
+	 * 
+	 * @param file the zip file.
+	 * @return the {@link ZipDirectory}. Needs to be closed.
+	 * @throws ZipException if the file is not a zip file or is a ZIP64 archive.
+	 * @throws IOException if reading the file failed.
+	 */
+	public static ZipDirectory open(File file) throws IOException {
+		RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+		try {
+			return new ZipDirectory(file, randomAccessFile);
+		} catch (IOException e) {
+			randomAccessFile.close();
+			throw e;
+		}
+	}
+	
+	/**
+	 * Closes the underlying file.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		randomAccessFile.close();
+	}
+	
+	public FileChannel getChannel() {
+		return channel;
+	}
+	
+	public byte[] getComment(int index) {
+		int offset = offsets[index];
+		return getBytes(offset + CENTRAL_HEADER_SIZE + getShort(offset + 28) + getShort(offset + 30), getShort(offset + 32));
+	}
+	
+	public long getCompressedSize(int index) {
+		return getInt(offsets[index] + 20);
+	}
+	
+	public long getCrc(int index) {
+		return getInt(offsets[index] + 16);
+	}
+	
+	/**
+	 * Reads the local header of the given entry and returns the offset at
+	 * which the (compressed) data of the entry starts.
+	 * 
+	 * @param index the index of the entry.
+	 * @return the offset of the data in the file.
+	 * @throws IOException if reading failed or the local header is invalid.
+	 */
+	public long getDataOffset(int index) throws IOException {
+		long localHeaderOffset = getLocalHeaderOffset(index);
+		
+		ByteBuffer header = ByteBuffer.allocate(LOCAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, header, localHeaderOffset);
+		
+		if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+			throw new ZipException("Invalid local header for " + getName(index) + " in " + file);
+		}
+		
+		int nameLength = header.getShort(26) & 0xffff;
+		int extraLength = header.getShort(28) & 0xffff;
+		
+		return localHeaderOffset + LOCAL_HEADER_SIZE + nameLength + extraLength;
+	}
+	
+	/**
+	 * The modification time in the MS-DOS format, date in the upper and time
+	 * in the lower 16 bits.
+	 * 
+	 * @param index the index of the entry.
+	 * @return the modification time.
+	 */
+	public int getDosTime(int index) {
+		return directory.getInt(offsets[index] + 12);
+	}
+	
+	public int getExternalAttributes(int index) {
+		return directory.getInt(offsets[index] + 38);
+	}
+	
+	public byte[] getExtra(int index) {
+		int offset = offsets[index];
+		return getBytes(offset + CENTRAL_HEADER_SIZE + getShort(offset + 28), getShort(offset + 30));
+	}
+	
+	public File getFile() {
+		return file;
+	}
+	
+	public int getFlags(int index) {
+		return getShort(offsets[index] + 8);
+	}
+	
+	/**
+	 * Returns an {@link InputStream} which provides the uncompressed data of
+	 * the given entry. It is safe to use multiple streams at the same time,
+	 * also from different threads.
+	 * 
+	 * @param index the index of the entry, must be a pass through entry.
+	 * @return the {@link InputStream} which provides the uncompressed data.
+	 * @throws IOException if reading the local header failed or the entry can
+	 *             not be inflated by us.
+	 * @see #isPassThrough(int)
+	 */
+	public InputStream getInputStream(int index) throws IOException {
+		if (!isPassThrough(index)) {
+			throw new ZipException("Entry can not be read: " + getName(index));
+		}
+		
+		long dataOffset = getDataOffset(index);
+		
+		if (getMethod(index) == ZipEntry.STORED) {
+			return new ChannelInputStream(channel, dataOffset, getCompressedSize(index), false);
+		}
+		
+		final Inflater inflater = new Inflater(true);
+		return new InflaterInputStream(new ChannelInputStream(channel, dataOffset, getCompressedSize(index), true), inflater, 8192) {
+			@Override
+			public void close() throws IOException {
+				super.close();
+				inflater.end();
+			}
+		};
+	}
+	
+	public int getInternalAttributes(int index) {
+		return getShort(offsets[index] + 36);
+	}
+	
+	public long getLocalHeaderOffset(int index) {
+		return getInt(offsets[index] + 42);
+	}
+	
+	public int getMethod(int index) {
+		return getShort(offsets[index] + 10);
+	}
+	
+	/**
+	 * Decodes the name of the given entry. A new {@link String} is created on
+	 * every call.
+	 * 
+	 * @param index the index of the entry.
+	 * @return the name.
+	 */
+	public String getName(int index) {
+		try {
+			// The same as ZipFile, which treats every name as UTF-8.
+			return new String(getRawName(index), "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError("UTF-8 is guaranteed to be available.");
+		}
+	}
+	
+	public byte[] getRawName(int index) {
+		int offset = offsets[index];
+		return getBytes(offset + CENTRAL_HEADER_SIZE, getShort(offset + 28));
+	}
+	
+	public long getSize(int index) {
+		return getInt(offsets[index] + 24);
+	}
+	
+	public int getVersionMadeBy(int index) {
+		return getShort(offsets[index] + 4);
+	}
+	
+	/**
+	 * If the data of the given entry can be copied as it is into another zip
+	 * file, which means that it is neither encrypted nor compressed with
+	 * anything else than deflate.
+	 * 
+	 * @param index the index of the entry.
+	 * @return {@code true} if the data can be copied as it is.
+	 */
+	public boolean isPassThrough(int index) {
+		int method = getMethod(index);
+		return (getFlags(index) & FLAG_ENCRYPTED) == 0
+				&& (method == ZipEntry.STORED || method == ZipEntry.DEFLATED)
+				&& getCompressedSize(index) != ZIP64_MAGIC
+				&& getSize(index) != ZIP64_MAGIC
+				&& getLocalHeaderOffset(index) != ZIP64_MAGIC;
+	}
+	
+	/**
+	 * Reads the uncompressed data of the given entry at once. It is safe to use
+	 * this from multiple threads.
+	 * 
+	 * @param index the index of the entry, must be a pass through entry.
+	 * @return the uncompressed data.
+	 * @throws IOException if reading failed or the entry is broken.
+	 * @see #isPassThrough(int)
+	 */
+	public byte[] read(int index) throws IOException {
+		if (!isPassThrough(index) || getSize(index) > Integer.MAX_VALUE) {
+			throw new ZipException("Entry can not be read: " + getName(index));
+		}
+		
+		long dataOffset = getDataOffset(index);
+		
+		byte[] data = new byte[(int) getSize(index)];
+		if (getMethod(index) == ZipEntry.STORED) {
+			readFully(channel, ByteBuffer.wrap(data), dataOffset);
+			return data;
+		}
+		
+		// The additional zero byte is needed by the Inflater in nowrap mode.
+		byte[] compressed = new byte[(int) getCompressedSize(index) + 1];
+		readFully(channel, ByteBuffer.wrap(compressed, 0, compressed.length - 1), dataOffset);
+		
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(compressed);
+			int inflated = 0;
+			while (inflated < data.length) {
+				int count = inflater.inflate(data, inflated, data.length - inflated);
+				if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+					break;
+				}
+				inflated += count;
+			}
+			
+			if (inflated != data.length) {
+				throw new ZipException("Invalid size of " + getName(index) + " in " + file);
+			}
+		} catch (DataFormatException e) {
+			throw new ZipException("Invalid data of " + getName(index) + " in " + file + ": " + e.getMessage());
+		} finally {
+			inflater.end();
+		}
+		
+		return data;
+	}
+	
+	/**
+	 * Gets the number of entries.
+	 * 
+	 * @return the number of entries.
+	 */
+	public int size() {
+		return offsets.length;
+	}
+	
+	private byte[] getBytes(int offset, int length) {
+		// There is no absolute bulk get, and the position of the shared
+		// buffer must not be touched.
+		byte[] bytes = new byte[length];
+		for (int idx = 0; idx < length; idx++) {
+			bytes[idx] = directory.get(offset + idx);
+		}
+		return bytes;
+	}
+	
+	private long getInt(int offset) {
+		return directory.getInt(offset) & 0xffffffffL;
+	}
+	
+	private int getShort(int offset) {
+		return directory.getShort(offset) & 0xffff;
+	}
+	
+	private static int getRecordSize(ByteBuffer directory, int offset) {
+		return CENTRAL_HEADER_SIZE
+				+ (directory.getShort(offset + 28) & 0xffff)
+				+ (directory.getShort(offset + 30) & 0xffff)
+				+ (directory.getShort(offset + 32) & 0xffff);
+	}
+	
+	/**
+	 * Reads the central directory of the given zip file.
+	 * 
+	 * @param file the zip file.
+	 * @param channel the channel of the zip file.
+	 * @return the central directory.
+	 * @throws IOException if reading failed or it is not a zip file.
+	 */
+	private static ByteBuffer readDirectory(File file, FileChannel channel) throws IOException {
+		long length = channel.size();
+		if (length < END_HEADER_SIZE) {
+			throw new ZipException("Not a zip file: " + file);
+		}
+		
+		// The end header is followed by a comment of up to 64k.
+		int tailLength = (int) Math.min(length, END_HEADER_SIZE + 0xffff);
+		ByteBuffer tail = ByteBuffer.allocate(tailLength).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, tail, length - tailLength);
+		
+		int endOffset = -1;
+		for (int offset = tailLength - END_HEADER_SIZE; offset >= 0 && endOffset < 0; offset--) {
+			if (tail.getInt(offset) == END_HEADER_SIGNATURE) {
+				endOffset = offset;
+			}
+		}
+		
+		if (endOffset < 0) {
+			throw new ZipException("Not a zip file: " + file);
+		}
+		
+		int count = tail.getShort(endOffset + 10) & 0xffff;
+		long directorySize = tail.getInt(endOffset + 12) & 0xffffffffL;
+		long directoryOffset = tail.getInt(endOffset + 16) & 0xffffffffL;
+		
+		if (count == 0xffff || directorySize == ZIP64_MAGIC || directoryOffset == ZIP64_MAGIC) {
+			throw new ZipException("ZIP64 archives are not supported: " + file);
+		}
+		if (directoryOffset + directorySize > length) {
+			throw new ZipException("Malformed central directory: " + file);
+		}
+		
+		// Copied instead of mapped, a mapped file can't be deleted or replaced
+		// on Windows until the map has been garbage collected.
+		ByteBuffer directory = ByteBuffer.allocate((int) directorySize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(channel, directory, directoryOffset);
+		directory.clear();
+		
+		return directory;
+	}
+	
+	/**
+	 * Reads from the given channel at the given position until the buffer is
+	 * full.
+	 * 
+	 * @param channel the channel to read from.
+	 * @param buffer the buffer to fill.
+	 * @param position the position at which to start reading.
+	 * @throws IOException if reading failed or the end of the channel was
+	 *             reached before the buffer was full.
+	 */
+	static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		long currentPosition = position;
+		while (buffer.hasRemaining()) {
+			int read = channel.read(buffer, currentPosition);
+			if (read < 0) {
+				throw new ZipException("Unexpected end of file.");
+			}
+			currentPosition += read;
+		}
+	}
+	
+	/**
+	 * Finds the offsets of all records in the given central directory.
+	 * 
+	 * @param file the zip file.
+	 * @param directory the central directory.
+	 * @return the offsets of the records.
+	 * @throws ZipException if the central directory is malformed.
+	 */
+	private static int[] readOffsets(File file, ByteBuffer directory) throws ZipException {
+		int count = 0;
+		int offset = 0;
+		while (offset < directory.limit()) {
+			if (offset + CENTRAL_HEADER_SIZE > directory.limit() || directory.getInt(offset) != CENTRAL_HEADER_SIGNATURE) {
+				throw new ZipException("Malformed central directory: " + file);
+			}
+			offset += getRecordSize(directory, offset);
+			count++;
+		}
+		
+		if (offset > directory.limit()) {
+			throw new ZipException("Malformed central directory: " + file);
+		}
+		
+		// Only the offsets of the records are remembered, everything else is
+		// read from the directory when needed.
+		int[] offsets = new int[count];
+		offset = 0;
+		for (int idx = 0; idx < count; idx++) {
+			offsets[idx] = offset;
+			offset += getRecordSize(directory, offset);
+		}
+		
+		return offsets;
+	}
+	
+	/**
+	 * Reads a region of a {@link FileChannel} with positional reads, which
+	 * means that the position of the channel itself is never changed.
+	 */
+	private static final class ChannelInputStream extends InputStream {
+		
+		private final FileChannel channel;
+		private final long end;
+		private long position;
+		private boolean trailingByte;
+		
+		/**
+		 * Creates a new instance of {@link ChannelInputStream}.
+		 * 
+		 * @param channel the channel to read from.
+		 * @param position the offset at which the region starts.
+		 * @param length the length of the region.
+		 * @param trailingByte if an additional zero byte should be provided at
+		 *            the end, which the {@link Inflater} needs in nowrap mode.
+		 */
+		public ChannelInputStream(FileChannel channel, long position, long length, boolean trailingByte) {
+			this.channel = channel;
+			this.position = position;
+			this.end = position + length;
+			this.trailingByte = trailingByte;
+		}
+		
+		@Override
+		public int available() throws IOException {
+			return (int) Math.min(end - position, Integer.MAX_VALUE);
+		}
+		
+		@Override
+		public int read() throws IOException {
+			byte[] buffer = new byte[1];
+			if (read(buffer, 0, 1) < 0) {
+				return -1;
+			}
+			return buffer[0] & 0xff;
+		}
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			
+			if (position >= end) {
+				if (trailingByte) {
+					trailingByte = false;
+					buffer[offset] = 0;
+					return 1;
+				}
+				return -1;
+			}
+			
+			int read = channel.read(ByteBuffer.wrap(buffer, offset, (int) Math.min(length, end - position)), position);
+			if (read < 0) {
+				throw new ZipException("Unexpected end of file.");
+			}
+			position += read;
+			return read;
+		}
+	}
+}
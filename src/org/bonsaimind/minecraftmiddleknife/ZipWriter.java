@@ -0,0 +1,370 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Calendar;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal zip writer which allows to copy the already compressed data of
+ * entries from another zip file without inflating and deflating it again.
+ * <p/>
+ * The output is written in one forward pass and never needs to be seeked, so
+ * any channel will do. Entries which are written while they are deflated get
+ * their sizes and CRC in a data descriptor after the data. ZIP64 is not
+ * supported.
+ */
+final class ZipWriter {
+	
+	private static final int DATA_DESCRIPTOR_SIGNATURE = 0x08074b50;
+	private static final byte[] EMPTY = new byte[0];
+	private static final int VERSION_DEFLATED = 20;
+	private static final int VERSION_STORED = 10;
+	
+	private final byte[] buffer = new byte[8192];
+	private final WritableByteChannel channel;
+	private final ByteArrayOutputStream centralDirectory = new ByteArrayOutputStream();
+	private final byte[] deflated = new byte[8192];
+	private Deflater deflater = null;
+	private int entryCount = 0;
+	private final ByteBuffer header = ByteBuffer.allocate(ZipDirectory.CENTRAL_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	private long position = 0;
+	
+	/**
+	 * Creates a new instance of {@link ZipWriter}.
+	 * 
+	 * @param channel the channel to write to. It is not closed by this writer.
+	 */
+	public ZipWriter(WritableByteChannel channel) {
+		this.channel = channel;
+	}
+	
+	/**
+	 * Copies the given entry as it is, meaning without inflating and deflating
+	 * it, from the given directory.
+	 * 
+	 * @param directory the {@link ZipDirectory} from which to copy.
+	 * @param index the index of the entry to copy, must be a pass through
+	 *            entry.
+	 * @param name the name under which the entry is written.
+	 * @throws IOException if reading or writing failed.
+	 * @see ZipDirectory#isPassThrough(int)
+	 */
+	public void copy(ZipDirectory directory, int index, String name) throws IOException {
+		if (!directory.isPassThrough(index)) {
+			throw new ZipException("Entry can not be copied as it is: " + name);
+		}
+		
+		long dataOffset = directory.getDataOffset(index);
+		
+		byte[] rawName = directory.getRawName(index);
+		int flags = directory.getFlags(index) & ZipDirectory.FLAG_UTF8;
+		if (!name.equals(directory.getName(index))) {
+			rawName = encodeName(name);
+			flags = rawName.length != name.length() ? ZipDirectory.FLAG_UTF8 : 0;
+		}
+		
+		writeHeaders(rawName, flags, directory.getMethod(index), directory.getDosTime(index),
+				directory.getCrc(index), directory.getCompressedSize(index), directory.getSize(index), directory.getExtra(index), directory.getComment(index),
+				directory.getVersionMadeBy(index), directory.getInternalAttributes(index), directory.getExternalAttributes(index));
+		
+		transfer(directory.getChannel(), dataOffset, directory.getCompressedSize(index));
+	}
+	
+	/**
+	 * Writes the central directory. The writer must not be used afterwards.
+	 * 
+	 * @throws IOException if writing failed.
+	 */
+	public void finish() throws IOException {
+		if (deflater != null) {
+			deflater.end();
+			deflater = null;
+		}
+		
+		if (entryCount > 0xffff || position > ZipDirectory.ZIP64_MAGIC) {
+			throw new ZipException("The output would require ZIP64, which is not supported.");
+		}
+		
+		long directoryOffset = position;
+		byte[] directory = centralDirectory.toByteArray();
+		writeFully(ByteBuffer.wrap(directory));
+		
+		ByteBuffer end = ByteBuffer.allocate(ZipDirectory.END_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		end.putInt(ZipDirectory.END_HEADER_SIGNATURE);
+		end.putShort((short) 0); // Number of this disk.
+		end.putShort((short) 0); // Disk with the central directory.
+		end.putShort((short) entryCount);
+		end.putShort((short) entryCount);
+		end.putInt(directory.length);
+		end.putInt((int) directoryOffset);
+		end.putShort((short) 0); // Comment length.
+		end.flip();
+		writeFully(end);
+	}
+	
+	/**
+	 * Writes an entry with the given, already compressed, data.
+	 * 
+	 * @param name the name of the entry.
+	 * @param method either {@link ZipEntry#STORED} or {@link ZipEntry#DEFLATED}.
+	 * @param dosTime the modification time in the MS-DOS format.
+	 * @param crc the CRC-32 of the uncompressed data.
+	 * @param size the size of the uncompressed data.
+	 * @param data the data, compressed with the given method.
+	 * @param length the length of the data.
+	 * @throws IOException if writing failed.
+	 */
+	public void write(String name, int method, int dosTime, long crc, long size, byte[] data, int length) throws IOException {
+		byte[] rawName = encodeName(name);
+		int flags = rawName.length != name.length() ? ZipDirectory.FLAG_UTF8 : 0;
+		
+		writeHeaders(rawName, flags, method, dosTime, crc, length, size, EMPTY, EMPTY, VERSION_DEFLATED, 0, 0);
+		writeFully(ByteBuffer.wrap(data, 0, length));
+	}
+	
+	/**
+	 * Writes an entry by deflating the given stream while writing it. The size
+	 * does not need to be known in advance, it is written together with the
+	 * CRC in a data descriptor after the data.
+	 * 
+	 * @param name the name of the entry.
+	 * @param dosTime the modification time in the MS-DOS format.
+	 * @param input the uncompressed data. It is not closed.
+	 * @throws IOException if reading or writing failed.
+	 */
+	public void writeDeflated(String name, int dosTime, InputStream input) throws IOException {
+		byte[] rawName = encodeName(name);
+		int flags = ZipDirectory.FLAG_DATA_DESCRIPTOR | (rawName.length != name.length() ? ZipDirectory.FLAG_UTF8 : 0);
+		
+		long localHeaderOffset = position;
+		writeLocalHeader(rawName, flags, ZipEntry.DEFLATED, dosTime, 0, 0, 0);
+		
+		if (deflater == null) {
+			deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+		} else {
+			deflater.reset();
+		}
+		
+		CRC32 crc = new CRC32();
+		long size = 0;
+		long dataOffset = position;
+		
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			crc.update(buffer, 0, read);
+			size += read;
+			
+			deflater.setInput(buffer, 0, read);
+			while (!deflater.needsInput()) {
+				writeFully(ByteBuffer.wrap(deflated, 0, deflater.deflate(deflated)));
+			}
+		}
+		
+		deflater.finish();
+		while (!deflater.finished()) {
+			writeFully(ByteBuffer.wrap(deflated, 0, deflater.deflate(deflated)));
+		}
+		
+		long compressedSize = position - dataOffset;
+		
+		header.clear();
+		header.putInt(DATA_DESCRIPTOR_SIGNATURE);
+		header.putInt((int) crc.getValue());
+		header.putInt((int) compressedSize);
+		header.putInt((int) size);
+		header.flip();
+		writeFully(header);
+		
+		addCentralRecord(localHeaderOffset, rawName, flags, ZipEntry.DEFLATED, dosTime, crc.getValue(), compressedSize, size, EMPTY, EMPTY, VERSION_DEFLATED, 0, 0);
+	}
+	
+	/**
+	 * Writes an entry by storing the given stream while writing it. The size
+	 * and CRC must be known in advance, and are checked against the data.
+	 * 
+	 * @param name the name of the entry.
+	 * @param dosTime the modification time in the MS-DOS format.
+	 * @param crc the CRC-32 of the data.
+	 * @param size the size of the data.
+	 * @param input the data. It is not closed.
+	 * @throws IOException if reading or writing failed, or the data does not
+	 *             match the given size or CRC.
+	 */
+	public void writeStored(String name, int dosTime, long crc, long size, InputStream input) throws IOException {
+		byte[] rawName = encodeName(name);
+		int flags = rawName.length != name.length() ? ZipDirectory.FLAG_UTF8 : 0;
+		
+		writeHeaders(rawName, flags, ZipEntry.STORED, dosTime, crc, size, size, EMPTY, EMPTY, VERSION_DEFLATED, 0, 0);
+		
+		CRC32 actualCrc = new CRC32();
+		long actualSize = 0;
+		
+		int read;
+		while ((read = input.read(buffer)) >= 0) {
+			actualCrc.update(buffer, 0, read);
+			actualSize += read;
+			writeFully(ByteBuffer.wrap(buffer, 0, read));
+		}
+		
+		if (actualSize != size || actualCrc.getValue() != crc) {
+			throw new ZipException("The data of " + name + " does not match its size or CRC.");
+		}
+	}
+	
+	private void transfer(FileChannel source, long offset, long count) throws IOException {
+		long transferred = 0;
+		while (transferred < count) {
+			long currentTransferred = source.transferTo(offset + transferred, count - transferred, channel);
+			if (currentTransferred <= 0) {
+				// Some channels do not support transferTo, so we fall back to
+				// copying it through a buffer.
+				ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(count - transferred, 65536));
+				ZipDirectory.readFully(source, buffer, offset + transferred);
+				buffer.flip();
+				currentTransferred = buffer.remaining();
+				writeFully(buffer);
+			} else {
+				position += currentTransferred;
+			}
+			transferred += currentTransferred;
+		}
+	}
+	
+	private void writeFully(ByteBuffer buffer) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer);
+		}
+	}
+	
+	private void writeHeaders(byte[] rawName, int flags, int method, int dosTime, long crc, long compressedSize, long size, byte[] extra, byte[] comment, int versionMadeBy, int internalAttributes, int externalAttributes) throws IOException {
+		long localHeaderOffset = position;
+		writeLocalHeader(rawName, flags, method, dosTime, crc, compressedSize, size);
+		addCentralRecord(localHeaderOffset, rawName, flags, method, dosTime, crc, compressedSize, size, extra, comment, versionMadeBy, internalAttributes, externalAttributes);
+	}
+	
+	private void addCentralRecord(long localHeaderOffset, byte[] rawName, int flags, int method, int dosTime, long crc, long compressedSize, long size, byte[] extra, byte[] comment, int versionMadeBy, int internalAttributes, int externalAttributes) throws IOException {
+		if (localHeaderOffset > ZipDirectory.ZIP64_MAGIC || compressedSize >= ZipDirectory.ZIP64_MAGIC || size >= ZipDirectory.ZIP64_MAGIC) {
+			throw new ZipException("The output would require ZIP64, which is not supported.");
+		}
+		
+		header.clear();
+		header.putInt(ZipDirectory.CENTRAL_HEADER_SIGNATURE);
+		header.putShort((short) versionMadeBy);
+		header.putShort((short) getVersionNeeded(method));
+		header.putShort((short) flags);
+		header.putShort((short) method);
+		header.putInt(dosTime);
+		header.putInt((int) crc);
+		header.putInt((int) compressedSize);
+		header.putInt((int) size);
+		header.putShort((short) rawName.length);
+		header.putShort((short) extra.length);
+		header.putShort((short) comment.length);
+		header.putShort((short) 0); // Disk number.
+		header.putShort((short) internalAttributes);
+		header.putInt(externalAttributes);
+		header.putInt((int) localHeaderOffset);
+		centralDirectory.write(header.array(), 0, header.position());
+		centralDirectory.write(rawName, 0, rawName.length);
+		centralDirectory.write(extra, 0, extra.length);
+		centralDirectory.write(comment, 0, comment.length);
+		entryCount++;
+	}
+	
+	private void writeLocalHeader(byte[] rawName, int flags, int method, int dosTime, long crc, long compressedSize, long size) throws IOException {
+		if (position > ZipDirectory.ZIP64_MAGIC) {
+			throw new ZipException("The output would require ZIP64, which is not supported.");
+		}
+		
+		// The extra field is not repeated in the local header, its contents
+		// might differ between the two and nobody needs it there anyway.
+		header.clear();
+		header.putInt(ZipDirectory.LOCAL_HEADER_SIGNATURE);
+		header.putShort((short) getVersionNeeded(method));
+		header.putShort((short) flags);
+		header.putShort((short) method);
+		header.putInt(dosTime);
+		header.putInt((int) crc);
+		header.putInt((int) compressedSize);
+		header.putInt((int) size);
+		header.putShort((short) rawName.length);
+		header.putShort((short) 0); // Extra length.
+		header.flip();
+		writeFully(header);
+		writeFully(ByteBuffer.wrap(rawName));
+	}
+	
+	/**
+	 * Converts the given time into the MS-DOS format.
+	 * 
+	 * @param time the time in milliseconds, {@code -1} for the current time.
+	 * @return the time in the MS-DOS format.
+	 */
+	static int toDosTime(long time) {
+		Calendar calendar = Calendar.getInstance();
+		if (time != -1) {
+			calendar.setTimeInMillis(time);
+		}
+		
+		int year = calendar.get(Calendar.YEAR);
+		if (year < 1980) {
+			// 1980-01-01 00:00:00, the earliest time that can be represented.
+			return (1 << 21) | (1 << 16);
+		}
+		
+		return (year - 1980) << 25
+				| (calendar.get(Calendar.MONTH) + 1) << 21
+				| calendar.get(Calendar.DAY_OF_MONTH) << 16
+				| calendar.get(Calendar.HOUR_OF_DAY) << 11
+				| calendar.get(Calendar.MINUTE) << 5
+				| calendar.get(Calendar.SECOND) >> 1;
+	}
+	
+	private static byte[] encodeName(String name) throws UnsupportedEncodingException {
+		return name.getBytes("UTF-8");
+	}
+	
+	private static int getVersionNeeded(int method) {
+		if (method == ZipEntry.DEFLATED) {
+			return VERSION_DEFLATED;
+		}
+		return VERSION_STORED;
+	}
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.util.Arrays;
+
+/**
+ * The assertions used by the tests.
+ */
+final class Assert {
+	
+	private Assert() {
+	}
+	
+	/**
+	 * Asserts that the given arrays have the same content.
+	 * 
+	 * @param message the message of the failure.
+	 * @param expected the expected array.
+	 * @param actual the actual array.
+	 */
+	public static void assertArrayEquals(String message, byte[] expected, byte[] actual) {
+		if (!Arrays.equals(expected, actual)) {
+			fail(message + ": expected " + describe(expected) + " but was " + describe(actual));
+		}
+	}
+	
+	/**
+	 * Asserts that the given values are the same.
+	 * 
+	 * @param message the message of the failure.
+	 * @param expected the expected value.
+	 * @param actual the actual value.
+	 */
+	public static void assertEquals(String message, long expected, long actual) {
+		if (expected != actual) {
+			fail(message + ": expected <" + expected + "> but was <" + actual + ">");
+		}
+	}
+	
+	/**
+	 * Asserts that the given objects are equal.
+	 * 
+	 * @param message the message of the failure.
+	 * @param expected the expected object, can be {@code null}.
+	 * @param actual the actual object, can be {@code null}.
+	 */
+	public static void assertEquals(String message, Object expected, Object actual) {
+		if (expected == null ? actual != null : !expected.equals(actual)) {
+			fail(message + ": expected <" + expected + "> but was <" + actual + ">");
+		}
+	}
+	
+	/**
+	 * Asserts that the given condition is true.
+	 * 
+	 * @param message the message of the failure.
+	 * @param condition the condition.
+	 */
+	public static void assertTrue(String message, boolean condition) {
+		if (!condition) {
+			fail(message);
+		}
+	}
+	
+	/**
+	 * Fails with the given message.
+	 * 
+	 * @param message the message of the failure.
+	 */
+	public static void fail(String message) {
+		throw new AssertionError(message);
+	}
+	
+	private static String describe(byte[] array) {
+		if (array == null) {
+			return "null";
+		}
+		return array.length + " bytes";
+	}
+}
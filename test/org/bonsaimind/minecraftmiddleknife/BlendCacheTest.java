@@ -0,0 +1,161 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests that the {@link BlendCache} serves the right jars and evicts the
+ * least recently used ones.
+ */
+public final class BlendCacheTest {
+	
+	private final File directory;
+	
+	public BlendCacheTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("blendcache");
+	}
+	
+	public void testDuplicateJarInStack() throws Exception {
+		try {
+			File a = TestJars.writeJar(new File(directory, "a.jar"), TestJars.entries("X", "a", "A", "a"), ZipEntry.DEFLATED);
+			File b = TestJars.writeJar(new File(directory, "b.jar"), TestJars.entries("X", "b", "B", "b"), ZipEntry.DEFLATED);
+			BlendCache cache = new BlendCache(new File(directory, "cache").getPath(), Long.MAX_VALUE);
+			
+			Assert.assertTrue("Same key for [a, b] and [a, b, a]", !cache.createKey(Arrays.asList(a, b), "").equals(cache.createKey(Arrays.asList(a, b, a), "")));
+			Assert.assertTrue("Same key for [a, b] and [b, a]", !cache.createKey(Arrays.asList(a, b), "").equals(cache.createKey(Arrays.asList(b, a), "")));
+			
+			File first = blend(cache, "first.jar", a, b);
+			TestJars.assertJarEquals(TestJars.entries("X", "b", "A", "a", "B", "b"), first);
+			
+			File second = blend(cache, "second.jar", a, b, a);
+			TestJars.assertJarEquals(TestJars.entries("X", "a", "A", "a", "B", "b"), second);
+			Assert.assertEquals("Cached jars", 2, countCached(cache));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testEviction() throws Exception {
+		try {
+			File jar = TestJars.writeJar(new File(directory, "blended.jar"), TestJars.entries("A", "a"), ZipEntry.STORED);
+			long length = jar.length();
+			
+			BlendCache cache = new BlendCache(new File(directory, "cache").getPath(), length * 2);
+			cache.store("first", jar);
+			cache.store("second", jar);
+			Assert.assertEquals("Cached jars", 2, countCached(cache));
+			
+			// The first has been used more recently than the second.
+			new File(cache.getDirectory(), "first.used").setLastModified(System.currentTimeMillis());
+			new File(cache.getDirectory(), "second.used").setLastModified(System.currentTimeMillis() - 60000);
+			
+			cache.store("third", jar);
+			Assert.assertEquals("Cached jars", 2, countCached(cache));
+			Assert.assertTrue("first has been evicted", cache.retrieve("first", new File(directory, "first.jar")));
+			Assert.assertTrue("second has not been evicted", !cache.retrieve("second", new File(directory, "second.jar")));
+			Assert.assertTrue("third has been evicted", cache.retrieve("third", new File(directory, "third.jar")));
+			Assert.assertTrue("Stamp of second has not been deleted", !new File(cache.getDirectory(), "second.used").exists());
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testHit() throws Exception {
+		try {
+			File a = TestJars.writeJar(new File(directory, "a.jar"), TestJars.entries("X", "a", "A", "a"), ZipEntry.DEFLATED);
+			File b = TestJars.writeJar(new File(directory, "b.jar"), TestJars.entries("X", "b"), ZipEntry.DEFLATED);
+			BlendCache cache = new BlendCache(new File(directory, "cache").getPath(), Long.MAX_VALUE);
+			
+			File first = blend(cache, "first.jar", a, b);
+			Assert.assertEquals("Cached jars", 1, countCached(cache));
+			File cached = null;
+			for (File file : new File(cache.getDirectory()).listFiles()) {
+				if (file.getName().endsWith(".jar")) {
+					cached = file;
+				}
+			}
+			
+			TestJars.assertJarEquals(TestJars.entries("X", "b", "A", "a"), first);
+			
+			// Replacing the cached jar shows that it is really served from
+			// there. It is replaced and not rewritten, as the first output is
+			// most likely a hard link to it.
+			File replacement = TestJars.writeJar(new File(directory, "replacement.jar"), TestJars.entries("cached", "yes"), ZipEntry.STORED);
+			Assert.assertTrue("Replaced", cached.delete() && replacement.renameTo(cached));
+			
+			File second = blend(cache, "second.jar", a, b);
+			TestJars.assertJarEquals(TestJars.entries("cached", "yes"), second);
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testMissAfterChange() throws Exception {
+		try {
+			File a = TestJars.writeJar(new File(directory, "a.jar"), TestJars.entries("X", "a", "A", "a"), ZipEntry.DEFLATED);
+			File b = TestJars.writeJar(new File(directory, "b.jar"), TestJars.entries("X", "b"), ZipEntry.DEFLATED);
+			BlendCache cache = new BlendCache(new File(directory, "cache").getPath(), Long.MAX_VALUE);
+			
+			blend(cache, "first.jar", a, b);
+			
+			TestJars.writeJar(b, TestJars.entries("X", "changed"), ZipEntry.DEFLATED);
+			
+			File second = blend(cache, "second.jar", a, b);
+			TestJars.assertJarEquals(TestJars.entries("X", "changed", "A", "a"), second);
+			Assert.assertEquals("Cached jars", 2, countCached(cache));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	private File blend(BlendCache cache, String output, File... jars) throws IOException {
+		Blender blender = new Blender();
+		for (File jar : jars) {
+			blender.add(jar.getPath());
+		}
+		blender.setCache(cache);
+		
+		File outputJar = new File(directory, output);
+		blender.blend(outputJar.getPath());
+		return outputJar;
+	}
+	
+	private static int countCached(BlendCache cache) {
+		int count = 0;
+		for (File file : new File(cache.getDirectory()).listFiles()) {
+			if (file.getName().endsWith(".jar")) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
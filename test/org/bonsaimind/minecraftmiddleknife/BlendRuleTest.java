@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests that the {@link BlendRule}s drop, keep, merge and rename the right
+ * entries, in every mode of the {@link Blender}.
+ */
+public final class BlendRuleTest {
+	
+	private final File directory;
+	
+	public BlendRuleTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("blendrule");
+	}
+	
+	public void testExclude() throws Exception {
+		try {
+			TestJars.writeJar(new File(directory, "1.jar"), TestJars.entries("META-INF/A.SF", "1", "META-INF/A.RSA", "1", "META-INF/a/A.SF", "1", "a/A.class", "1"), ZipEntry.DEFLATED);
+			TestJars.writeJar(new File(directory, "2.jar"), TestJars.entries("META-INF/B.SF", "2", "a/B.class", "2"), ZipEntry.STORED);
+			
+			assertAllModes(TestJars.entries("META-INF/a/A.SF", "1", "a/A.class", "1", "a/B.class", "2"),
+					new BlendRule[] { BlendRule.exclude("META-INF/*.SF"), BlendRule.exclude("META-INF/*.RSA") },
+					"1.jar", "2.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testFirstAddedRuleWins() throws Exception {
+		try {
+			TestJars.writeJar(new File(directory, "1.jar"), TestJars.entries("a/A.class", "1", "a/B.class", "1", "a/b/C.class", "1"), ZipEntry.DEFLATED);
+			
+			assertAllModes(TestJars.entries("a/A.class", "1", "shaded/b/C.class", "1"),
+					new BlendRule[] { BlendRule.include("a/A.class"), BlendRule.exclude("a/*.class"), BlendRule.rename("a/", "shaded/"), BlendRule.include("a/B.class") },
+					"1.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testInclude() throws Exception {
+		try {
+			TestJars.writeJar(new File(directory, "1.jar"), TestJars.entries("a/A.class", "1", "a/b/B.class", "1", "b/C.class", "1", "A.txt", "1"), ZipEntry.DEFLATED);
+			TestJars.writeJar(new File(directory, "2.jar"), TestJars.entries("a/A.class", "2", "c/D.class", "2"), ZipEntry.DEFLATED);
+			
+			assertAllModes(TestJars.entries("a/A.class", "2", "a/b/B.class", "1", "A.txt", "1"),
+					new BlendRule[] { BlendRule.include("a/**"), BlendRule.include("*.txt") },
+					"1.jar", "2.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testMerge() throws Exception {
+		try {
+			// Service files do not always end with a newline, the merged file
+			// has to have one between every part nevertheless.
+			TestJars.writeJar(new File(directory, "1.jar"), TestJars.entries("META-INF/services/a.Service", "a.One", "A", "1"), ZipEntry.DEFLATED);
+			TestJars.writeJar(new File(directory, "2.jar"), TestJars.entries("META-INF/services/b.Service", "b.Two\n"), ZipEntry.STORED);
+			TestJars.writeJar(new File(directory, "3.jar"), TestJars.entries("META-INF/services/a.Service", "a.Three\n", "A", "3"), ZipEntry.STORED);
+			TestJars.writeJar(new File(directory, "4.jar"), TestJars.entries("META-INF/services/a.Service", "a.Four", "META-INF/services/b.Service", ""), ZipEntry.DEFLATED);
+			
+			assertAllModes(TestJars.entries("META-INF/services/a.Service", "a.One\na.Three\na.Four\n", "META-INF/services/b.Service", "b.Two\n", "A", "3"),
+					new BlendRule[] { BlendRule.merge("META-INF/services/*") },
+					"1.jar", "2.jar", "3.jar", "4.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testRename() throws Exception {
+		try {
+			TestJars.writeJar(new File(directory, "1.jar"), TestJars.entries("com/example/A.class", "1", "com/example/b/B.class", "1", "com/examples/C.class", "1", "lib.txt", "1"), ZipEntry.DEFLATED);
+			
+			assertAllModes(TestJars.entries("shaded/com/example/A.class", "1", "shaded/com/example/b/B.class", "1", "com/examples/C.class", "1", "LIB.txt", "1"),
+					new BlendRule[] { BlendRule.rename("com/example/", "shaded/com/example/"), BlendRule.rename("lib.txt", "LIB.txt") },
+					"1.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testRenameCollision() throws Exception {
+		try {
+			// Renamed entries compete with the others under their new name,
+			// the last jar wins no matter which one has been renamed.
+			TestJars.writeJar(new File(directory, "1.jar"), TestJars.entries("a/A", "1 renamed", "b/B", "1"), ZipEntry.DEFLATED);
+			TestJars.writeJar(new File(directory, "2.jar"), TestJars.entries("b/A", "2", "a/B", "2 renamed"), ZipEntry.DEFLATED);
+			
+			assertAllModes(TestJars.entries("b/A", "2", "b/B", "2 renamed"),
+					new BlendRule[] { BlendRule.rename("a/", "b/") },
+					"1.jar", "2.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testRenameWithWildcards() {
+		try {
+			BlendRule.rename("a/*", "b/");
+			Assert.fail("Wildcards have been accepted.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+		
+		try {
+			BlendRule.rename("a/", "");
+			Assert.fail("An empty name has been accepted.");
+		} catch (IllegalArgumentException e) {
+			// Expected.
+		}
+	}
+	
+	/**
+	 * Blends the given jars with the given rules in every mode, and asserts
+	 * that the output has the expected entries.
+	 */
+	private void assertAllModes(Map<String, byte[]> expected, BlendRule[] rules, String... jars) throws IOException {
+		for (boolean rawCopy : new boolean[] { false, true }) {
+			for (int threads : new int[] { 0, 2 }) {
+				Blender blender = new Blender();
+				for (String jar : jars) {
+					blender.add(new File(directory, jar).getPath());
+				}
+				for (BlendRule rule : rules) {
+					blender.addRule(rule);
+				}
+				blender.setRawCopy(rawCopy);
+				blender.setThreads(threads);
+				
+				File outputJar = new File(directory, "output-" + rawCopy + "-" + threads + ".jar");
+				blender.blend(outputJar.getPath());
+				
+				TestJars.assertJarEquals(expected, outputJar);
+			}
+		}
+	}
+}
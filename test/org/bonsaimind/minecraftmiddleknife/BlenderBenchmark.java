@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+/**
+ * Measures the throughput of the {@link Blender} on a stack that looks like
+ * a modded client, a jar with thousands of small classes and a mod replacing
+ * some of them.
+ */
+public final class BlenderBenchmark {
+	
+	private static final int RUNS = 5;
+	private static final int WARMUPS = 2;
+	
+	private final File directory;
+	
+	public BlenderBenchmark() throws IOException {
+		directory = TestJars.createTemporaryDirectory("blender");
+	}
+	
+	public void benchmarkBlend() throws Exception {
+		try {
+			Map<String, byte[]> client = TestJars.createClasses("net/minecraft/p", 100, 100, "client", 1);
+			final File clientJar = TestJars.writeJar(new File(directory, "client.jar"), client, ZipEntry.DEFLATED);
+			final File modJar = TestJars.writeJar(new File(directory, "mod.jar"), TestJars.createClasses("net/minecraft/p", 10, 100, "mod", 2), ZipEntry.DEFLATED);
+			
+			long bytes = 0;
+			for (byte[] data : client.values()) {
+				bytes += data.length;
+			}
+			System.out.println(client.size() + " entries, " + bytes / 1024 + " KB uncompressed:");
+			
+			int processors = Runtime.getRuntime().availableProcessors();
+			for (boolean rawCopy : new boolean[] { false, true }) {
+				for (int threads : new int[] { 0, processors }) {
+					final Blender blender = new Blender();
+					blender.add(clientJar.getPath(), modJar.getPath());
+					blender.setRawCopy(rawCopy);
+					blender.setThreads(threads);
+					
+					final File outputJar = new File(directory, "output.jar");
+					String name = "rawCopy=" + rawCopy + ", threads=" + threads;
+					long nanos = Timing.measure(name, WARMUPS, RUNS, new Timing.Task() {
+						@Override
+						public void run() throws Exception {
+							blender.blend(outputJar.getPath());
+						}
+					});
+					Timing.printRate(client.size(), "entries", nanos);
+					Timing.printRate(bytes / (1024.0 * 1024.0), "MB", nanos);
+				}
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests that the {@link Blender} and the {@link BlendedClassLoader} yield the
+ * right entries with the right contents, in every mode.
+ */
+public final class BlenderTest {
+	
+	private static final long OLD = (System.currentTimeMillis() / 1000 - 3600) * 1000;
+	
+	private final File directory;
+	
+	public BlenderTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("blender");
+	}
+	
+	public void testClassLoader() throws Exception {
+		try {
+			Map<String, byte[]> expected = createClientStack();
+			
+			Blender blender = createBlender(false, 0);
+			BlendedClassLoader classLoader = blender.createClassLoader(null);
+			try {
+				for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+					String name = entry.getKey();
+					Assert.assertArrayEquals(name, entry.getValue(), TestJars.readFully(classLoader.getResourceAsStream(name)));
+					
+					Class<?> clazz = classLoader.loadClass(name.substring(0, name.length() - ".class".length()).replace('/', '.'));
+					Assert.assertEquals("Class loader of " + name, classLoader, clazz.getClassLoader());
+				}
+				
+				Class<?> clazz = classLoader.loadClass("net.minecraft.p0.Class0");
+				Assert.assertEquals("Owner of net.minecraft.p0.Class0", new File(directory, "mod2.jar").toURI().toURL(), clazz.getProtectionDomain().getCodeSource().getLocation());
+			} finally {
+				classLoader.close();
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testIncrementalChangedJar() throws Exception {
+		try {
+			createClientStack();
+			assertIncremental("client.jar", "mod1.jar", "mod2.jar");
+			
+			Map<String, byte[]> mod1 = TestJars.createClasses("net/minecraft/p", 2, 100, "changed", 5);
+			File mod1Jar = TestJars.writeJar(new File(directory, "mod1.jar"), mod1, ZipEntry.STORED);
+			mod1Jar.setLastModified(OLD);
+			
+			File outputJar = assertIncremental("client.jar", "mod1.jar", "mod2.jar");
+			
+			Map<String, byte[]> expected = TestJars.createClasses("net/minecraft/p", 40, 100, "client", 1);
+			expected.putAll(mod1);
+			expected.putAll(TestJars.createClasses("net/minecraft/p", 1, 50, "mod2", 4));
+			TestJars.assertJarEquals(expected, outputJar);
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testIncrementalRemovedJar() throws Exception {
+		try {
+			createClientStack();
+			assertIncremental("client.jar", "mod1.jar", "mod2.jar");
+			assertIncremental("client.jar", "mod2.jar");
+			assertIncremental("mod1.jar", "mod2.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testIncrementalReorderedJars() throws Exception {
+		try {
+			createClientStack();
+			assertIncremental("client.jar", "mod1.jar", "mod2.jar");
+			assertIncremental("client.jar", "mod2.jar", "mod1.jar");
+			assertIncremental("mod2.jar", "mod1.jar", "client.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testIncrementalUnchangedStack() throws Exception {
+		try {
+			createClientStack();
+			File outputJar = assertIncremental("client.jar", "mod1.jar", "mod2.jar");
+			long outputLastModified = outputJar.lastModified();
+			BlendManifest.getFile(outputJar).setLastModified(OLD);
+			byte[] output = TestJars.readFully(new FileInputStream(outputJar));
+			
+			// A jar with the same size and modification time is trusted to be
+			// unchanged, so garbage shows if the stack is read again.
+			File mod1Jar = new File(directory, "mod1.jar");
+			long lastModified = mod1Jar.lastModified();
+			TestJars.writeFile(mod1Jar, new String(new char[(int) mod1Jar.length()]).replace('\0', 'x'));
+			mod1Jar.setLastModified(lastModified);
+			
+			blend(true, "incremental.jar", "client.jar", "mod1.jar", "mod2.jar");
+			Assert.assertArrayEquals("Output", output, TestJars.readFully(new FileInputStream(outputJar)));
+			Assert.assertEquals("Modification of the output", outputLastModified, outputJar.lastModified());
+			Assert.assertEquals("Modification of the manifest", OLD, BlendManifest.getFile(outputJar).lastModified());
+			Assert.assertTrue("Temporary file is left", !new File(directory, "incremental.jar.tmp").exists());
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testLargeEntries() throws Exception {
+		try {
+			Random random = new Random(42);
+			
+			byte[] incompressible = new byte[1024 * 1024];
+			random.nextBytes(incompressible);
+			
+			// Inflates to far more than any buffer, from a few compressed bytes.
+			byte[] compressible = new byte[8 * 1024 * 1024];
+			for (int idx = 0; idx < compressible.length; idx++) {
+				compressible[idx] = (byte) (idx % 61);
+			}
+			
+			Map<String, byte[]> deflated = new LinkedHashMap<String, byte[]>();
+			deflated.put("empty", new byte[0]);
+			deflated.put("one", new byte[] { 1 });
+			deflated.put("compressible", compressible);
+			deflated.put("incompressible", incompressible);
+			TestJars.writeJar(new File(directory, "deflated.jar"), deflated, ZipEntry.DEFLATED);
+			
+			Map<String, byte[]> stored = new LinkedHashMap<String, byte[]>();
+			stored.put("stored/compressible", compressible);
+			stored.put("stored/incompressible", incompressible);
+			stored.put("stored/empty", new byte[0]);
+			TestJars.writeJar(new File(directory, "stored.jar"), stored, ZipEntry.STORED);
+			
+			Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>();
+			expected.putAll(deflated);
+			expected.putAll(stored);
+			
+			assertAllModes(expected, "deflated.jar", "stored.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testOutputStream() throws Exception {
+		try {
+			Map<String, byte[]> expected = createClientStack();
+			
+			Blender blender = createBlender(true, 0);
+			ByteArrayOutputStream output = new ByteArrayOutputStream();
+			blender.blend(output);
+			
+			File outputJar = new File(directory, "stream.jar");
+			FileOutputStream fileOutput = new FileOutputStream(outputJar);
+			try {
+				output.writeTo(fileOutput);
+			} finally {
+				fileOutput.close();
+			}
+			
+			TestJars.assertJarEquals(expected, outputJar);
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testStack() throws Exception {
+		try {
+			TestJars.writeJar(new File(directory, "1.jar"), TestJars.entries("A", "A1", "B", "B1", "D", "D1"), ZipEntry.DEFLATED);
+			TestJars.writeJar(new File(directory, "2.jar"), TestJars.entries("C", "C2"), ZipEntry.DEFLATED);
+			TestJars.writeJar(new File(directory, "3.jar"), TestJars.entries("A", "A3", "B", "B3"), ZipEntry.STORED);
+			
+			assertAllModes(TestJars.entries("A", "A3", "B", "B3", "C", "C2", "D", "D1"), "1.jar", "2.jar", "3.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testThousandsOfClasses() throws Exception {
+		try {
+			assertAllModes(createClientStack(), "client.jar", "mod1.jar", "mod2.jar");
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	/**
+	 * Blends the given jars in every mode, and asserts that the output has the
+	 * expected entries and, as soon as threads are used, does not depend on
+	 * their number.
+	 */
+	private void assertAllModes(Map<String, byte[]> expected, String... jars) throws IOException {
+		for (boolean rawCopy : new boolean[] { false, true }) {
+			byte[] previous = null;
+			for (int threads : new int[] { 0, 1, 4 }) {
+				String mode = "rawCopy=" + rawCopy + ", threads=" + threads;
+				
+				Blender blender = new Blender();
+				for (String jar : jars) {
+					blender.add(new File(directory, jar).getPath());
+				}
+				blender.setRawCopy(rawCopy);
+				blender.setThreads(threads);
+				
+				File outputJar = new File(directory, "output-" + rawCopy + "-" + threads + ".jar");
+				blender.blend(outputJar.getPath());
+				
+				TestJars.assertJarEquals(expected, outputJar);
+				
+				if (threads > 0) {
+					byte[] output = TestJars.readFully(new FileInputStream(outputJar));
+					if (previous != null) {
+						Assert.assertTrue("Output differs with " + mode, Arrays.equals(previous, output));
+					}
+					previous = output;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Blends the given jars incrementally into the same output jar as before,
+	 * and asserts that the output is exactly the same as the one of a full
+	 * blend.
+	 */
+	private File assertIncremental(String... jars) throws IOException {
+		File outputJar = blend(true, "incremental.jar", jars);
+		File fullJar = blend(false, "full.jar", jars);
+		Assert.assertArrayEquals("Output of " + Arrays.toString(jars), TestJars.readFully(new FileInputStream(fullJar)), TestJars.readFully(new FileInputStream(outputJar)));
+		return outputJar;
+	}
+	
+	private File blend(boolean incremental, String output, String... jars) throws IOException {
+		Blender blender = new Blender();
+		for (String jar : jars) {
+			blender.add(new File(directory, jar).getPath());
+		}
+		blender.setIncremental(incremental);
+		blender.setThreads(2);
+		
+		File outputJar = new File(directory, output);
+		blender.blend(outputJar.getPath());
+		return outputJar;
+	}
+	
+	private Blender createBlender(boolean rawCopy, int threads) {
+		Blender blender = new Blender();
+		blender.add(new File(directory, "client.jar").getPath(), new File(directory, "mod1.jar").getPath(), new File(directory, "mod2.jar").getPath());
+		blender.setRawCopy(rawCopy);
+		blender.setThreads(threads);
+		return blender;
+	}
+	
+	/**
+	 * Creates a client jar with thousands of small classes and two mods, which
+	 * replace some of them and add their own.
+	 * 
+	 * @return the expected entries of the blended jar.
+	 */
+	private Map<String, byte[]> createClientStack() throws IOException {
+		Map<String, byte[]> client = TestJars.createClasses("net/minecraft/p", 40, 100, "client", 1);
+		TestJars.writeJar(new File(directory, "client.jar"), client, ZipEntry.DEFLATED);
+		
+		Map<String, byte[]> mod1 = TestJars.createClasses("net/minecraft/p", 2, 100, "mod1", 2);
+		mod1.putAll(TestJars.createClasses("mod/one/p", 3, 50, "mod1", 3));
+		TestJars.writeJar(new File(directory, "mod1.jar"), mod1, ZipEntry.STORED);
+		
+		Map<String, byte[]> mod2 = TestJars.createClasses("net/minecraft/p", 1, 50, "mod2", 4);
+		TestJars.writeJar(new File(directory, "mod2.jar"), mod2, ZipEntry.DEFLATED);
+		
+		Map<String, byte[]> expected = new LinkedHashMap<String, byte[]>(client);
+		expected.putAll(mod1);
+		expected.putAll(mod2);
+		return expected;
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests when the {@link ClassWarmup} runs, that what it loads is not
+ * recorded, and its file.
+ */
+public final class ClassWarmupTest {
+	
+	private final File directory;
+	
+	public ClassWarmupTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("classwarmup");
+	}
+	
+	public void testLoadOrderWithoutWarmup() throws Exception {
+		try {
+			List<String> classNames = createJar();
+			IndexedClassLoader classLoader = createClassLoader();
+			try {
+				Assert.assertEquals("Load order before recording", null, classLoader.getLoadOrder());
+				classLoader.startRecordingLoadOrder();
+				
+				for (String className : Arrays.asList(classNames.get(3), classNames.get(1), classNames.get(3))) {
+					classLoader.loadClass(className);
+				}
+				Assert.assertEquals("Load order", Arrays.asList(classNames.get(3), classNames.get(1)), classLoader.getLoadOrder());
+			} finally {
+				classLoader.close();
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testReadWrite() throws Exception {
+		try {
+			// Even a name which is too short as prefix of a temporary file
+			// must work.
+			File file = new File(directory, "w");
+			Assert.assertEquals("Classes of a missing file", Collections.<String>emptyList(), ClassWarmup.read(file));
+			
+			List<String> classNames = Arrays.asList("a.A", "a.b.B$1", "C");
+			ClassWarmup.write(file, classNames);
+			Assert.assertEquals("Classes", classNames, ClassWarmup.read(file));
+			
+			ClassWarmup.write(file, Arrays.asList("D"));
+			Assert.assertEquals("Classes after replacing", Arrays.asList("D"), ClassWarmup.read(file));
+			Assert.assertEquals("Files", Arrays.asList("w"), Arrays.asList(directory.list()));
+			
+			TestJars.writeFile(file, "  a.A \n\n\tb.B\r\n");
+			Assert.assertEquals("Classes with blanks", Arrays.asList("a.A", "b.B"), ClassWarmup.read(file));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testWarmupNotRecorded() throws Exception {
+		try {
+			List<String> classNames = createJar();
+			IndexedClassLoader classLoader = createClassLoader();
+			try {
+				classLoader.startRecordingLoadOrder();
+				classLoader.loadClass(classNames.get(0));
+				
+				List<String> warmupClassNames = new ArrayList<String>(classNames.subList(0, classNames.size() / 2));
+				warmupClassNames.add("does.not.Exist");
+				ClassWarmup warmup = classLoader.startWarmup(warmupClassNames, 2, TimeUnit.MINUTES.toMillis(1));
+				Assert.assertTrue("Warmup finished", warmup.await(TimeUnit.MINUTES.toMillis(1)));
+				Assert.assertEquals("Already loaded", 1, warmup.getAlreadyLoaded());
+				Assert.assertEquals("Loaded", classNames.size() / 2 - 1, warmup.getLoaded());
+				Assert.assertEquals("Failed", 1, warmup.getFailed());
+				
+				String last = classNames.get(classNames.size() - 1);
+				classLoader.loadClass(last);
+				Assert.assertEquals("Load order", Arrays.asList(classNames.get(0), last), classLoader.getLoadOrder());
+			} finally {
+				classLoader.close();
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testWarmupOrRecord() throws Exception {
+		try {
+			File file = new File(directory, "warmup");
+			ClassLoaderCreator creator = new ClassLoaderCreator();
+			Assert.assertEquals("Classes of a missing file", null, creator.readWarmup(file));
+			
+			TestJars.writeFile(file, "a.A\nb.B\n");
+			Assert.assertEquals("Classes of a new file", Arrays.asList("a.A", "b.B"), creator.readWarmup(file));
+			
+			// The default interval is a day.
+			file.setLastModified(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(2));
+			Assert.assertEquals("Classes of an old file", null, creator.readWarmup(file));
+			
+			creator.setWarmupRecordInterval(TimeUnit.DAYS.toMillis(3));
+			Assert.assertEquals("Classes with a longer interval", Arrays.asList("a.A", "b.B"), creator.readWarmup(file));
+			
+			creator.setWarmupRecordInterval(0);
+			file.setLastModified(System.currentTimeMillis());
+			Assert.assertEquals("Classes without an interval", null, creator.readWarmup(file));
+			
+			creator.setWarmupRecordInterval(TimeUnit.DAYS.toMillis(1));
+			TestJars.writeFile(file, "\n");
+			Assert.assertEquals("Classes of an empty file", null, creator.readWarmup(file));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	private IndexedClassLoader createClassLoader() throws IOException {
+		return new IndexedClassLoader(new URL[] { new File(directory, "classes.jar").toURI().toURL() }, null);
+	}
+	
+	/**
+	 * Creates a jar with a few classes.
+	 * 
+	 * @return the binary names of the classes.
+	 */
+	private List<String> createJar() throws IOException {
+		Map<String, byte[]> classes = TestJars.createClasses("warmup/p", 2, 10, "", 1);
+		TestJars.writeJar(new File(directory, "classes.jar"), classes, ZipEntry.DEFLATED);
+		
+		List<String> classNames = new ArrayList<String>();
+		for (String entryName : classes.keySet()) {
+			classNames.add(entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.'));
+		}
+		return classNames;
+	}
+}
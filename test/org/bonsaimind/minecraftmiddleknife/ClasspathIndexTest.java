@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests that the {@link ClasspathIndex} remembers the entries of jars only as
+ * long as they do not change, and that a broken index only means that the
+ * jars are read again.
+ */
+public final class ClasspathIndexTest {
+	
+	private static final long OLD = (System.currentTimeMillis() / 1000 - 3600) * 1000;
+	
+	private final File directory;
+	
+	public ClasspathIndexTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("classpathindex");
+	}
+	
+	public void testBrokenIndex() throws Exception {
+		try {
+			File jar = writeJar("a.jar", "a/A.class", "A");
+			File indexFile = new File(directory, "index");
+			
+			ClasspathIndex index = ClasspathIndex.read(indexFile);
+			index.put(jar, new String[] { "a/A.class", "a/B.class" });
+			index.write(indexFile);
+			long length = indexFile.length();
+			
+			// Cut off in the middle of the names.
+			RandomAccessFile randomAccessFile = new RandomAccessFile(indexFile, "rw");
+			try {
+				randomAccessFile.setLength(length - 3);
+			} finally {
+				randomAccessFile.close();
+			}
+			Assert.assertEquals("Names from a truncated index", null, ClasspathIndex.read(indexFile).get(jar));
+			
+			// Counts that can not possibly be right, the one of the jars and
+			// the one of the names, which follows path, size and modification.
+			for (long position : new long[] { 8, 12 + 2 + jar.getPath().length() + 16 }) {
+				for (int count : new int[] { -1, Integer.MAX_VALUE }) {
+					index.write(indexFile);
+					randomAccessFile = new RandomAccessFile(indexFile, "rw");
+					try {
+						randomAccessFile.seek(position);
+						randomAccessFile.writeInt(count);
+					} finally {
+						randomAccessFile.close();
+					}
+					Assert.assertEquals("Names with count " + count + " at " + position, null, ClasspathIndex.read(indexFile).get(jar));
+				}
+			}
+			
+			TestJars.writeFile(indexFile, "garbage");
+			Assert.assertEquals("Names from garbage", null, ClasspathIndex.read(indexFile).get(jar));
+			
+			// The class loader reads the jar instead and fixes the index.
+			assertResource(jar, indexFile, "a/A.class", "A");
+			Assert.assertEquals("Names from the fixed index", Arrays.asList("a/A.class"), Arrays.asList(ClasspathIndex.read(indexFile).get(jar)));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testChangedJar() throws Exception {
+		try {
+			File a = writeJar("a.jar", "a/A.class", "A");
+			File b = writeJar("b.jar", "b/B.class", "B");
+			File indexFile = new File(directory, "index");
+			
+			ClasspathIndex index = ClasspathIndex.read(indexFile);
+			index.put(a, new String[] { "a/A.class" });
+			index.put(b, new String[] { "b/B.class" });
+			index.write(indexFile);
+			
+			// Same size, other modification time.
+			b.setLastModified(OLD + 1000);
+			
+			index = ClasspathIndex.read(indexFile);
+			Assert.assertEquals("Names of a", Arrays.asList("a/A.class"), Arrays.asList(index.get(a)));
+			Assert.assertEquals("Names of b after touching it", null, index.get(b));
+			
+			// Other size, same modification time.
+			writeJar("a.jar", "a/AA.class", "A");
+			Assert.assertEquals("Names of a after changing it", null, index.get(a));
+			
+			// And the class loader does not trust the index either.
+			assertResource(a, indexFile, "a/AA.class", "A");
+			Assert.assertEquals("Names of a from the updated index", Arrays.asList("a/AA.class"), Arrays.asList(ClasspathIndex.read(indexFile).get(a)));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testRoundTrip() throws Exception {
+		try {
+			File a = writeJar("a.jar", "a/A.class", "A");
+			File b = writeJar("b.jar", "b/B.class", "B");
+			File gone = writeJar("gone.jar", "g/G.class", "G");
+			// Even a name which is too short as prefix of a temporary file
+			// must work.
+			File indexFile = new File(directory, "i");
+			
+			ClasspathIndex index = ClasspathIndex.read(indexFile);
+			Assert.assertEquals("Names from a missing index", null, index.get(a));
+			Assert.assertTrue("Changed", !index.isChanged());
+			
+			index.put(a, new String[] { "a/", "a/A.class", "\u00e4/\u00df.txt" });
+			index.put(b, new String[0]);
+			index.put(gone, new String[] { "g/G.class" });
+			Assert.assertTrue("Changed", index.isChanged());
+			
+			gone.delete();
+			index.write(indexFile);
+			Assert.assertTrue("Changed after writing", !index.isChanged());
+			
+			ClasspathIndex read = ClasspathIndex.read(indexFile);
+			Assert.assertEquals("Names of a", Arrays.asList("a/", "a/A.class", "\u00e4/\u00df.txt"), Arrays.asList(read.get(a)));
+			Assert.assertEquals("Names of b", Arrays.asList(), Arrays.asList(read.get(b)));
+			Assert.assertEquals("Names of a jar which is gone", null, read.get(gone));
+			
+			String[] names = directory.list();
+			Arrays.sort(names);
+			Assert.assertEquals("Files", Arrays.asList("a.jar", "b.jar", "i"), Arrays.asList(names));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	private void assertResource(File jar, File indexFile, String name, String contents) throws IOException {
+		IndexedClassLoader classLoader = new IndexedClassLoader(new URL[] { jar.toURI().toURL() }, null, indexFile);
+		try {
+			Assert.assertEquals(name, contents, new String(TestJars.readFully(classLoader.getResourceAsStream(name)), "UTF-8"));
+		} finally {
+			classLoader.close();
+		}
+	}
+	
+	private File writeJar(String name, String entry, String contents) throws IOException {
+		File jar = TestJars.writeJar(new File(directory, name), TestJars.entries(entry, contents), ZipEntry.STORED);
+		jar.setLastModified(OLD);
+		return jar;
+	}
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Tests that the {@link FileVerifier} reads only the files which have
+ * changed.
+ * <p/>
+ * A file which is rewritten with the same size and modification time is not
+ * read again, so the old hash shows that it has not been read.
+ */
+public final class FileVerifierTest {
+	
+	private static final long OLD = (System.currentTimeMillis() / 1000 - 3600) * 1000;
+	
+	private final File directory;
+	
+	public FileVerifierTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("fileverifier");
+	}
+	
+	public void testChangedModificationHashedAgain() throws Exception {
+		try {
+			File file = createFile("a", "first");
+			FileVerifier verifier = new FileVerifier(null);
+			String hash = verifier.hash(file);
+			
+			TestJars.writeFile(file, "other");
+			file.setLastModified(OLD + 1000);
+			
+			Assert.assertTrue("Hash has not changed", !hash.equals(verifier.hash(file)));
+			Assert.assertEquals("Hash", FileVerifier.hashContents(file), verifier.hash(file));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testChangedSizeHashedAgain() throws Exception {
+		try {
+			File file = createFile("a", "first");
+			FileVerifier verifier = new FileVerifier(null);
+			String hash = verifier.hash(file);
+			
+			TestJars.writeFile(file, "longer");
+			file.setLastModified(OLD);
+			
+			Assert.assertTrue("Hash has not changed", !hash.equals(verifier.hash(file)));
+			Assert.assertEquals("Hash", FileVerifier.hashContents(file), verifier.hash(file));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testFullHashesEverythingAgain() throws Exception {
+		try {
+			File a = createFile("a", "first");
+			File b = createFile("b", "second");
+			FileVerifier verifier = new FileVerifier(null);
+			verifier.hash(Arrays.asList(a, b));
+			
+			TestJars.writeFile(a, "other");
+			a.setLastModified(OLD);
+			TestJars.writeFile(b, "Second");
+			b.setLastModified(OLD);
+			
+			verifier.setFull(true);
+			Map<File, String> hashes = verifier.hash(Arrays.asList(a, b));
+			Assert.assertEquals("Hash of a", FileVerifier.hashContents(a), hashes.get(a));
+			Assert.assertEquals("Hash of b", FileVerifier.hashContents(b), hashes.get(b));
+			
+			// The new hashes are remembered.
+			verifier.setFull(false);
+			Assert.assertTrue("Verified", verifier.verify(a, FileVerifier.hashContents(a)));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testUnchangedNotHashedAgain() throws Exception {
+		try {
+			File a = createFile("a", "first");
+			File b = createFile("b", "second");
+			// Even a name which is too short as prefix of a temporary file
+			// must work.
+			File hashesFile = new File(directory, "h");
+			
+			FileVerifier verifier = new FileVerifier(hashesFile.getPath());
+			Map<File, String> hashes = verifier.hash(Arrays.asList(a, b));
+			Assert.assertEquals("Hash of a", FileVerifier.hashContents(a), hashes.get(a));
+			Assert.assertEquals("Hash of b", FileVerifier.hashContents(b), hashes.get(b));
+			verifier.save();
+			
+			TestJars.writeFile(a, "other");
+			a.setLastModified(OLD);
+			
+			Assert.assertEquals("Hash of a", hashes.get(a), verifier.hash(a));
+			Assert.assertTrue("Verified", verifier.verify(a, hashes.get(a)));
+			
+			// Another instance remembers them, too.
+			FileVerifier other = new FileVerifier(hashesFile.getPath());
+			Assert.assertEquals("Remembered hashes", hashes, other.hash(Arrays.asList(a, b)));
+			
+			String[] names = directory.list();
+			Arrays.sort(names);
+			Assert.assertEquals("Files", Arrays.asList("a", "b", "h"), Arrays.asList(names));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	private File createFile(String name, String contents) throws IOException {
+		File file = new File(directory, name);
+		TestJars.writeFile(file, contents);
+		file.setLastModified(OLD);
+		return file;
+	}
+}
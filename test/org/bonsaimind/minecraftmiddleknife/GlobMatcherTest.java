@@ -0,0 +1,107 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+/**
+ * Tests the wildcards of the {@link GlobMatcher} and that the first added
+ * pattern wins.
+ */
+public final class GlobMatcherTest {
+	
+	public void testAnyDirectories() {
+		assertMatches("**/b", "b", "a/b", "a/c/b");
+		assertNotMatches("**/b", "ab", "a/bc", "a/b/c");
+		
+		assertMatches("a/**/b", "a/b", "a/x/b", "a/x/y/b");
+		assertNotMatches("a/**/b", "ab", "a/xb", "xa/b");
+		
+		// Only whole directories can be left out.
+		assertMatches("x**/y", "x/y", "xa/y", "xa/b/y");
+		assertNotMatches("x**/y", "xy", "xay", "x/ay");
+		assertMatches("a/x**/y", "a/x/y", "a/xa/b/y");
+		assertNotMatches("a/x**/y", "a/xy");
+	}
+	
+	public void testAnyNames() {
+		assertMatches("a/**", "a/", "a/b", "a/b/c");
+		assertNotMatches("a/**", "a", "b/a");
+		
+		assertMatches("a**b", "ab", "axb", "a/x/b");
+		assertNotMatches("a**b", "a", "axbx");
+	}
+	
+	public void testFirstAddedWins() {
+		GlobMatcher matcher = new GlobMatcher();
+		Assert.assertEquals("Index", 0, matcher.add("a/*.class"));
+		Assert.assertEquals("Index", 1, matcher.add("a/**"));
+		Assert.assertEquals("Index", 2, matcher.add("a/B.class"));
+		Assert.assertEquals("Index", 3, matcher.add("a/*.class"));
+		Assert.assertEquals("Patterns", 4, matcher.getPatternCount());
+		
+		Assert.assertEquals("a/B.class", 0, matcher.match("a/B.class"));
+		Assert.assertEquals("a/b/C.class", 1, matcher.match("a/b/C.class"));
+		Assert.assertEquals("a/B.txt", 1, matcher.match("a/B.txt"));
+		Assert.assertEquals("b/B.class", -1, matcher.match("b/B.class"));
+	}
+	
+	public void testLiterals() {
+		assertMatches("META-INF/MANIFEST.MF", "META-INF/MANIFEST.MF");
+		assertNotMatches("META-INF/MANIFEST.MF", "META-INF/MANIFEST.M", "META-INF/MANIFEST.MFX", "meta-inf/manifest.mf");
+		
+		Assert.assertEquals("Without patterns", -1, new GlobMatcher().match("a"));
+	}
+	
+	public void testSingleCharacter() {
+		assertMatches("a?c", "abc", "a.c");
+		assertNotMatches("a?c", "ac", "abbc", "a/c");
+	}
+	
+	public void testSingleDirectory() {
+		assertMatches("META-INF/*.SF", "META-INF/.SF", "META-INF/A.SF", "META-INF/A.B.SF");
+		assertNotMatches("META-INF/*.SF", "META-INF/a/A.SF", "META-INF/A.SFX", "A.SF");
+		
+		assertMatches("*", "", "a", "abc");
+		assertNotMatches("*", "a/", "a/b");
+	}
+	
+	private static void assertMatches(String pattern, String... names) {
+		GlobMatcher matcher = new GlobMatcher();
+		matcher.add(pattern);
+		for (String name : names) {
+			Assert.assertEquals(pattern + " matches " + name, 0, matcher.match(name));
+		}
+	}
+	
+	private static void assertNotMatches(String pattern, String... names) {
+		GlobMatcher matcher = new GlobMatcher();
+		matcher.add(pattern);
+		for (String name : names) {
+			Assert.assertEquals(pattern + " does not match " + name, -1, matcher.match(name));
+		}
+	}
+}
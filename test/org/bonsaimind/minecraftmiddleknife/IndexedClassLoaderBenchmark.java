@@ -0,0 +1,223 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+
+/**
+ * Compares the {@link IndexedClassLoader} with the {@link java.net.URLClassLoader}
+ * on a synthetic class path of 100 jars, like the libraries of a modded
+ * client, when loading from one thread and from multiple threads.
+ */
+public final class IndexedClassLoaderBenchmark {
+	
+	private static final int CLASSES = 20;
+	private static final int JARS = 100;
+	private static final int PACKAGES = 3;
+	private static final int RUNS = 10;
+	private static final int WARMUPS = 2;
+	
+	private final List<String> classNames = new ArrayList<String>();
+	private final File directory;
+	private final List<File> jars = new ArrayList<File>();
+	
+	public IndexedClassLoaderBenchmark() throws IOException {
+		directory = TestJars.createTemporaryDirectory("classpath");
+		
+		for (int jarIdx = 0; jarIdx < JARS; jarIdx++) {
+			Map<String, byte[]> classes = TestJars.createClasses("lib" + jarIdx + "/p", PACKAGES, CLASSES, "", jarIdx);
+			for (String entryName : classes.keySet()) {
+				classNames.add(entryName.substring(0, entryName.length() - ".class".length()).replace('/', '.'));
+			}
+			jars.add(TestJars.writeJar(new File(directory, "lib" + jarIdx + ".jar"), classes, ZipEntry.DEFLATED));
+		}
+		
+		// Classes are needed in no particular order of the jars.
+		Collections.shuffle(classNames, new Random(42));
+	}
+	
+	public void benchmarkParallelLoading() throws Exception {
+		try {
+			final ClassLoaderCreator creator = createCreator();
+			int threads = Math.max(4, Runtime.getRuntime().availableProcessors());
+			
+			System.out.println(classNames.size() + " classes in " + JARS + " jars:");
+			for (final int threadCount : new int[] { 1, threads }) {
+				long nanos = Timing.measure("URLClassLoader, " + threadCount + " threads", WARMUPS, RUNS, new Timing.Task() {
+					@Override
+					public void run() throws Exception {
+						loadInParallel(creator.createClassLoader(), threadCount);
+					}
+				});
+				Timing.printRate(classNames.size(), "classes", nanos);
+				
+				nanos = Timing.measure("IndexedClassLoader, " + threadCount + " threads", WARMUPS, RUNS, new Timing.Task() {
+					@Override
+					public void run() throws Exception {
+						loadInParallel(creator.createIndexedClassLoader(), threadCount);
+					}
+				});
+				Timing.printRate(classNames.size(), "classes", nanos);
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void benchmarkStartup() throws Exception {
+		try {
+			System.out.println(classNames.size() + " classes in " + JARS + " jars:");
+			
+			final ClassLoaderCreator creator = createCreator();
+			final ClassLoaderCreator indexedCreator = createCreator();
+			indexedCreator.setIndexFile(new File(directory, "index").getPath());
+			
+			long nanos = Timing.measure("URLClassLoader", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					loadAll(creator.createClassLoader());
+				}
+			});
+			Timing.printRate(classNames.size(), "classes", nanos);
+			
+			nanos = Timing.measure("IndexedClassLoader", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					loadAll(creator.createIndexedClassLoader());
+				}
+			});
+			Timing.printRate(classNames.size(), "classes", nanos);
+			
+			nanos = Timing.measure("IndexedClassLoader, cached index", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					loadAll(indexedCreator.createIndexedClassLoader());
+				}
+			});
+			Timing.printRate(classNames.size(), "classes", nanos);
+			
+			// The cached index only saves reading the central directories up
+			// front, the jars are still opened once a class is needed.
+			Timing.measure("IndexedClassLoader, construction", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					creator.createIndexedClassLoader().close();
+				}
+			});
+			Timing.measure("IndexedClassLoader, cached, construction", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					indexedCreator.createIndexedClassLoader().close();
+				}
+			});
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	private ClassLoaderCreator createCreator() throws IOException {
+		ClassLoaderCreator creator = new ClassLoaderCreator();
+		for (File jar : jars) {
+			creator.add(jar);
+		}
+		return creator;
+	}
+	
+	/**
+	 * Loads all classes and looks up a missing resource for every one of
+	 * them, then closes the given {@link ClassLoader}.
+	 */
+	private void loadAll(ClassLoader classLoader) throws Exception {
+		try {
+			for (String className : classNames) {
+				load(classLoader, className);
+			}
+		} finally {
+			close(classLoader);
+		}
+	}
+	
+	/**
+	 * Does the same as {@link #loadAll(ClassLoader)}, but spreads the classes
+	 * over the given number of threads, so that every thread loads classes
+	 * from all jars.
+	 */
+	private void loadInParallel(final ClassLoader classLoader, final int threads) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>(threads);
+			for (int threadIdx = 0; threadIdx < threads; threadIdx++) {
+				final int offset = threadIdx;
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int idx = offset; idx < classNames.size(); idx += threads) {
+							load(classLoader, classNames.get(idx));
+						}
+						return null;
+					}
+				}));
+			}
+			
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+		} finally {
+			executor.shutdown();
+			close(classLoader);
+		}
+	}
+	
+	private static void close(ClassLoader classLoader) throws IOException {
+		if (classLoader instanceof Closeable) {
+			((Closeable) classLoader).close();
+		}
+	}
+	
+	private static void load(ClassLoader classLoader, String className) throws ClassNotFoundException {
+		Class<?> clazz = classLoader.loadClass(className);
+		URL location = clazz.getProtectionDomain().getCodeSource().getLocation();
+		String jarName = className.substring(0, className.indexOf('.')) + ".jar";
+		Assert.assertTrue(className + " from " + location, location.getPath().endsWith("/" + jarName));
+		
+		Assert.assertEquals("Missing resource", null, classLoader.getResource(className.replace('.', '/') + ".txt"));
+	}
+}
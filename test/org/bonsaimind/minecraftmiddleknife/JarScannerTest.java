@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that the {@link JarScanner} finds the right jars, always in the same
+ * order.
+ */
+public final class JarScannerTest {
+	
+	private final File directory;
+	
+	public JarScannerTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("jarscanner");
+	}
+	
+	public void testClassLoaderCreator() throws Exception {
+		try {
+			createTree();
+			
+			ClassLoaderCreator creator = new ClassLoaderCreator();
+			creator.addExclude("**/natives/");
+			creator.setThreads(2);
+			creator.addRecursively(directory.getPath());
+			Assert.assertEquals("Classpath", files("a.jar", "b.jar", "0/w.jar", "a/z.jar", "a/c/y.jar", "b/x.jar", "dir.jar/v.jar"), creator.getClasspath());
+			
+			try {
+				creator.addRecursively(new File(directory, "missing"));
+				Assert.fail("A missing directory has been accepted.");
+			} catch (MalformedURLException e) {
+				Assert.assertTrue("Cause is an IOException", e.getCause() instanceof IOException);
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testExcludesAndIncludes() throws Exception {
+		try {
+			createTree();
+			
+			for (int threads : new int[] { 0, 4 }) {
+				Assert.assertEquals("Excluded with " + threads + " threads", files("b.jar", "0/w.jar", "b/x.jar", "dir.jar/v.jar"),
+						new JarScanner(Collections.<String>emptyList(), Arrays.asList("a*", "a/", "**/natives/"), threads).scan(directory));
+				Assert.assertEquals("Included with " + threads + " threads", files("a/z.jar", "a/c/y.jar", "natives/n.jar"),
+						new JarScanner(Arrays.asList("a/**", "natives/*.jar"), Collections.<String>emptyList(), threads).scan(directory));
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testOrder() throws Exception {
+		try {
+			createTree();
+			
+			// The jars of a directory come before its subdirectories, and
+			// everything is sorted by name.
+			List<File> expected = files("a.jar", "b.jar", "0/w.jar", "a/z.jar", "a/c/y.jar", "b/x.jar", "dir.jar/v.jar", "natives/n.jar");
+			for (int threads : new int[] { 0, 1, 4 }) {
+				Assert.assertEquals("Jars with " + threads + " threads", expected, new JarScanner(Collections.<String>emptyList(), Collections.<String>emptyList(), threads).scan(directory));
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testUnlistableDirectory() throws Exception {
+		try {
+			for (int threads : new int[] { 0, 4 }) {
+				try {
+					new JarScanner(Collections.<String>emptyList(), Collections.<String>emptyList(), threads).scan(new File(directory, "missing"));
+					Assert.fail("A missing directory has been accepted with " + threads + " threads.");
+				} catch (IOException e) {
+					// Expected.
+				}
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	/**
+	 * Creates the jars in an order that is unlikely to be the one in which
+	 * they are listed.
+	 */
+	private void createTree() throws IOException {
+		for (String path : new String[] { "b/x.jar", "natives/n.jar", "b.jar", "a/z.jar", "a/c/y.jar", "a.jar", "dir.jar/v.jar", "0/w.jar" }) {
+			File file = new File(directory, path);
+			file.getParentFile().mkdirs();
+			TestJars.writeFile(file, "");
+		}
+		TestJars.writeFile(new File(directory, "a/readme.txt"), "");
+	}
+	
+	private List<File> files(String... paths) {
+		List<File> files = new ArrayList<File>();
+		for (String path : paths) {
+			files.add(new File(directory, path));
+		}
+		return files;
+	}
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that the {@link LibraryStore} stores every file once and replaces
+ * the copies with hard links where it can.
+ */
+public final class LibraryStoreTest {
+	
+	private final File directory;
+	
+	public LibraryStoreTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("librarystore");
+	}
+	
+	public void testDeduplicate() throws Exception {
+		try {
+			// Even a name which is too short as prefix of a temporary file
+			// must work.
+			File first = createFile("first/l", "library");
+			File second = createFile("second/l", "library");
+			LibraryStore store = new LibraryStore(new File(directory, "store").getPath());
+			
+			File stored = store.deduplicate(first);
+			Assert.assertEquals("Stored file", stored, store.deduplicate(second));
+			Assert.assertEquals("Stored file again", stored, store.deduplicate(second));
+			
+			String fileKey = FileOperations.getFileKey(stored);
+			if (fileKey != null) {
+				Assert.assertEquals("File key of the first copy", fileKey, FileOperations.getFileKey(first));
+				Assert.assertEquals("File key of the second copy", fileKey, FileOperations.getFileKey(second));
+			}
+			
+			Assert.assertEquals("First copy", Arrays.asList("library"), TestJars.readLines(first));
+			Assert.assertEquals("Second copy", Arrays.asList("library"), TestJars.readLines(second));
+			Assert.assertEquals("Files of the first instance", Arrays.asList("l"), Arrays.asList(first.getParentFile().list()));
+			Assert.assertEquals("Files of the second instance", Arrays.asList("l"), Arrays.asList(second.getParentFile().list()));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testFailedLink() throws Exception {
+		// Links can not cross file systems, so the store has to be on another
+		// one than the instance.
+		File otherFileSystem = new File("/dev/shm");
+		if (!otherFileSystem.isDirectory() || !otherFileSystem.canWrite()) {
+			return;
+		}
+		
+		File storeDirectory = File.createTempFile("librarystore", "", otherFileSystem);
+		try {
+			storeDirectory.delete();
+			
+			File file = createFile("instance/library.jar", "library");
+			String fileKey = FileOperations.getFileKey(file);
+			long lastModified = file.lastModified();
+			
+			LibraryStore store = new LibraryStore(storeDirectory.getPath());
+			File stored = store.deduplicate(file);
+			if (FileOperations.getFileKey(stored) != null && FileOperations.getFileKey(stored).equals(fileKey)) {
+				Assert.fail("The store is on the same file system.");
+			}
+			
+			Assert.assertEquals("Contents", Arrays.asList("library"), TestJars.readLines(file));
+			Assert.assertEquals("File key", fileKey, FileOperations.getFileKey(file));
+			Assert.assertEquals("Modification", lastModified, file.lastModified());
+			Assert.assertEquals("Files of the instance", Arrays.asList("library.jar"), Arrays.asList(file.getParentFile().list()));
+			Assert.assertEquals("Stored contents", Arrays.asList("library"), TestJars.readLines(stored));
+		} finally {
+			TestJars.delete(storeDirectory);
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testStoredOnce() throws Exception {
+		try {
+			File first = createFile("first/library.jar", "library");
+			File second = createFile("second/renamed.jar", "library");
+			File other = createFile("second/other.jar", "other");
+			LibraryStore store = new LibraryStore(new File(directory, "store").getPath());
+			
+			File stored = store.store(first);
+			Assert.assertEquals("Stored file", stored, store.store(second));
+			File storedOther = store.store(other);
+			Assert.assertTrue("Stored file of another file", !stored.equals(storedOther));
+			
+			Assert.assertEquals("Name", FileVerifier.hashContents(first), stored.getName());
+			Assert.assertEquals("Stored file by hash", stored, store.get(stored.getName()));
+			Assert.assertEquals("Stored file by upper case hash", stored, store.get(stored.getName().toUpperCase()));
+			Assert.assertEquals("Stored file of an unknown hash", null, store.get("0000000000000000000000000000000000000000"));
+			Assert.assertEquals("Stored contents", Arrays.asList("library"), TestJars.readLines(stored));
+			
+			// Storing leaves the copies as they are.
+			String fileKey = FileOperations.getFileKey(stored);
+			if (fileKey != null) {
+				Assert.assertTrue("First copy has been linked", !fileKey.equals(FileOperations.getFileKey(first)));
+			}
+			
+			List<String> expected = Arrays.asList(".hashes", stored.getParentFile().getName() + "/" + stored.getName(), storedOther.getParentFile().getName() + "/" + storedOther.getName());
+			Collections.sort(expected);
+			List<String> files = new ArrayList<String>();
+			collect(new File(store.getDirectory()), "", files);
+			Collections.sort(files);
+			Assert.assertEquals("Files of the store", expected, files);
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	private File createFile(String path, String contents) throws IOException {
+		File file = new File(directory, path);
+		file.getParentFile().mkdirs();
+		TestJars.writeFile(file, contents);
+		return file;
+	}
+	
+	private static void collect(File directory, String path, List<String> files) {
+		for (File file : directory.listFiles()) {
+			if (file.isDirectory()) {
+				collect(file, path + file.getName() + "/", files);
+			} else {
+				files.add(path + file.getName());
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.ZipEntry;
+
+/**
+ * Tests that the {@link NativeCache} extracts the natives only once and
+ * replaces only the libraries which have changed since.
+ */
+public final class NativeCacheTest {
+	
+	private static final long OLD = (System.currentTimeMillis() / 1000 - 3600) * 1000;
+	
+	private final File directory;
+	
+	public NativeCacheTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("nativecache");
+	}
+	
+	public void testOnlyChangedExtractedAgain() throws Exception {
+		try {
+			List<File> jars = createJars();
+			NativeCache cache = createCache();
+			
+			File natives = cache.extract(jars);
+			File changed = new File(natives, "libb.so");
+			for (File file : libraries(natives)) {
+				file.setLastModified(OLD);
+			}
+			
+			TestJars.writeFile(changed, "corrupted");
+			InputStream holder = new FileInputStream(changed);
+			try {
+				Assert.assertEquals("Directory", natives, cache.extract(jars));
+				
+				Assert.assertEquals("Contents", "b", TestJars.readLines(changed).get(0));
+				Assert.assertEquals("Modification of liba.so", OLD, new File(natives, "liba.so").lastModified());
+				Assert.assertEquals("Modification of sub/libc.so", OLD, new File(natives, "sub/libc.so").lastModified());
+				
+				// The old file has been replaced and not rewritten, whoever
+				// had it open still sees the old contents.
+				Assert.assertEquals("Contents seen by the holder", "corrupted", new String(TestJars.readFully(holder), "UTF-8"));
+			} finally {
+				holder.close();
+			}
+			
+			List<String> names = Arrays.asList(natives.list());
+			Collections.sort(names);
+			Assert.assertEquals("Files", Arrays.asList(".listing", "liba.so", "libb.so", "sub"), names);
+			Assert.assertEquals("Files in sub", Arrays.asList("libc.so"), Arrays.asList(new File(natives, "sub").list()));
+			
+			// And a new cache sees the same.
+			Assert.assertEquals("Directory", natives, createCache().extract(jars));
+			Assert.assertEquals("Modification of liba.so", OLD, new File(natives, "liba.so").lastModified());
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testUnchangedNotExtractedAgain() throws Exception {
+		try {
+			List<File> jars = createJars();
+			NativeCache cache = createCache();
+			
+			File natives = cache.extract(jars);
+			Assert.assertEquals("Contents of liba.so", Arrays.asList("a"), TestJars.readLines(new File(natives, "liba.so")));
+			Assert.assertEquals("Contents of libb.so", Arrays.asList("b"), TestJars.readLines(new File(natives, "libb.so")));
+			Assert.assertEquals("Contents of sub/libc.so", Arrays.asList("c"), TestJars.readLines(new File(natives, "sub/libc.so")));
+			Assert.assertTrue("META-INF has been extracted", !new File(natives, "META-INF").exists());
+			
+			for (File file : libraries(natives)) {
+				file.setLastModified(OLD);
+			}
+			
+			Assert.assertEquals("Directory", natives, cache.extract(jars));
+			for (File file : libraries(natives)) {
+				Assert.assertEquals("Modification of " + file, OLD, file.lastModified());
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	private NativeCache createCache() {
+		return new NativeCache(new File(directory, "cache"), 2, new FileVerifier(new File(directory, "hashes").getPath()));
+	}
+	
+	private List<File> createJars() throws IOException {
+		return Arrays.asList(
+				TestJars.writeJar(new File(directory, "a.jar"), TestJars.entries("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\n", "liba.so", "a", "libb.so", "old"), ZipEntry.DEFLATED),
+				TestJars.writeJar(new File(directory, "b.jar"), TestJars.entries("libb.so", "b", "sub/libc.so", "c"), ZipEntry.STORED));
+	}
+	
+	private static List<File> libraries(File natives) {
+		return Arrays.asList(new File(natives, "liba.so"), new File(natives, "libb.so"), new File(natives, "sub/libc.so"));
+	}
+}
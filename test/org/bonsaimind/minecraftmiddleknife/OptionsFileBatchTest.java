@@ -0,0 +1,96 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tests that the {@link OptionsFileBatch} patches every file and reports
+ * which of them have changed.
+ */
+public final class OptionsFileBatchTest {
+	
+	private final File directory;
+	
+	public OptionsFileBatchTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("batch");
+	}
+	
+	public void testApply() throws Exception {
+		try {
+			List<String> paths = new ArrayList<String>();
+			for (int idx = 0; idx < 20; idx++) {
+				File instance = new File(directory, "instance" + idx);
+				instance.mkdir();
+				if (idx % 2 == 0) {
+					TestJars.writeFile(new File(instance, OptionsFile.FILENAME), "fboEnable:false\nlastServer:host:25565\nrenderDistance:12\n");
+				} else {
+					// Already patched, without a trailing line break, which
+					// would be added if it was written.
+					TestJars.writeFile(new File(instance, OptionsFile.FILENAME), "fboEnable:true\nlastServer:host:25565\nrenderDistance:8");
+				}
+				paths.add(instance.getPath());
+			}
+			
+			// A name shorter than the prefix of a temporary file, and a file
+			// which does not exist.
+			TestJars.writeFile(new File(directory, "o"), "fboEnable:false\n");
+			paths.add(new File(directory, "o").getPath());
+			paths.add(new File(directory, "missing.txt").getPath());
+			
+			OptionsFileBatch batch = new OptionsFileBatch(Arrays.asList("fboEnable:true", "renderDistance:8", "unknown:1"));
+			batch.setThreads(4);
+			List<OptionsFileBatch.Result> results = batch.apply(paths);
+			
+			Assert.assertEquals("Results", paths.size(), results.size());
+			for (int idx = 0; idx < 20; idx++) {
+				OptionsFileBatch.Result result = results.get(idx);
+				File file = new File(paths.get(idx), OptionsFile.FILENAME);
+				Assert.assertEquals("Path of " + idx, file.getAbsolutePath(), result.getPath());
+				Assert.assertEquals("Exception of " + idx, null, result.getException());
+				Assert.assertEquals("Changed " + idx, Boolean.valueOf(idx % 2 == 0), Boolean.valueOf(result.isChanged()));
+				
+				if (idx % 2 == 0) {
+					Assert.assertEquals("Contents of " + idx, Arrays.asList("fboEnable:true", "lastServer:host:25565", "renderDistance:8"), TestJars.readLines(file));
+				} else {
+					Assert.assertEquals("Length of " + idx, 53, file.length());
+				}
+			}
+			
+			Assert.assertEquals("Exception of o", null, results.get(20).getException());
+			Assert.assertEquals("Contents of o", Arrays.asList("fboEnable:true"), TestJars.readLines(new File(directory, "o")));
+			Assert.assertTrue("No exception for the missing file", results.get(21).getException() != null);
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the {@link OptionsFile} with the implementation it replaced,
+ * which split every line with a regular expression and kept the keys and
+ * values in two lists.
+ */
+public final class OptionsFileBenchmark {
+	
+	private static final int FILES = 500;
+	private static final int INSTANCES = 1000;
+	private static final int LINES = 200;
+	private static final int OVERRIDES = 300;
+	private static final int RUNS = 11;
+	// Reading a file is so short that it takes a few dozen runs until
+	// everything has been compiled.
+	private static final int WARMUPS = 30;
+	
+	private final File directory;
+	private final List<String> keys = new ArrayList<String>();
+	
+	public OptionsFileBenchmark() throws IOException {
+		directory = TestJars.createTemporaryDirectory("options");
+	}
+	
+	public void benchmarkRead() throws Exception {
+		try {
+			final List<File> files = new ArrayList<File>(FILES);
+			for (int idx = 0; idx < FILES; idx++) {
+				files.add(writeOptionsFile(new File(directory, "options" + idx + ".txt")));
+			}
+			
+			System.out.println("Reading " + FILES + " files of " + LINES + " lines:");
+			
+			long nanos = Timing.measure("Split lines (before)", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					ListOptionsFile listOptionsFile = new ListOptionsFile();
+					for (File file : files) {
+						listOptionsFile.read(file);
+					}
+				}
+			});
+			Timing.printRate(FILES * LINES, "lines", nanos);
+			
+			nanos = Timing.measure("OptionsFile", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					OptionsFile optionsFile = new OptionsFile();
+					for (File file : files) {
+						optionsFile.read(file.getPath());
+					}
+					Assert.assertEquals("lastServer", "mc.example.com:25565", optionsFile.getOption("lastServer"));
+				}
+			});
+			Timing.printRate(FILES * LINES, "lines", nanos);
+			
+			nanos = Timing.measure("OptionsFile, reused buffer", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					OptionsFile optionsFile = new OptionsFile();
+					ByteBuffer buffer = null;
+					for (File file : files) {
+						buffer = optionsFile.read(file, buffer);
+					}
+				}
+			});
+			Timing.printRate(FILES * LINES, "lines", nanos);
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void benchmarkSetOptions() throws Exception {
+		try {
+			File file = writeOptionsFile(new File(directory, OptionsFile.FILENAME));
+			
+			// Mostly existing options in another order, some unknown ones.
+			Random random = new Random(42);
+			final List<String> overrides = new ArrayList<String>(OVERRIDES);
+			for (String key : keys) {
+				overrides.add(key + ":" + random.nextInt(100));
+			}
+			while (overrides.size() < OVERRIDES) {
+				overrides.add("unknown" + overrides.size() + ":" + random.nextInt(100));
+			}
+			Collections.shuffle(overrides, random);
+			
+			final List<OptionsFile> optionsFiles = new ArrayList<OptionsFile>(INSTANCES);
+			final List<ListOptionsFile> listOptionsFiles = new ArrayList<ListOptionsFile>(INSTANCES);
+			for (int idx = 0; idx < INSTANCES; idx++) {
+				OptionsFile optionsFile = new OptionsFile();
+				optionsFile.read(file.getPath());
+				optionsFiles.add(optionsFile);
+				
+				ListOptionsFile listOptionsFile = new ListOptionsFile();
+				listOptionsFile.read(file);
+				listOptionsFiles.add(listOptionsFile);
+			}
+			
+			System.out.println(OVERRIDES + " overrides and " + LINES + " lookups on " + INSTANCES + " files of " + LINES + " lines:");
+			
+			long nanos = Timing.measure("Lists (before)", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					for (ListOptionsFile listOptionsFile : listOptionsFiles) {
+						listOptionsFile.setOptions(overrides);
+						for (String key : keys) {
+							Assert.assertTrue(key, listOptionsFile.getOption(key) != null);
+						}
+					}
+				}
+			});
+			Timing.printRate(INSTANCES, "files", nanos);
+			
+			nanos = Timing.measure("OptionsFile", WARMUPS, RUNS, new Timing.Task() {
+				@Override
+				public void run() throws Exception {
+					for (OptionsFile optionsFile : optionsFiles) {
+						optionsFile.setOptions(overrides);
+						for (String key : keys) {
+							Assert.assertTrue(key, optionsFile.getOption(key) != null);
+						}
+					}
+				}
+			});
+			Timing.printRate(INSTANCES, "files", nanos);
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	/**
+	 * Writes an options file that looks like the one of the client, and
+	 * remembers its keys.
+	 */
+	private File writeOptionsFile(File file) throws IOException {
+		Random random = new Random(1);
+		keys.clear();
+		Writer writer = new FileWriter(file);
+		try {
+			writer.write("lastServer:mc.example.com:25565\n");
+			keys.add("lastServer");
+			while (keys.size() < LINES) {
+				String key = "key_key.option" + keys.size();
+				writer.write(key + ":" + random.nextInt(1000) + "\n");
+				keys.add(key);
+			}
+		} finally {
+			writer.close();
+		}
+		return file;
+	}
+	
+	/**
+	 * How the {@link OptionsFile} used to look, two lists which had to be
+	 * searched for every key.
+	 */
+	private static final class ListOptionsFile {
+		
+		private List<String> keys = new ArrayList<String>();
+		private List<String> values = new ArrayList<String>();
+		
+		public ListOptionsFile() {
+		}
+		
+		public String getOption(String key) {
+			if (keys.contains(key)) {
+				return values.get(keys.indexOf(key));
+			}
+			
+			return null;
+		}
+		
+		public void read(File file) throws IOException {
+			keys.clear();
+			values.clear();
+			
+			BufferedReader reader = new BufferedReader(new FileReader(file));
+			
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] keyValue = line.split(Option.KEY_VALUE_SEPARATOR);
+				keys.add(keyValue[0]);
+				if (keyValue.length > 1) {
+					values.add(keyValue[1]);
+				} else {
+					values.add("");
+				}
+			}
+			
+			reader.close();
+		}
+		
+		public boolean setOption(String key, String value) {
+			if (keys.indexOf(key) >= 0) {
+				values.set(keys.indexOf(key), value);
+				return true;
+			}
+			
+			return false;
+		}
+		
+		public void setOptions(Iterable<String> options) {
+			for (String option : options) {
+				int splitIdx = option.indexOf(":");
+				if (splitIdx > 0) {
+					setOption(option.substring(0, splitIdx), option.substring(splitIdx + 1));
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Tests that the {@link OptionsFile} reads and writes the options like
+ * Minecraft does.
+ */
+public final class OptionsFileTest {
+	
+	private final File directory;
+	
+	public OptionsFileTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("options");
+	}
+	
+	public void testColonInValue() throws IOException {
+		try {
+			OptionsFile optionsFile = read("lastServer:mc.example.com:25565\nlang:en_US\n");
+			Assert.assertEquals("lastServer", "mc.example.com:25565", optionsFile.getOption("lastServer"));
+			Assert.assertEquals("lang", "en_US", optionsFile.getOption("lang"));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testDirty() throws IOException {
+		try {
+			OptionsFile optionsFile = read("a:1\nb:2\n");
+			Assert.assertTrue("Dirty after reading", !optionsFile.isDirty());
+			
+			optionsFile.setOption("a", "1");
+			Assert.assertTrue("Dirty after setting the same value", !optionsFile.isDirty());
+			
+			optionsFile.setOption("b", "3");
+			Assert.assertTrue("Not dirty after a change", optionsFile.isDirty());
+			Assert.assertTrue("b not dirty", optionsFile.isDirty("b"));
+			Assert.assertTrue("a dirty", !optionsFile.isDirty("a"));
+			
+			optionsFile.write(new File(directory, OptionsFile.FILENAME).getPath());
+			Assert.assertTrue("Dirty after writing", !optionsFile.isDirty());
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testLineEndings() throws IOException {
+		try {
+			OptionsFile optionsFile = read("a:1\r\nb:2\rc:3\n\nd:4");
+			Assert.assertEquals("a", "1", optionsFile.getOption("a"));
+			Assert.assertEquals("b", "2", optionsFile.getOption("b"));
+			Assert.assertEquals("c", "3", optionsFile.getOption("c"));
+			Assert.assertEquals("d", "4", optionsFile.getOption("d"));
+			Assert.assertEquals("Empty line", "", optionsFile.getOption(""));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testMissingValue() throws IOException {
+		try {
+			OptionsFile optionsFile = read("noValue\nempty:\n");
+			Assert.assertEquals("noValue", "", optionsFile.getOption("noValue"));
+			Assert.assertEquals("empty", "", optionsFile.getOption("empty"));
+			Assert.assertEquals("unknown", null, optionsFile.getOption("unknown"));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testNoTemporaryFilesLeft() throws IOException {
+		try {
+			OptionsFile optionsFile = read("a:1\n");
+			for (int idx = 0; idx < 3; idx++) {
+				optionsFile.setOption("a", Integer.toString(idx));
+				optionsFile.write(new File(directory, OptionsFile.FILENAME).getPath());
+			}
+			// Shorter than the shortest prefix of a temporary file.
+			optionsFile.write(new File(directory, "o").getPath());
+			
+			List<String> names = Arrays.asList(directory.list());
+			Collections.sort(names);
+			Assert.assertEquals("Files", Arrays.asList("o", OptionsFile.FILENAME), names);
+			Assert.assertEquals("Written lines", Arrays.asList("a:2"), TestJars.readLines(new File(directory, "o")));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testWriteAfterExternalChange() throws IOException {
+		try {
+			OptionsFile optionsFile = read("a:1\nb:2\n");
+			
+			File file = new File(directory, OptionsFile.FILENAME);
+			TestJars.writeFile(file, "a:1\nb:changed by somebody else\n");
+			file.setLastModified(file.lastModified() - 10000);
+			
+			optionsFile.write(file.getPath());
+			Assert.assertEquals("Written lines", Arrays.asList("a:1", "b:2"), TestJars.readLines(file));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testWriteSkippedIfUnchanged() throws IOException {
+		try {
+			// Without the trailing line break it would be there after writing.
+			OptionsFile optionsFile = read("a:1\nb:2");
+			File file = new File(directory, OptionsFile.FILENAME);
+			
+			optionsFile.write(file.getPath());
+			Assert.assertEquals("Length", 7, file.length());
+			
+			optionsFile.setOption("b", "3");
+			optionsFile.write(file.getPath());
+			Assert.assertEquals("Written lines", Arrays.asList("a:1", "b:3"), TestJars.readLines(file));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testWritePreservesOrder() throws IOException {
+		try {
+			OptionsFile optionsFile = read("c:1\nlastServer:host:25565\na:2\nb:3\n");
+			Assert.assertTrue("Existing option", optionsFile.setOption("a", "x:y"));
+			Assert.assertTrue("Unknown option", !optionsFile.setOption("unknown", "1"));
+			optionsFile.setOptions(Arrays.asList("b:4", "unknown:2", ":5"));
+			
+			File file = new File(directory, "written.txt");
+			optionsFile.write(file.getPath());
+			
+			Assert.assertEquals("Written lines", Arrays.asList("c:1", "lastServer:host:25565", "a:x:y", "b:4"), TestJars.readLines(file));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	private OptionsFile read(String contents) throws IOException {
+		File file = new File(directory, OptionsFile.FILENAME);
+		TestJars.writeFile(file, contents);
+		
+		OptionsFile optionsFile = new OptionsFile();
+		optionsFile.read(file.getPath());
+		return optionsFile;
+	}
+}
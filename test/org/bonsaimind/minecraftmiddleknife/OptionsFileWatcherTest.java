@@ -0,0 +1,244 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that the {@link OptionsFileWatcher} reports changed options, with
+ * and without its watching thread.
+ * <p/>
+ * Every replacement changes the length of the file, the modification time
+ * might only have a resolution of a second.
+ */
+public final class OptionsFileWatcherTest {
+	
+	private static final long TIMEOUT = 10000;
+	
+	private final File directory;
+	
+	public OptionsFileWatcherTest() throws IOException {
+		directory = TestJars.createTemporaryDirectory("optionsfilewatcher");
+	}
+	
+	public void testChangeDetected() throws Exception {
+		try {
+			File first = createOptions("first", "a:1\nb:2\n");
+			File second = createOptions("second", "a:1\n");
+			
+			OptionsFileWatcher watcher = new OptionsFileWatcher(50);
+			Recorder recorder = new Recorder();
+			watcher.addListener(recorder);
+			watcher.watch(first.getParent());
+			watcher.watch(second.getPath());
+			Assert.assertEquals("Options", map("a", "1", "b", "2"), watcher.getOptions(first.getPath()));
+			
+			watcher.poll();
+			Assert.assertEquals("Changes without a change", 0, recorder.changes.size());
+			
+			replace(first, "a:1\nb:3\nc:4\n");
+			replace(second, "");
+			watcher.poll();
+			
+			Map<String, Map<String, String>> changes = new HashMap<String, Map<String, String>>();
+			recorder.drainTo(changes);
+			Assert.assertEquals("Changes of " + first, map("b", "3", "c", "4"), changes.get(first.getPath()));
+			Assert.assertEquals("Changes of " + second, map("a", null), changes.get(second.getPath()));
+			Assert.assertEquals("Options", map("a", "1", "b", "3", "c", "4"), watcher.getOptions(first.getPath()));
+			
+			watcher.unwatch(second.getPath());
+			Assert.assertEquals("Options of an unwatched file", null, watcher.getOptions(second.getPath()));
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testDirectoryRecreated() throws Exception {
+		try {
+			File file = createOptions("instance", "a:1\n");
+			
+			OptionsFileWatcher watcher = new OptionsFileWatcher(50);
+			Recorder recorder = new Recorder();
+			watcher.addListener(recorder);
+			watcher.watch(file.getPath());
+			watcher.start();
+			try {
+				TestJars.delete(file.getParentFile());
+				
+				// Give the watcher the chance to notice that the directory is
+				// gone before it is back.
+				Thread.sleep(500);
+				
+				createOptions("instance", "a:22\n");
+				recorder.await(file, map("a", "22"));
+			} finally {
+				watcher.stop();
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testListenerIsolated() throws Exception {
+		try {
+			File file = createOptions("instance", "a:1\n");
+			
+			OptionsFileWatcher watcher = new OptionsFileWatcher(50);
+			watcher.addListener(new OptionsFileWatcher.Listener() {
+				public void optionsChanged(String path, Map<String, String> changes) {
+					throw new IllegalStateException("Broken listener.");
+				}
+			});
+			Recorder recorder = new Recorder();
+			watcher.addListener(recorder);
+			watcher.watch(file.getPath());
+			
+			replace(file, "a:22\n");
+			watcher.poll();
+			recorder.await(file, map("a", "22"));
+			
+			// And the watching thread survives it, too.
+			watcher.start();
+			try {
+				replace(file, "a:333\n");
+				recorder.await(file, map("a", "333"));
+				
+				replace(file, "a:4444\n");
+				recorder.await(file, map("a", "4444"));
+				Assert.assertTrue("Running", watcher.isRunning());
+			} finally {
+				watcher.stop();
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	public void testStop() throws Exception {
+		try {
+			File file = createOptions("instance", "a:1\n");
+			
+			OptionsFileWatcher watcher = new OptionsFileWatcher(50);
+			Recorder recorder = new Recorder();
+			watcher.addListener(recorder);
+			watcher.watch(file.getPath());
+			
+			watcher.start();
+			Assert.assertTrue("Running", watcher.isRunning());
+			replace(file, "a:22\n");
+			recorder.await(file, map("a", "22"));
+			
+			watcher.stop();
+			Assert.assertTrue("Running", !watcher.isRunning());
+			
+			replace(file, "a:333\n");
+			Thread.sleep(500);
+			Assert.assertEquals("Changes after stop()", 0, recorder.changes.size());
+			
+			// It can be started again.
+			watcher.start();
+			try {
+				recorder.await(file, map("a", "333"));
+			} finally {
+				watcher.stop();
+			}
+		} finally {
+			TestJars.delete(directory);
+		}
+	}
+	
+	private File createOptions(String instance, String contents) throws IOException {
+		File instanceDirectory = new File(directory, instance);
+		instanceDirectory.mkdirs();
+		
+		File file = new File(instanceDirectory, OptionsFile.FILENAME);
+		replace(file, contents);
+		return file;
+	}
+	
+	/**
+	 * Replaces the given file as a whole, like {@link OptionsFile} does,
+	 * otherwise the watcher might see it half written.
+	 */
+	private static void replace(File file, String contents) throws IOException {
+		File temporaryFile = new File(file.getPath() + ".tmp");
+		TestJars.writeFile(temporaryFile, contents);
+		Assert.assertTrue("Replaced " + file, temporaryFile.renameTo(file));
+	}
+	
+	private static Map<String, String> map(String... keysAndValues) {
+		Map<String, String> map = new HashMap<String, String>();
+		for (int idx = 0; idx < keysAndValues.length; idx += 2) {
+			map.put(keysAndValues[idx], keysAndValues[idx + 1]);
+		}
+		return map;
+	}
+	
+	/**
+	 * Records all changes it is told about.
+	 */
+	private static final class Recorder implements OptionsFileWatcher.Listener {
+		
+		private final BlockingQueue<Object[]> changes = new LinkedBlockingQueue<Object[]>();
+		
+		public Recorder() {
+		}
+		
+		/**
+		 * Waits until the given changes of the given file are reported.
+		 */
+		public void await(File file, Map<String, String> expected) throws InterruptedException {
+			Object[] change = changes.poll(TIMEOUT, TimeUnit.MILLISECONDS);
+			if (change == null) {
+				Assert.fail("No changes of " + file + " have been reported.");
+			}
+			Assert.assertEquals("Path", file.getPath(), change[0]);
+			Assert.assertEquals("Changes of " + file, expected, change[1]);
+		}
+		
+		public void drainTo(Map<String, Map<String, String>> target) {
+			Object[] change;
+			while ((change = changes.poll()) != null) {
+				@SuppressWarnings("unchecked")
+				Map<String, String> options = (Map<String, String>) change[1];
+				target.put((String) change[0], options);
+			}
+		}
+		
+		public void optionsChanged(String path, Map<String, String> changes) {
+			this.changes.add(new Object[] { path, Collections.unmodifiableMap(new HashMap<String, String>(changes)) });
+		}
+	}
+}
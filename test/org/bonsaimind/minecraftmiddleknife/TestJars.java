@@ -0,0 +1,311 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Creates and reads the jars, class files and other files used by the tests
+ * and benchmarks.
+ * <p/>
+ * The classes are real, if empty, class files, so they can be loaded, and
+ * they are padded to the size of a typical small class. The padding differs
+ * per variant, so the same class from two jars can be told apart.
+ */
+final class TestJars {
+	
+	private static final int CLASS_FILE_VERSION = 50; // Java 6
+	
+	private TestJars() {
+	}
+	
+	/**
+	 * Asserts that the given jar contains exactly the given entries.
+	 * 
+	 * @param expected the expected entries.
+	 * @param jar the jar.
+	 * @throws IOException if reading the jar failed.
+	 */
+	public static void assertJarEquals(Map<String, byte[]> expected, File jar) throws IOException {
+		Map<String, byte[]> actual = readJar(jar);
+		Assert.assertEquals("Entries of " + jar, expected.keySet(), actual.keySet());
+		for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+			Assert.assertArrayEquals(entry.getKey() + " in " + jar, entry.getValue(), actual.get(entry.getKey()));
+		}
+	}
+	
+	/**
+	 * Creates the class file of an empty, public class.
+	 * 
+	 * @param name the binary name of the class, like {@code a/b/C}.
+	 * @param variant the variant, which ends up in the padding.
+	 * @param padding the number of bytes to pad the class with.
+	 * @return the class file.
+	 */
+	public static byte[] createClass(String name, String variant, int padding) {
+		try {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			DataOutputStream output = new DataOutputStream(bytes);
+			output.writeInt(0xcafebabe);
+			output.writeShort(0);
+			output.writeShort(CLASS_FILE_VERSION);
+			
+			output.writeShort(6);
+			output.writeByte(7); // #1 Class #2
+			output.writeShort(2);
+			output.writeByte(1); // #2 Utf8
+			output.writeUTF(name);
+			output.writeByte(7); // #3 Class #4
+			output.writeShort(4);
+			output.writeByte(1); // #4 Utf8
+			output.writeUTF("java/lang/Object");
+			output.writeByte(1); // #5 Utf8, unused padding
+			output.writeUTF(createPadding(name + variant, padding));
+			
+			output.writeShort(0x0021); // public super
+			output.writeShort(1);
+			output.writeShort(3);
+			output.writeShort(0); // interfaces
+			output.writeShort(0); // fields
+			output.writeShort(0); // methods
+			output.writeShort(0); // attributes
+			output.close();
+			return bytes.toByteArray();
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+	
+	/**
+	 * Creates the given number of classes, spread over the given number of
+	 * packages.
+	 * 
+	 * @param packagePrefix the prefix of the packages, like {@code a/b/p}.
+	 * @param packages the number of packages.
+	 * @param classes the number of classes in every package.
+	 * @param variant the variant of the classes.
+	 * @param seed the seed for the sizes of the classes.
+	 * @return the class files by their entry names, in order.
+	 */
+	public static Map<String, byte[]> createClasses(String packagePrefix, int packages, int classes, String variant, long seed) {
+		Random random = new Random(seed);
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		for (int packageIdx = 0; packageIdx < packages; packageIdx++) {
+			for (int classIdx = 0; classIdx < classes; classIdx++) {
+				String name = packagePrefix + packageIdx + "/Class" + classIdx;
+				entries.put(name + ".class", createClass(name, variant, 200 + random.nextInt(3000)));
+			}
+		}
+		return entries;
+	}
+	
+	/**
+	 * Creates a new, empty temporary directory.
+	 * 
+	 * @param prefix the prefix of its name.
+	 * @return the directory.
+	 * @throws IOException if it could not be created.
+	 */
+	public static File createTemporaryDirectory(String prefix) throws IOException {
+		File directory = File.createTempFile(prefix, "");
+		if (!directory.delete() || !directory.mkdir()) {
+			throw new IOException("Failed to create " + directory);
+		}
+		return directory;
+	}
+	
+	/**
+	 * Deletes the given file or directory with everything in it.
+	 * 
+	 * @param file the file or directory.
+	 */
+	public static void delete(File file) {
+		File[] children = file.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				delete(child);
+			}
+		}
+		file.delete();
+	}
+	
+	/**
+	 * Creates entries with text contents.
+	 * 
+	 * @param namesAndContents the name and the contents of every entry, one
+	 *            after another.
+	 * @return the entries by their names, in order.
+	 */
+	public static Map<String, byte[]> entries(String... namesAndContents) {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		for (int idx = 0; idx < namesAndContents.length; idx += 2) {
+			entries.put(namesAndContents[idx], namesAndContents[idx + 1].getBytes());
+		}
+		return entries;
+	}
+	
+	/**
+	 * Reads all entries of the given jar.
+	 * 
+	 * @param jar the jar.
+	 * @return the data of all entries by their names, in order.
+	 * @throws IOException if reading failed.
+	 */
+	public static Map<String, byte[]> readJar(File jar) throws IOException {
+		Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		ZipFile zipFile = new ZipFile(jar);
+		try {
+			Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+			while (zipEntries.hasMoreElements()) {
+				ZipEntry zipEntry = zipEntries.nextElement();
+				entries.put(zipEntry.getName(), readFully(zipFile.getInputStream(zipEntry)));
+			}
+		} finally {
+			zipFile.close();
+		}
+		return entries;
+	}
+	
+	/**
+	 * Reads all lines of the given file.
+	 * 
+	 * @param file the file.
+	 * @return the lines.
+	 * @throws IOException if reading failed.
+	 */
+	public static List<String> readLines(File file) throws IOException {
+		List<String> lines = new ArrayList<String>();
+		BufferedReader reader = new BufferedReader(new FileReader(file));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		return lines;
+	}
+	
+	/**
+	 * Reads the given stream until EOF and closes it.
+	 * 
+	 * @param input the stream.
+	 * @return everything that has been read.
+	 * @throws IOException if reading failed.
+	 */
+	public static byte[] readFully(InputStream input) throws IOException {
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = input.read(buffer)) >= 0) {
+				data.write(buffer, 0, read);
+			}
+			return data.toByteArray();
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Writes the given text into a file.
+	 * 
+	 * @param file the file.
+	 * @param contents the contents, which are written as UTF-8.
+	 * @throws IOException if writing failed.
+	 */
+	public static void writeFile(File file, String contents) throws IOException {
+		OutputStream output = new FileOutputStream(file);
+		try {
+			output.write(contents.getBytes("UTF-8"));
+		} finally {
+			output.close();
+		}
+	}
+	
+	/**
+	 * Writes the given entries into a jar.
+	 * 
+	 * @param jar the jar.
+	 * @param entries the entries by their names.
+	 * @param method {@link ZipEntry#DEFLATED} or {@link ZipEntry#STORED}.
+	 * @return the jar.
+	 * @throws IOException if writing failed.
+	 */
+	public static File writeJar(File jar, Map<String, byte[]> entries, int method) throws IOException {
+		ZipOutputStream output = new ZipOutputStream(new FileOutputStream(jar));
+		try {
+			for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+				ZipEntry zipEntry = new ZipEntry(entry.getKey());
+				zipEntry.setMethod(method);
+				if (method == ZipEntry.STORED) {
+					CRC32 crc = new CRC32();
+					crc.update(entry.getValue());
+					zipEntry.setCrc(crc.getValue());
+					zipEntry.setSize(entry.getValue().length);
+					zipEntry.setCompressedSize(entry.getValue().length);
+				}
+				output.putNextEntry(zipEntry);
+				output.write(entry.getValue());
+				output.closeEntry();
+			}
+		} finally {
+			output.close();
+		}
+		return jar;
+	}
+	
+	private static String createPadding(String seed, int length) {
+		StringBuilder padding = new StringBuilder(length);
+		int counter = 0;
+		while (padding.length() < length) {
+			padding.append(seed).append(counter++).append(';');
+		}
+		padding.setLength(length);
+		return padding.toString();
+	}
+}
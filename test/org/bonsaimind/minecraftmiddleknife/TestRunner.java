@@ -0,0 +1,142 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.io.File;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Runs the tests or the benchmarks, without depending on any test framework.
+ * <p/>
+ * Every class whose name ends with the given suffix is instantiated, and
+ * every public method without parameters whose name starts with the suffix
+ * in lower case is invoked on its own instance. A test fails by throwing,
+ * usually an {@link AssertionError} from {@link Assert}.
+ * 
+ * <pre>
+ * java TestRunner build-test Test
+ * java TestRunner build-test Benchmark
+ * </pre>
+ */
+public final class TestRunner {
+	
+	private TestRunner() {
+	}
+	
+	/**
+	 * Runs all tests in the given directory and exits with {@code 1} if any
+	 * of them failed.
+	 * 
+	 * @param args the directory with the compiled classes and the suffix of
+	 *            the classes to run.
+	 * @throws ClassNotFoundException if a found class can not be loaded.
+	 */
+	public static void main(String[] args) throws ClassNotFoundException {
+		if (args.length != 2) {
+			System.err.println("Usage: TestRunner DIRECTORY SUFFIX");
+			System.exit(2);
+		}
+		
+		File directory = new File(args[0]);
+		String suffix = args[1];
+		String prefix = suffix.substring(0, 1).toLowerCase() + suffix.substring(1);
+		
+		List<String> classNames = new ArrayList<String>();
+		findClasses(directory, "", suffix, classNames);
+		Collections.sort(classNames);
+		
+		int run = 0;
+		int failed = 0;
+		for (String className : classNames) {
+			Class<?> clazz = Class.forName(className);
+			
+			List<Method> methods = new ArrayList<Method>();
+			for (Method method : clazz.getMethods()) {
+				if (method.getName().startsWith(prefix) && method.getParameterTypes().length == 0 && !Modifier.isStatic(method.getModifiers())) {
+					methods.add(method);
+				}
+			}
+			Collections.sort(methods, new MethodComparator());
+			
+			for (Method method : methods) {
+				run++;
+				String name = clazz.getSimpleName() + "." + method.getName();
+				long start = System.nanoTime();
+				try {
+					method.invoke(clazz.newInstance());
+					System.out.println(name + ": OK (" + (System.nanoTime() - start) / 1000000 + " ms)");
+				} catch (InvocationTargetException e) {
+					failed++;
+					System.out.println(name + ": FAILED");
+					e.getCause().printStackTrace(System.out);
+				} catch (Exception e) {
+					failed++;
+					System.out.println(name + ": ERROR");
+					e.printStackTrace(System.out);
+				}
+			}
+		}
+		
+		System.out.println(run + " run, " + failed + " failed.");
+		if (failed > 0 || run == 0) {
+			System.exit(1);
+		}
+	}
+	
+	private static void findClasses(File directory, String packageName, String suffix, List<String> classNames) {
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return;
+		}
+		
+		Arrays.sort(files);
+		for (File file : files) {
+			String name = file.getName();
+			if (file.isDirectory()) {
+				findClasses(file, packageName + name + ".", suffix, classNames);
+			} else if (name.endsWith(suffix + ".class") && name.indexOf('$') < 0) {
+				classNames.add(packageName + name.substring(0, name.length() - ".class".length()));
+			}
+		}
+	}
+	
+	private static final class MethodComparator implements Comparator<Method> {
+		
+		@Override
+		public int compare(Method first, Method second) {
+			return first.getName().compareTo(second.getName());
+		}
+	}
+}
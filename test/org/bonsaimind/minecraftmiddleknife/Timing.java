@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 Robert 'Bobby' Zenz. All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without modification, are
+ * permitted provided that the following conditions are met:
+ *
+ * 1. Redistributions of source code must retain the above copyright notice, this list of
+ * conditions and the following disclaimer.
+ *
+ * 2. Redistributions in binary form must reproduce the above copyright notice, this list
+ * of conditions and the following disclaimer in the documentation and/or other materials
+ * provided with the distribution.
+ *
+ * THIS SOFTWARE IS PROVIDED BY Robert 'Bobby' Zenz ''AS IS'' AND ANY EXPRESS OR IMPLIED
+ * WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES OF MERCHANTABILITY AND
+ * FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL Robert 'Bobby' Zenz OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR
+ * SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING
+ * NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF
+ * ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ *
+ * The views and conclusions contained in the software and documentation are those of the
+ * authors and should not be interpreted as representing official policies, either expressed
+ * or implied, of Robert 'Bobby' Zenz.
+ */
+package org.bonsaimind.minecraftmiddleknife;
+
+import java.util.Arrays;
+
+/**
+ * Measures and reports the time of the benchmarks.
+ */
+final class Timing {
+	
+	private Timing() {
+	}
+	
+	/**
+	 * Runs the given task the given number of times after warming it up, and
+	 * prints the median and best time.
+	 * 
+	 * @param name the name which is printed.
+	 * @param warmups the number of runs which are not measured.
+	 * @param runs the number of measured runs.
+	 * @param task the task.
+	 * @return the median time in nanoseconds.
+	 * @throws Exception if the task failed.
+	 */
+	public static long measure(String name, int warmups, int runs, Task task) throws Exception {
+		for (int run = 0; run < warmups; run++) {
+			task.run();
+		}
+		
+		long[] times = new long[runs];
+		for (int run = 0; run < runs; run++) {
+			long start = System.nanoTime();
+			task.run();
+			times[run] = System.nanoTime() - start;
+		}
+		
+		Arrays.sort(times);
+		long median = times[runs / 2];
+		System.out.println(String.format("  %-40s median %8.2f ms, best %8.2f ms", name, Double.valueOf(median / 1e6), Double.valueOf(times[0] / 1e6)));
+		return median;
+	}
+	
+	/**
+	 * Prints how many units per second have been processed.
+	 * 
+	 * @param units the number of units processed in the given time.
+	 * @param unit the name of the units.
+	 * @param nanos the time in nanoseconds.
+	 */
+	public static void printRate(double units, String unit, long nanos) {
+		System.out.println(String.format("  %40s %12.1f %s/s", "", Double.valueOf(units / (nanos / 1e9)), unit));
+	}
+	
+	/**
+	 * A task which is measured.
+	 */
+	public interface Task {
+		
+		/**
+		 * Runs the task once.
+		 * 
+		 * @throws Exception if the task failed.
+		 */
+		public void run() throws Exception;
+	}
+}